@@ -0,0 +1,46 @@
+package com.sm.engine.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+/**
+ * The application config for activity log write-behind configurations.
+ */
+@Getter
+@Setter
+@Validated
+@Configuration
+@ConfigurationProperties(prefix = "activityLogWriter")
+public class ActivityLogWriterConfig {
+
+    /**
+     * The max time in milliseconds an activity log waits before it is written.
+     */
+    @Min(1)
+    private long flushInterval = 1000;
+
+    /**
+     * The max number of activity logs written in one insert.
+     */
+    @Min(1)
+    private int batchSize = 100;
+
+    /**
+     * The max number of activity logs waiting, activity logs are spilled to the spill directory when it is full.
+     */
+    @Min(1)
+    private int queueCapacity = 10000;
+
+    /**
+     * The local directory activity logs are spilled to when the queue is full or they failed to insert,
+     * they are written from it once inserts succeed again, also after restart.
+     */
+    @NotNull
+    private String spillDirectory = "activity-log-spill";
+}
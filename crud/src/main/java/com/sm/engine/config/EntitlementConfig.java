@@ -0,0 +1,54 @@
+package com.sm.engine.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The application config for precomputed entitlement configurations.
+ */
+@Getter
+@Setter
+@Validated
+@Configuration
+@ConfigurationProperties(prefix = "entitlement")
+public class EntitlementConfig {
+
+    /**
+     * Whether the evaluated headers of all ldap users are precomputed.
+     */
+    private boolean enabled;
+
+    /**
+     * The ids of modules to precompute, all modules and the evaluation without module if empty.
+     */
+    @NotNull
+    private List<String> moduleIds = new ArrayList<>();
+
+    /**
+     * The max number of users recomputed concurrently.
+     */
+    @Min(1)
+    private int concurrency = 4;
+
+    /**
+     * The interval in milliseconds to recompute all users so ldap changes are picked up,
+     * must be below the max age so the entitlements are used between full refreshes.
+     */
+    @Min(1)
+    private long fullRefreshInterval = 3600000;
+
+    /**
+     * The max age in milliseconds of the user attributes an entitlement is used with, older entitlements
+     * are evaluated in ldap.
+     */
+    @Min(1)
+    private long maxAge = 7200000;
+}
@@ -0,0 +1,45 @@
+package com.sm.engine.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.Min;
+
+/**
+ * The application config for header async evaluate configurations.
+ */
+@Getter
+@Setter
+@Validated
+@Configuration
+@ConfigurationProperties(prefix = "headerEvaluateAsync")
+public class HeaderEvaluateAsyncConfig {
+
+    /**
+     * The timeout in milliseconds of one async evaluate request.
+     */
+    @Min(1)
+    private long timeout = 5000;
+
+    /**
+     * The number of threads to load policies from mongo for async evaluations.
+     */
+    @Min(1)
+    private int mongoThreads = 4;
+
+    /**
+     * The number of threads to evaluate headers in ldap for async evaluations and to search users for sync ones.
+     */
+    @Min(1)
+    private int ldapThreads = 16;
+
+    /**
+     * The max number of tasks waiting for a thread in each executor, async requests are rejected once full
+     * and sync requests search users on their own thread.
+     */
+    @Min(0)
+    private int queueCapacity = 100;
+}
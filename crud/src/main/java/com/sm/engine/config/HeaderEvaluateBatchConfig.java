@@ -0,0 +1,32 @@
+package com.sm.engine.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.Min;
+
+/**
+ * The application config for header batch evaluate configurations.
+ */
+@Getter
+@Setter
+@Validated
+@Configuration
+@ConfigurationProperties(prefix = "headerEvaluateBatch")
+public class HeaderEvaluateBatchConfig {
+
+    /**
+     * The max number of users evaluated concurrently over all batches.
+     */
+    @Min(1)
+    private int concurrency = 8;
+
+    /**
+     * The max number of usernames in one batch.
+     */
+    @Min(1)
+    private int maxUsernames = 10000;
+}
@@ -1,5 +1,6 @@
 package com.sm.engine.config;
 
+import io.jsonwebtoken.SignatureAlgorithm;
 import lombok.Getter;
 import lombok.Setter;
 import org.hibernate.validator.constraints.NotBlank;
@@ -8,6 +9,7 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.validation.annotation.Validated;
 
 import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
 
 /**
  * The application config for jwt configurations.
@@ -25,6 +27,64 @@ public class JwtConfig {
     @Min(1)
     private long expirationTime;
 
+    /**
+     * The max time in milliseconds since login tokens can be refreshed to expire at,
+     * 300 days by default, zero opts out for unlimited refreshes.
+     */
+    @Min(0)
+    private long maxSessionAge = 25920000000L;
+
+    /**
+     * The expiration time in milliseconds of the headers embedded in tokens.
+     */
+    @Min(1)
+    private long embeddedHeadersTtl = 300000;
+
+    /**
+     * Whether requests are authorized from the role claim of tokens without reading the user,
+     * tokens are checked against the token revocations instead.
+     */
+    private boolean claimsAuthorization;
+
+    /**
+     * The expected number of revoked users the revocation bloom filter is sized for, it grows if exceeded.
+     */
+    @Min(1)
+    private long revocationFilterSize = 10000;
+
+    /**
+     * The interval in milliseconds to load the token revocations again so revocations of other instances
+     * are picked up.
+     */
+    @Min(1)
+    private long revocationReloadInterval = 10000;
+
+
+    /**
+     * The algorithm tokens are signed with, tokens are signed with the secret if it is an HMAC algorithm
+     * or with rotated key pairs otherwise.
+     */
+    @NotNull
+    private SignatureAlgorithm signatureAlgorithm = SignatureAlgorithm.HS512;
+
+    /**
+     * The time in milliseconds after which the signing key pair is replaced by a new key pair.
+     */
+    @Min(1)
+    private long keyRotationInterval = 2592000000L;
+
+    /**
+     * The base64 encoded AES key the private signing keys are encrypted with in the database,
+     * derived from the secret if empty.
+     */
+    private String signingKeyEncryptionKey;
+
+    /**
+     * The time in epoch milliseconds until which tokens signed with the secret are still accepted while
+     * tokens are signed with key pairs, they are rejected if zero or passed.
+     */
+    @Min(0)
+    private long hmacTransitionUntil;
 
     /**
      * The secret.
@@ -0,0 +1,32 @@
+package com.sm.engine.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.Min;
+
+/**
+ * The application config for authenticated principal cache configurations.
+ */
+@Getter
+@Setter
+@Validated
+@Configuration
+@ConfigurationProperties(prefix = "principalCache")
+public class PrincipalCacheConfig {
+
+    /**
+     * The time in milliseconds a principal is cached, not cached if zero.
+     */
+    @Min(0)
+    private long ttl = 60000;
+
+    /**
+     * The max number of principals cached.
+     */
+    @Min(1)
+    private long maxSize = 10000;
+}
@@ -0,0 +1,32 @@
+package com.sm.engine.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.Min;
+
+/**
+ * The application config for search configurations.
+ */
+@Getter
+@Setter
+@Validated
+@Configuration
+@ConfigurationProperties(prefix = "search")
+public class SearchConfig {
+
+    /**
+     * The max number of records counted for an estimated total of a filtered search.
+     */
+    @Min(1)
+    private int estimatedCountLimit = 10000;
+
+    /**
+     * The number of documents indexed per bulk update when indexing the documents saved without search tokens.
+     */
+    @Min(1)
+    private int indexBatchSize = 1000;
+}
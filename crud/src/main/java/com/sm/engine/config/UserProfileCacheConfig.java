@@ -0,0 +1,32 @@
+package com.sm.engine.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.Min;
+
+/**
+ * The application config for ldap user profile cache configurations.
+ */
+@Getter
+@Setter
+@Validated
+@Configuration
+@ConfigurationProperties(prefix = "userProfileCache")
+public class UserProfileCacheConfig {
+
+    /**
+     * The time in milliseconds a user profile is cached, not cached if zero.
+     */
+    @Min(0)
+    private long ttl = 60000;
+
+    /**
+     * The max number of user profiles cached.
+     */
+    @Min(1)
+    private long maxSize = 10000;
+}
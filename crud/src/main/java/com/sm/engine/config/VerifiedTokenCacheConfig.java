@@ -0,0 +1,32 @@
+package com.sm.engine.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.Min;
+
+/**
+ * The application config for verified token cache configurations.
+ */
+@Getter
+@Setter
+@Validated
+@Configuration
+@ConfigurationProperties(prefix = "verifiedTokenCache")
+public class VerifiedTokenCacheConfig {
+
+    /**
+     * The time in milliseconds a verified token is cached, not cached if zero.
+     */
+    @Min(0)
+    private long ttl = 300000;
+
+    /**
+     * The max number of verified tokens cached.
+     */
+    @Min(1)
+    private long maxSize = 10000;
+}
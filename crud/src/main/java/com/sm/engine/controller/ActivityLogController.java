@@ -3,12 +3,15 @@ package com.sm.engine.controller;
 import com.sm.engine.domain.ActivityLog;
 import com.sm.engine.domain.support.ActivityLogSearchCriteria;
 import com.sm.engine.domain.support.SearchResult;
+import com.sm.engine.domain.support.TotalMode;
 import com.sm.engine.service.ActivityLogService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Pageable;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.ModelAttribute;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 /**
@@ -30,11 +33,26 @@ public class ActivityLogController {
      *
      * @param criteria the search criteria
      * @param pageable the paging criteria
+     * @param after    the cursor of the previous page, empty for the first page, absent to search by page number
+     * @param total    the total mode, exact by page number and none with cursor if absent
      * @return the search result
      */
     @GetMapping
     public SearchResult<ActivityLog> search(@ModelAttribute ActivityLogSearchCriteria criteria,
-                                            Pageable pageable) {
-        return activityLogService.search(criteria, pageable);
+                                            Pageable pageable,
+                                            @RequestParam(value = "after", required = false) String after,
+                                            @RequestParam(value = "total", required = false) String total) {
+        return activityLogService.search(criteria, pageable, after, TotalMode.of(total));
+    }
+
+    /**
+     * Render the activity log as the documents before and after the operation.
+     *
+     * @param id the activity log id
+     * @return the documents before and after the operation
+     */
+    @GetMapping("/{id}/description")
+    public String render(@PathVariable("id") String id) {
+        return activityLogService.render(id);
     }
 }
@@ -2,6 +2,7 @@ package com.sm.engine.controller;
 
 import com.sm.engine.domain.IdentifiableDocument;
 import com.sm.engine.domain.support.SearchResult;
+import com.sm.engine.domain.support.TotalMode;
 import com.sm.engine.service.BaseService;
 import lombok.AccessLevel;
 import lombok.Getter;
@@ -14,6 +15,7 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 
 import javax.validation.Valid;
 
@@ -48,11 +50,15 @@ public abstract class BaseController<T extends IdentifiableDocument, S> {
      *
      * @param criteria the search criteria
      * @param pageable the paging criteria
+     * @param after    the cursor of the previous page, empty for the first page, absent to search by page number
+     * @param total    the total mode, exact by page number and none with cursor if absent
      * @return the search result
      */
     @GetMapping
-    public SearchResult<T> search(@ModelAttribute S criteria, @Valid Pageable pageable) {
-        return service.search(criteria, pageable);
+    public SearchResult<T> search(@ModelAttribute S criteria, @Valid Pageable pageable,
+                                  @RequestParam(value = "after", required = false) String after,
+                                  @RequestParam(value = "total", required = false) String total) {
+        return service.search(criteria, pageable, after, TotalMode.of(total));
     }
 
     /**
@@ -1,16 +1,46 @@
 package com.sm.engine.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sm.engine.config.HeaderEvaluateAsyncConfig;
 import com.sm.engine.domain.Header;
+import com.sm.engine.domain.HeaderEvaluateBatchRequest;
+import com.sm.engine.domain.HeaderEvaluateBatchResult;
 import com.sm.engine.domain.HeaderEvaluateResult;
+import com.sm.engine.domain.HeaderEvaluateStats;
+import com.sm.engine.domain.HeaderReceiverSearchResult;
+import com.sm.engine.domain.support.HeaderReceiverSearchCriteria;
 import com.sm.engine.domain.support.NameSearchCriteria;
+import com.sm.engine.domain.support.StageTimings;
+import com.sm.engine.service.HeaderReceiverService;
 import com.sm.engine.service.HeaderService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Pageable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.ModelAttribute;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.AsyncRequestTimeoutException;
+import org.springframework.web.context.request.async.DeferredResult;
 
+import javax.servlet.http.HttpServletResponse;
+import javax.validation.Valid;
+import java.io.IOException;
+import java.security.Principal;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
 
 /**
  * The controller of headers end-points.
@@ -19,16 +49,195 @@ import java.util.List;
 @RequestMapping("/headers")
 public class HeaderController extends BaseController<Header, NameSearchCriteria> {
 
+    /**
+     * The Server-Timing http header name.
+     */
+    private static final String SERVER_TIMING = "Server-Timing";
+
+    /**
+     * The logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(HeaderController.class);
+
+    /**
+     * The http header name of module id for auth requests.
+     */
+    private static final String MODULE_ID_HEADER = "X-Module-Id";
+
+    /**
+     * The object mapper.
+     */
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * The header async evaluate config.
+     */
+    @Autowired
+    private HeaderEvaluateAsyncConfig headerEvaluateAsyncConfig;
+
+    /**
+     * The header receiver service.
+     */
+    @Autowired
+    private HeaderReceiverService headerReceiverService;
+
     /**
      * Gets the Headers evaluate result generated for the specified username.
+     * The stage timings are returned in Server-Timing header.
      *
      * @param username the username
      * @param moduleId the id of module
+     * @param response the http response to set Server-Timing header
      * @return the Headers evaluate result
      */
     @GetMapping("/evaluate/{username}")
     public List<HeaderEvaluateResult> evaluate(@PathVariable("username") String username,
-                                               @RequestParam(value = "moduleId", required = false) String moduleId) {
-        return ((HeaderService) getService()).evaluate(username, moduleId);
+                                               @RequestParam(value = "moduleId", required = false) String moduleId,
+                                               HttpServletResponse response) {
+        StageTimings timings = new StageTimings();
+        List<HeaderEvaluateResult> result = ((HeaderService) getService()).evaluate(username, moduleId, timings);
+        response.setHeader(SERVER_TIMING, timings.toServerTiming());
+        return result;
+    }
+
+    /**
+     * Evaluates the headers of the authenticated user and returns them as http response headers with empty body,
+     * to be used by nginx auth_request. The bearer token is validated by the jwt filter.
+     *
+     * @param moduleId       the id of module from query parameter
+     * @param moduleIdHeader the id of module from X-Module-Id header, used if no query parameter
+     * @param principal      the authenticated user
+     * @param response       the http response to set the evaluated headers
+     */
+    @GetMapping("/auth-request")
+    public void authRequest(@RequestParam(value = "moduleId", required = false) String moduleId,
+                            @RequestHeader(value = MODULE_ID_HEADER, required = false) String moduleIdHeader,
+                            Principal principal, HttpServletResponse response) {
+        StageTimings timings = new StageTimings();
+        List<HeaderEvaluateResult> result = ((HeaderService) getService())
+                .evaluate(principal.getName(), moduleId == null ? moduleIdHeader : moduleId, timings);
+        for (HeaderEvaluateResult header : result) {
+            // ldap values must not break the response headers
+            response.setHeader(header.getName(), header.getValue().replaceAll("[\\r\\n]", " "));
+        }
+        response.setHeader(SERVER_TIMING, timings.toServerTiming());
+        response.setStatus(HttpServletResponse.SC_OK);
+    }
+
+    /**
+     * Gets the Headers evaluate result generated for the specified username asynchronously.
+     * The request thread is released while evaluating and the request fails once timeout.
+     *
+     * @param username the username
+     * @param moduleId the id of module
+     * @param response the http response to set Server-Timing header
+     * @return the deferred Headers evaluate result
+     */
+    @GetMapping("/evaluate-async/{username}")
+    public DeferredResult<List<HeaderEvaluateResult>> evaluateAsync(
+            @PathVariable("username") String username,
+            @RequestParam(value = "moduleId", required = false) String moduleId,
+            HttpServletResponse response) {
+        DeferredResult<List<HeaderEvaluateResult>> deferredResult =
+                new DeferredResult<>(headerEvaluateAsyncConfig.getTimeout());
+        StageTimings timings = new StageTimings();
+        CompletableFuture<List<HeaderEvaluateResult>> future =
+                ((HeaderService) getService()).evaluateAsync(username, moduleId, timings);
+        deferredResult.onTimeout(() -> {
+            // stop waiting, the evaluation is cancelled only if no other request waits for it
+            future.cancel(true);
+            deferredResult.setErrorResult(new AsyncRequestTimeoutException());
+        });
+        future.whenComplete((result, ex) -> {
+            if (ex == null) {
+                response.setHeader(SERVER_TIMING, timings.toServerTiming());
+                deferredResult.setResult(result);
+            } else {
+                deferredResult.setErrorResult(ex instanceof CompletionException ? ex.getCause() : ex);
+            }
+        });
+        return deferredResult;
+    }
+
+    /**
+     * Gets the header evaluate statistics.
+     *
+     * @return the header evaluate statistics
+     */
+    @GetMapping("/evaluate-stats")
+    public HeaderEvaluateStats getEvaluateStats() {
+        return ((HeaderService) getService()).getEvaluateStats();
+    }
+
+    /**
+     * Search the users who receive the header.
+     *
+     * @param criteria the search criteria
+     * @param pageable the pagination
+     * @return the users found in username order
+     */
+    @GetMapping("/receivers")
+    public HeaderReceiverSearchResult searchReceivers(@ModelAttribute HeaderReceiverSearchCriteria criteria,
+                                                      @Valid Pageable pageable) {
+        return headerReceiverService.search(criteria, pageable);
+    }
+
+    /**
+     * Evaluates the headers for many users and modules in one call.
+     * The results are written as a json array and flushed as soon as each user is evaluated.
+     * Once the array is started the status is committed, so failures are written as error results
+     * and the array is always closed.
+     *
+     * @param request  the batch evaluate request
+     * @param response the http response to write the results
+     * @throws IOException throws if failed to write the response
+     */
+    @PostMapping("/evaluate:batch")
+    public void evaluateBatch(@Valid @RequestBody HeaderEvaluateBatchRequest request,
+                              HttpServletResponse response) throws IOException {
+        try (Stream<HeaderEvaluateBatchResult> results = ((HeaderService) getService())
+                .evaluateBatch(request.getUsernames(), request.getModuleIds())) {
+            response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+            JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream());
+            generator.writeStartArray();
+            String username = null;
+            try {
+                for (Iterator<HeaderEvaluateBatchResult> it = results.iterator(); it.hasNext(); ) {
+                    HeaderEvaluateBatchResult result = it.next();
+                    if (username != null && !username.equals(result.getUsername())) {
+                        // flush once all modules of previous user are written
+                        generator.flush();
+                    }
+                    username = result.getUsername();
+                    generator.writeTree(toTree(result));
+                }
+            } catch (RuntimeException ex) {
+                // the users not evaluated yet are unknown, so the error ends the results without username
+                LOG.error("Error happened during streaming batch evaluate results", ex);
+                generator.writeObject(new HeaderEvaluateBatchResult(null, null, null,
+                        "Failed to evaluate headers of the remaining users"));
+            }
+            generator.writeEndArray();
+            generator.flush();
+        }
+    }
+
+    /**
+     * Convert the batch evaluate result to a json tree before it is written,
+     * so a result failed to convert is written as an error result instead of a partial json object.
+     *
+     * @param result the batch evaluate result
+     * @return the json tree
+     */
+    private JsonNode toTree(HeaderEvaluateBatchResult result) {
+        try {
+            return objectMapper.valueToTree(result);
+        } catch (IllegalArgumentException ex) {
+            LOG.error("Error happened during writing batch evaluate result of user '" + result.getUsername() + "'",
+                    ex);
+            return objectMapper.valueToTree(new HeaderEvaluateBatchResult(result.getUsername(), result.getModuleId(),
+                    null, "Failed to evaluate headers of user '" + result.getUsername() + "'"));
+        }
     }
 }
@@ -0,0 +1,33 @@
+package com.sm.engine.controller;
+
+import com.sm.engine.service.SigningKeyService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The JSON web key set controller to publish the public keys tokens are verified with.
+ */
+@RestController
+public class JwksController {
+
+    /**
+     * The signing key service.
+     */
+    @Autowired
+    private SigningKeyService signingKeyService;
+
+    /**
+     * Gets the public keys of the signing keys not expired, tokens can be verified with them without calling back.
+     *
+     * @return the JSON web key set
+     */
+    @GetMapping("/.well-known/jwks.json")
+    public Map<String, List<Map<String, Object>>> getJwks() {
+        return Collections.singletonMap("keys", signingKeyService.getJwks());
+    }
+}
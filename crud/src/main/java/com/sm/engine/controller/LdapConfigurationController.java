@@ -1,7 +1,14 @@
 package com.sm.engine.controller;
 
 import com.sm.engine.domain.LdapConfiguration;
+import com.sm.engine.domain.LdapPoolStats;
+import com.sm.engine.domain.RuleCacheStats;
 import com.sm.engine.domain.support.LdapConfigurationSearchCriteria;
+import com.sm.engine.service.HeaderReceiverService;
+import com.sm.engine.service.LdapServiceRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
@@ -12,4 +19,46 @@ import org.springframework.web.bind.annotation.RestController;
 @RequestMapping("/ldap-configurations")
 public class LdapConfigurationController
         extends BaseController<LdapConfiguration, LdapConfigurationSearchCriteria> {
+
+    /**
+     * The ldap service registry.
+     */
+    @Autowired
+    private LdapServiceRegistry ldapServiceRegistry;
+
+    /**
+     * The header receiver service.
+     */
+    @Autowired
+    private HeaderReceiverService headerReceiverService;
+
+    /**
+     * Gets the connection pool statistics of the ldap service in use.
+     *
+     * @return the connection pool statistics, all zero if connections are not pooled
+     */
+    @GetMapping("/pool-stats")
+    public LdapPoolStats getPoolStats() {
+        LdapPoolStats stats = ldapServiceRegistry.getLdapService().getPoolStats();
+        return stats == null ? new LdapPoolStats() : stats;
+    }
+
+    /**
+     * Gets the rule evaluate result cache statistics of the ldap service in use.
+     *
+     * @return the rule evaluate result cache statistics, empty if rule results are not cached
+     */
+    @GetMapping("/rule-cache-stats")
+    public RuleCacheStats getRuleCacheStats() {
+        return ldapServiceRegistry.getLdapService().getRuleCacheStats();
+    }
+
+    /**
+     * Discard all cached rule evaluate results of the ldap service in use and the header receivers built from them.
+     */
+    @DeleteMapping("/rule-cache")
+    public void invalidateRuleCache() {
+        ldapServiceRegistry.getLdapService().invalidateRuleCache();
+        headerReceiverService.invalidate();
+    }
 }
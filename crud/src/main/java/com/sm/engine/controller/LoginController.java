@@ -1,20 +1,25 @@
 package com.sm.engine.controller;
 
+import com.sm.engine.config.JwtConfig;
 import com.sm.engine.domain.LoginRequest;
 import com.sm.engine.domain.LoginResponse;
 import com.sm.engine.domain.User;
 import com.sm.engine.security.JwtService;
-import com.sm.engine.service.LdapConfigurationService;
+import com.sm.engine.service.HeaderService;
 import com.sm.engine.service.LdapService;
+import com.sm.engine.service.LdapServiceRegistry;
 import com.sm.engine.service.UserService;
 import com.sm.engine.utils.Helper;
+import io.jsonwebtoken.Claims;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.authentication.BadCredentialsException;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RestController;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
+import java.util.Date;
 
 /**
  * The login controller to provide login endpoint.
@@ -23,10 +28,10 @@ import javax.validation.Valid;
 public class LoginController {
 
     /**
-     * The ldap configuration service.
+     * The ldap service registry.
      */
     @Autowired
-    private LdapConfigurationService ldapConfigurationService;
+    private LdapServiceRegistry ldapServiceRegistry;
 
     /**
      * The user service.
@@ -40,8 +45,21 @@ public class LoginController {
     @Autowired
     private JwtService jwtService;
 
+    /**
+     * The injected jwt config
+     */
+    @Autowired
+    private JwtConfig jwtConfig;
+
+    /**
+     * The header service.
+     */
+    @Autowired
+    private HeaderService headerService;
+
     /**
      * This method is used to login through ldap server and return JWT token with user information.
+     * The evaluated headers of the module are embedded in the token if requested.
      *
      * @return the JWT token with user info
      * @throws BadCredentialsException throws if username or password is wrong
@@ -49,7 +67,7 @@ public class LoginController {
     @PostMapping(value = "/login")
     public LoginResponse login(@Valid @RequestBody LoginRequest request) throws BadCredentialsException {
         String username = request.getUsername();
-        LdapService ldapService = Helper.buildLdapService(ldapConfigurationService);
+        LdapService ldapService = ldapServiceRegistry.getLdapService();
         if (!ldapService.authenticate(request.getUsername(), request.getPassword())) {
             throw new BadCredentialsException("Username or password is wrong!");
         }
@@ -57,7 +75,41 @@ public class LoginController {
         Helper.checkUser(user, username);
         LoginResponse result = new LoginResponse();
         result.setUser(user);
-        result.setToken(jwtService.encode(user));
+        if (request.isEmbedHeaders()) {
+            result.setToken(jwtService.encode(user,
+                    new Date(System.currentTimeMillis() + jwtConfig.getExpirationTime()), request.getModuleId(),
+                    headerService.evaluate(username, request.getModuleId())));
+        } else {
+            result.setToken(jwtService.encode(user));
+        }
+        return result;
+    }
+
+    /**
+     * Reissue the JWT token of the authenticated user expiring after the expiration time from now,
+     * but not later than the max session age after login if configured.
+     * The embedded headers are evaluated again if the token has embedded headers.
+     *
+     * @param request the http request with the JWT token
+     * @return the new JWT token with user info
+     */
+    @PostMapping(value = "/login/refresh")
+    public LoginResponse refresh(HttpServletRequest request) {
+        Claims claims = jwtService.decodeClaims(jwtService.getToken(request));
+        Number authTimeClaim = claims.get(JwtService.AUTH_TIME_CLAIM, Number.class);
+        Date authTime = authTimeClaim == null ? claims.getIssuedAt() : new Date(authTimeClaim.longValue() * 1000);
+        long expiration = System.currentTimeMillis() + jwtConfig.getExpirationTime();
+        if (jwtConfig.getMaxSessionAge() > 0) {
+            expiration = Math.min(expiration, authTime.getTime() + jwtConfig.getMaxSessionAge());
+        }
+        String username = claims.getSubject();
+        User user = userService.findByUsername(username);
+        Helper.checkUser(user, username);
+        String moduleId = claims.get(JwtService.MODULE_ID_CLAIM, String.class);
+        LoginResponse result = new LoginResponse();
+        result.setUser(user);
+        result.setToken(jwtService.encode(user, new Date(expiration), authTime, moduleId,
+                claims.containsKey(JwtService.HEADERS_CLAIM) ? headerService.evaluate(username, moduleId) : null));
         return result;
     }
 }
@@ -5,12 +5,23 @@ import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 import lombok.ToString;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 
+import java.util.List;
+
 /**
  * The activity log document definition.
+ * The sort properties of searches are indexed with the id so pages searched with cursor are read from the index.
  */
 @Document
+@CompoundIndexes({
+        @CompoundIndex(name = "createdAt_id", def = "{ 'createdAt': 1, '_id': 1 }"),
+        @CompoundIndex(name = "operationType_id", def = "{ 'operationType': 1, '_id': 1 }"),
+        @CompoundIndex(name = "documentType_id", def = "{ 'documentType': 1, '_id': 1 }"),
+        @CompoundIndex(name = "operatedBy_id", def = "{ 'operatedBy': 1, '_id': 1 }")
+})
 @Getter
 @Setter
 @ToString(callSuper = true)
@@ -37,4 +48,39 @@ public class ActivityLog extends IdentifiableDocument {
      * The activity log description.
      */
     private String description;
+
+    /**
+     * The id of the document under operation.
+     */
+    private String documentId;
+
+    /**
+     * The field level changes of the document, null if created or deleted.
+     */
+    private List<ActivityLogChange> changes;
+
+    /**
+     * The id of the snapshot of the document before the operation, null if created.
+     */
+    private String beforeSnapshotId;
+
+    /**
+     * The id of the snapshot of the document after the operation, null if deleted.
+     */
+    private String afterSnapshotId;
+
+    /**
+     * Create activity log.
+     *
+     * @param operationType the operation type
+     * @param documentType  the document type under operation
+     * @param operatedBy    the username of user who made the operation
+     * @param description   the activity log description
+     */
+    public ActivityLog(OperationType operationType, String documentType, String operatedBy, String description) {
+        this.operationType = operationType;
+        this.documentType = documentType;
+        this.operatedBy = operatedBy;
+        this.description = description;
+    }
 }
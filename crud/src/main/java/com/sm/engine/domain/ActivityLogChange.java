@@ -0,0 +1,33 @@
+package com.sm.engine.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * Presents one field level change of an activity log as a JSON patch operation.
+ */
+@Getter
+@Setter
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor
+public class ActivityLogChange {
+
+    /**
+     * The JSON patch operation, add, remove or replace.
+     */
+    private String op;
+
+    /**
+     * The JSON pointer of the changed field.
+     */
+    private String path;
+
+    /**
+     * The new value as JSON, null if removed.
+     */
+    private String value;
+}
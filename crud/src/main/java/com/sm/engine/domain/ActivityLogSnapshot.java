@@ -0,0 +1,26 @@
+package com.sm.engine.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * The activity log snapshot document definition, one version of a document referenced by activity logs.
+ * The id is the hash of the content so a version referenced by several activity logs is stored once.
+ */
+@Document
+@Getter
+@Setter
+@ToString(callSuper = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class ActivityLogSnapshot extends IdentifiableDocument {
+
+    /**
+     * The document as JSON.
+     */
+    private String content;
+}
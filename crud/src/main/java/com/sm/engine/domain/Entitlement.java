@@ -0,0 +1,55 @@
+package com.sm.engine.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.List;
+
+/**
+ * The entitlement document definition, the precomputed headers of one ldap user for one module.
+ * The id is built from the module id and the username so the entitlement is found by id.
+ */
+@Document
+@CompoundIndex(name = "moduleId_version", def = "{ 'moduleId': 1, 'version': 1 }")
+@Getter
+@Setter
+@ToString(callSuper = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class Entitlement extends IdentifiableDocument {
+
+    /**
+     * The username.
+     */
+    private String username;
+
+    /**
+     * The module id, empty for all modules.
+     */
+    private String moduleId;
+
+    /**
+     * The evaluated headers.
+     */
+    private List<HeaderEvaluateResult> headers;
+
+    /**
+     * The ldap attributes of the user the headers are evaluated with.
+     */
+    private List<EntitlementAttribute> attributes;
+
+    /**
+     * The version of the full recompute that last wrote the entitlement.
+     */
+    private long version;
+
+    /**
+     * The time in milliseconds the user attributes were searched in ldap.
+     */
+    private long evaluatedAt;
+}
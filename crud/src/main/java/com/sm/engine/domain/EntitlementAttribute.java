@@ -0,0 +1,30 @@
+package com.sm.engine.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+import java.util.List;
+
+/**
+ * Presents the values of one ldap attribute of the user stored with an entitlement.
+ */
+@Getter
+@Setter
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor
+public class EntitlementAttribute {
+
+    /**
+     * The LDAP attribute name.
+     */
+    private String name;
+
+    /**
+     * The values, empty if the user has no such attribute.
+     */
+    private List<String> values;
+}
@@ -22,7 +22,7 @@ import javax.validation.constraints.NotNull;
 @NoArgsConstructor
 @AllArgsConstructor
 @EqualsAndHashCode(of = "headerName", callSuper = true)
-public class Header extends IdentifiableDocument {
+public class Header extends IdentifiableDocument implements Searchable {
     /**
      * The header type.
      */
@@ -45,4 +45,14 @@ public class Header extends IdentifiableDocument {
      */
     @NotNull
     private String value;
+
+    /**
+     * Gets the header name searched by substring.
+     *
+     * @return the header name
+     */
+    @Override
+    public String searchText() {
+        return headerName;
+    }
 }
@@ -0,0 +1,25 @@
+package com.sm.engine.domain;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.hibernate.validator.constraints.NotEmpty;
+
+import java.util.List;
+
+/**
+ * The header batch evaluate request.
+ */
+@Getter
+@Setter
+public class HeaderEvaluateBatchRequest {
+    /**
+     * The usernames.
+     */
+    @NotEmpty
+    private List<String> usernames;
+
+    /**
+     * The ids of modules, all modules if null or empty.
+     */
+    private List<String> moduleIds;
+}
@@ -0,0 +1,39 @@
+package com.sm.engine.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+import java.util.List;
+
+/**
+ * Presents the header evaluate result of one user and module in a batch.
+ */
+@Getter
+@Setter
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor
+public class HeaderEvaluateBatchResult {
+    /**
+     * The username.
+     */
+    private String username;
+
+    /**
+     * The id of module, null for all modules.
+     */
+    private String moduleId;
+
+    /**
+     * The header evaluate results, null if the user failed to evaluate.
+     */
+    private List<HeaderEvaluateResult> headers;
+
+    /**
+     * The error message, null if the user is evaluated.
+     */
+    private String error;
+}
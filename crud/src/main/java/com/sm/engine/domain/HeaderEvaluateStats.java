@@ -0,0 +1,38 @@
+package com.sm.engine.domain;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * Presents the header evaluate statistics.
+ */
+@Getter
+@Setter
+@ToString
+public class HeaderEvaluateStats {
+    /**
+     * The number of evaluate requests.
+     */
+    private long requestCount;
+
+    /**
+     * The number of requests answered from cache.
+     */
+    private long hitCount;
+
+    /**
+     * The number of requests collapsed into an identical evaluation already in flight.
+     */
+    private long coalescedCount;
+
+    /**
+     * The number of evaluations actually run.
+     */
+    private long evaluationCount;
+
+    /**
+     * The number of evaluations currently in flight.
+     */
+    private int inFlightCount;
+}
@@ -0,0 +1,30 @@
+package com.sm.engine.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+import java.util.List;
+
+/**
+ * Presents the users who receive a header.
+ */
+@Getter
+@Setter
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor
+public class HeaderReceiverSearchResult {
+
+    /**
+     * The total number of users found.
+     */
+    private long total;
+
+    /**
+     * The usernames found with pagination, in username order.
+     */
+    private List<String> usernames;
+}
@@ -22,4 +22,14 @@ public class LoginRequest {
      */
     @NotBlank
     private String password;
+
+    /**
+     * Whether the evaluated headers are embedded in the token, optional.
+     */
+    private boolean embedHeaders;
+
+    /**
+     * The id of module to evaluate the embedded headers, all modules if null.
+     */
+    private String moduleId;
 }
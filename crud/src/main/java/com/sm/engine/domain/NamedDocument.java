@@ -18,11 +18,21 @@ import javax.validation.constraints.NotNull;
 @NoArgsConstructor
 @AllArgsConstructor
 @EqualsAndHashCode(of = "name", callSuper = true)
-public abstract class NamedDocument extends IdentifiableDocument {
+public abstract class NamedDocument extends IdentifiableDocument implements Searchable {
 
     /**
      * The name.
      */
     @NotNull
     private String name;
+
+    /**
+     * Gets the name searched by substring.
+     *
+     * @return the name
+     */
+    @Override
+    public String searchText() {
+        return name;
+    }
 }
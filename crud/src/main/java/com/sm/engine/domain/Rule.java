@@ -37,6 +37,11 @@ public class Rule {
     @Valid
     private List<LdapAttributeNameValue> ruleInfo;
 
+    /**
+     * The evaluation mode, optional, Ldap if null.
+     */
+    private RuleEvaluationMode evaluationMode;
+
     /**
      * The associated header.
      */
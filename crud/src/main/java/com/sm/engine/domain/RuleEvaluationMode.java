@@ -0,0 +1,19 @@
+package com.sm.engine.domain;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * The rule evaluation modes.
+ */
+public enum RuleEvaluationMode {
+    /**
+     * The rule is evaluated by searching the ldap rule in ldap.
+     */
+    @JsonProperty("Ldap")
+    LDAP,
+    /**
+     * The rule is evaluated in-process against the attributes of the user profile.
+     */
+    @JsonProperty("Local")
+    LOCAL;
+}
@@ -0,0 +1,15 @@
+package com.sm.engine.domain;
+
+/**
+ * The document searched by substring of a text.
+ * The text is indexed as n-gram tokens on write so substring searches do not scan the collection.
+ */
+public interface Searchable {
+
+    /**
+     * Gets the text searched by substring.
+     *
+     * @return the text, may be null
+     */
+    String searchText();
+}
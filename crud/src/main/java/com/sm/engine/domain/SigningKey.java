@@ -0,0 +1,53 @@
+package com.sm.engine.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * The signing key document definition, the asymmetric key pair tokens are signed with.
+ * The id is the key id set in the header of the tokens signed with the key.
+ */
+@Document
+@Getter
+@Setter
+@ToString(callSuper = true, exclude = "privateKey")
+@NoArgsConstructor
+@AllArgsConstructor
+public class SigningKey extends IdentifiableDocument {
+
+    /**
+     * The jwt signature algorithm name.
+     */
+    private String algorithm;
+
+    /**
+     * The base64 encoded PKCS#8 private key, encrypted with AES-GCM and prefixed with the IV if encrypted.
+     */
+    private String privateKey;
+
+    /**
+     * Whether the private key is encrypted.
+     */
+    private boolean encrypted;
+
+    /**
+     * The base64 encoded X.509 public key.
+     */
+    private String publicKey;
+
+    /**
+     * The time the key is replaced by a new key, null while tokens are signed with the key.
+     */
+    private Date retiredAt;
+
+    /**
+     * The time all the tokens signed with the key are expired, the key is removed after.
+     */
+    private Date expiresAt;
+}
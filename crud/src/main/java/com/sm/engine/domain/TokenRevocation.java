@@ -0,0 +1,35 @@
+package com.sm.engine.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * The token revocation document definition, the tokens of the user issued until the revocation time are revoked.
+ * The id is the username so the user has one revocation, the latest.
+ */
+@Document
+@Getter
+@Setter
+@ToString(callSuper = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class TokenRevocation extends IdentifiableDocument {
+
+    /**
+     * The time the tokens are revoked.
+     */
+    private Date revokedAt;
+
+    /**
+     * The time all the revoked tokens are expired, the revocation is removed after.
+     */
+    @Indexed(expireAfterSeconds = 0)
+    private Date expiresAt;
+}
@@ -19,7 +19,7 @@ import javax.validation.constraints.NotNull;
 @ToString(callSuper = true)
 @NoArgsConstructor
 @AllArgsConstructor
-public class User extends IdentifiableDocument {
+public class User extends IdentifiableDocument implements Searchable {
 
     /**
      * The username.
@@ -39,4 +39,14 @@ public class User extends IdentifiableDocument {
      */
     @NotNull
     private Boolean enabled;
+
+    /**
+     * Gets the username searched by substring.
+     *
+     * @return the username
+     */
+    @Override
+    public String searchText() {
+        return username;
+    }
 }
@@ -0,0 +1,37 @@
+package com.sm.engine.domain.support;
+
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Presents the immutable set of rules compiled from the enabled policies of one module
+ * (or of all modules if the module id is null).
+ */
+@Getter
+@ToString
+public class CompiledPolicySet {
+
+    /**
+     * The module id, null for all modules.
+     */
+    private final String moduleId;
+
+    /**
+     * The compiled rules in evaluation order.
+     */
+    private final List<CompiledRule> rules;
+
+    /**
+     * Create a new compiled policy set.
+     *
+     * @param moduleId the module id, null for all modules
+     * @param rules    the compiled rules in evaluation order
+     */
+    public CompiledPolicySet(String moduleId, List<CompiledRule> rules) {
+        this.moduleId = moduleId;
+        this.rules = Collections.unmodifiableList(rules);
+    }
+}
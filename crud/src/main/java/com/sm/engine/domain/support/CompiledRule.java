@@ -0,0 +1,67 @@
+package com.sm.engine.domain.support;
+
+import com.sm.engine.domain.HeaderType;
+import com.sm.engine.domain.LdapAttributeNameValue;
+import com.sm.engine.domain.RuleEvaluationMode;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.List;
+
+/**
+ * Presents a rule of an enabled policy compiled for evaluation.
+ * The rule information is already joined into the ldap rule string and the header is flattened.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+@EqualsAndHashCode(exclude = "ruleInfo")
+public class CompiledRule {
+
+    /**
+     * The ldap rule built from the rule information, e.g. "ou=people".
+     */
+    private final String ldapRule;
+
+    /**
+     * The rule information, the attribute name and value pairs.
+     */
+    private final List<LdapAttributeNameValue> ruleInfo;
+
+    /**
+     * The evaluation mode.
+     */
+    private final RuleEvaluationMode evaluationMode;
+
+    /**
+     * The header id.
+     */
+    private final String headerId;
+
+    /**
+     * The header name.
+     */
+    private final String headerName;
+
+    /**
+     * The header type.
+     */
+    private final HeaderType headerType;
+
+    /**
+     * The header value.
+     * True/False for static headers and the name of user attribute for dynamic headers.
+     */
+    private final String headerValue;
+
+    /**
+     * Check whether the rule is evaluated in-process against the user profile.
+     *
+     * @return true if the rule is evaluated locally
+     */
+    public boolean isLocal() {
+        return RuleEvaluationMode.LOCAL.equals(evaluationMode);
+    }
+}
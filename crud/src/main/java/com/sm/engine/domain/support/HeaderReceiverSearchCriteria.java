@@ -0,0 +1,33 @@
+package com.sm.engine.domain.support;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * Presents the search criteria for searching the users who receive a header.
+ */
+@Getter
+@Setter
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor
+public class HeaderReceiverSearchCriteria {
+
+    /**
+     * The header name criterion, required.
+     */
+    private String headerName;
+
+    /**
+     * The header value criterion, any value if null.
+     */
+    private String headerValue;
+
+    /**
+     * The module id criterion, all modules if null.
+     */
+    private String moduleId;
+}
@@ -1,7 +1,7 @@
 package com.sm.engine.domain.support;
 
 import com.sm.engine.domain.IdentifiableDocument;
-import lombok.AllArgsConstructor;
+import lombok.NoArgsConstructor;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.ToString;
@@ -17,19 +17,46 @@ import java.util.List;
 @Getter
 @Setter
 @ToString
-@AllArgsConstructor
+@NoArgsConstructor
 public class SearchResult<T extends IdentifiableDocument> {
 
     /**
-     * The total record found.
+     * The total record found, null if not counted.
      */
-    private long total;
+    private Long total;
+
+    /**
+     * The mode the total was counted with.
+     */
+    private TotalMode totalMode;
+
+    /**
+     * Whether there are more records after the records found, null if the total is exact.
+     */
+    private Boolean hasMore;
 
     /**
      * The records found with pagination.
      */
     private List<T> records;
 
+    /**
+     * The cursor to search the next page after the records, null if no next page or not searched with cursor.
+     */
+    private String next;
+
+    /**
+     * Create a new instance with the total record found.
+     *
+     * @param total   the total record found
+     * @param records the records found with pagination
+     */
+    public SearchResult(long total, List<T> records) {
+        this.total = total;
+        this.totalMode = TotalMode.EXACT;
+        this.records = records;
+    }
+
     /**
      * Create a new instance of Spring <code>Page</code>.
      *
@@ -37,6 +64,7 @@ public class SearchResult<T extends IdentifiableDocument> {
      */
     public SearchResult(Page<T> springPage) {
         this.total = springPage.getTotalElements();
+        this.totalMode = TotalMode.EXACT;
         this.records = springPage.getContent();
     }
 }
@@ -0,0 +1,88 @@
+package com.sm.engine.domain.support;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * The wall-clock durations of the stages of one request.
+ * Stages may run concurrently on different threads, durations are kept in order of completion.
+ */
+public class StageTimings {
+
+    /**
+     * The nanoseconds in one millisecond.
+     */
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    /**
+     * The durations in nanoseconds by stage name.
+     */
+    private final Map<String, Long> durations = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    /**
+     * Wrap the supplier to record its duration as the specified stage.
+     *
+     * @param stage    the stage name
+     * @param supplier the supplier
+     * @param <T>      the result type
+     * @return the wrapped supplier
+     */
+    public <T> Supplier<T> time(String stage, Supplier<T> supplier) {
+        return () -> {
+            long start = System.nanoTime();
+            try {
+                return supplier.get();
+            } finally {
+                record(stage, System.nanoTime() - start);
+            }
+        };
+    }
+
+    /**
+     * Record the duration of the specified stage.
+     *
+     * @param stage the stage name
+     * @param nanos the duration in nanoseconds
+     */
+    public void record(String stage, long nanos) {
+        durations.put(stage, nanos);
+    }
+
+    /**
+     * Gets the durations in milliseconds by stage name.
+     *
+     * @return the durations in milliseconds
+     */
+    public Map<String, Double> getDurations() {
+        synchronized (durations) {
+            Map<String, Double> result = new LinkedHashMap<>();
+            durations.forEach((stage, nanos) -> result.put(stage, nanos / NANOS_PER_MILLI));
+            return result;
+        }
+    }
+
+    /**
+     * Format the durations as value of Server-Timing http header.
+     *
+     * @return the Server-Timing header value
+     */
+    public String toServerTiming() {
+        return getDurations().entrySet().stream()
+                .map(entry -> String.format(Locale.ROOT, "%s;dur=%.3f", entry.getKey(), entry.getValue()))
+                .collect(Collectors.joining(", "));
+    }
+
+    /**
+     * Format the durations.
+     *
+     * @return the durations string
+     */
+    @Override
+    public String toString() {
+        return toServerTiming();
+    }
+}
@@ -0,0 +1,43 @@
+package com.sm.engine.domain.support;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * The modes to count the total of a search.
+ */
+public enum TotalMode {
+    /**
+     * The total is counted exactly.
+     */
+    @JsonProperty("exact")
+    EXACT,
+    /**
+     * The total is estimated from the collection stats or counted up to a limit.
+     */
+    @JsonProperty("estimated")
+    ESTIMATED,
+    /**
+     * The total is not counted.
+     */
+    @JsonProperty("none")
+    NONE;
+
+    /**
+     * Gets the total mode by name ignoring case.
+     *
+     * @param name the name, may be null
+     * @return the total mode, null if the name is null
+     * @throws IllegalArgumentException throws if the name is invalid
+     */
+    public static TotalMode of(String name) {
+        if (name == null) {
+            return null;
+        }
+        for (TotalMode mode : values()) {
+            if (mode.name().equalsIgnoreCase(name)) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("total should be one of exact, estimated or none");
+    }
+}
@@ -7,6 +7,7 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.ldap.TimeLimitExceededException;
 import org.springframework.security.authentication.BadCredentialsException;
 import org.springframework.security.authentication.DisabledException;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
@@ -18,6 +19,7 @@ import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
 import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.AsyncRequestTimeoutException;
 import org.springframework.web.method.annotation.MethodArgumentTypeMismatchException;
 import org.springframework.web.servlet.mvc.method.annotation.ResponseEntityExceptionHandler;
 
@@ -25,6 +27,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * The exception handler that maps exceptions to corresponding response status and message.
@@ -147,6 +150,30 @@ public class ServiceExceptionHandler extends ResponseEntityExceptionHandler {
         return buildErrorResponse(HttpStatus.BAD_REQUEST, responseMessage);
     }
 
+    /**
+     * Handle rejected execution exception when executors are saturated.
+     *
+     * @param ex the exception
+     * @return the error response entity
+     */
+    @ExceptionHandler(RejectedExecutionException.class)
+    @ResponseBody
+    public ResponseEntity<Object> handleRejectedExecutionException(RejectedExecutionException ex) {
+        return buildErrorResponse(HttpStatus.SERVICE_UNAVAILABLE, "Server is busy, please retry later");
+    }
+
+    /**
+     * Handle time limit exceeded exception when ldap rules are not evaluated in time.
+     *
+     * @param ex the exception
+     * @return the error response entity
+     */
+    @ExceptionHandler(TimeLimitExceededException.class)
+    @ResponseBody
+    public ResponseEntity<Object> handleTimeLimitExceededException(TimeLimitExceededException ex) {
+        return buildErrorResponse(HttpStatus.GATEWAY_TIMEOUT, "Ldap rules were not evaluated in time");
+    }
+
     /**
      * Handle the other exceptions.
      *
@@ -180,6 +207,8 @@ public class ServiceExceptionHandler extends ResponseEntityExceptionHandler {
         } else if (ex instanceof MethodArgumentNotValidException) {
             message = convertErrorsToMessage(
                     ((MethodArgumentNotValidException) ex).getBindingResult().getAllErrors());
+        } else if (ex instanceof AsyncRequestTimeoutException) {
+            message = "Request timed out";
         } else if (status == HttpStatus.INTERNAL_SERVER_ERROR) {
             message = "Internal server error";
         }
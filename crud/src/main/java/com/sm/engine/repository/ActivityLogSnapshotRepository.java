@@ -0,0 +1,9 @@
+package com.sm.engine.repository;
+
+import com.sm.engine.domain.ActivityLogSnapshot;
+
+/**
+ * The activity log snapshot repository.
+ */
+public interface ActivityLogSnapshotRepository extends BaseRepository<ActivityLogSnapshot> {
+}
@@ -0,0 +1,37 @@
+package com.sm.engine.repository;
+
+import com.sm.engine.domain.Entitlement;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.stream.Stream;
+
+/**
+ * The entitlement repository.
+ */
+@Repository
+public interface EntitlementRepository extends BaseRepository<Entitlement> {
+
+    /**
+     * Stream the entitlements of the module.
+     *
+     * @param moduleId the module id
+     * @return the stream of entitlements, must be closed after use
+     */
+    Stream<Entitlement> streamByModuleId(String moduleId);
+
+    /**
+     * Delete the entitlements of the modules no longer precomputed.
+     *
+     * @param moduleIds the module ids precomputed
+     */
+    void deleteByModuleIdNotIn(Collection<String> moduleIds);
+
+    /**
+     * Delete the entitlements of the modules not written by the full recompute of the version.
+     *
+     * @param moduleIds the module ids
+     * @param version   the version of the full recompute
+     */
+    void deleteByModuleIdInAndVersionLessThan(Collection<String> moduleIds, long version);
+}
@@ -0,0 +1,28 @@
+package com.sm.engine.repository;
+
+import com.sm.engine.domain.SigningKey;
+import org.springframework.stereotype.Repository;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The signing key repository.
+ */
+@Repository
+public interface SigningKeyRepository extends BaseRepository<SigningKey> {
+
+    /**
+     * Find the keys not retired.
+     *
+     * @return the keys
+     */
+    List<SigningKey> findByRetiredAtIsNull();
+
+    /**
+     * Delete the keys expired at the time.
+     *
+     * @param time the time
+     */
+    void deleteByExpiresAtBefore(Date time);
+}
@@ -0,0 +1,22 @@
+package com.sm.engine.repository;
+
+import com.sm.engine.domain.TokenRevocation;
+import org.springframework.stereotype.Repository;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The token revocation repository.
+ */
+@Repository
+public interface TokenRevocationRepository extends BaseRepository<TokenRevocation> {
+
+    /**
+     * Find the revocations not expired at the time.
+     *
+     * @param time the time
+     * @return the revocations
+     */
+    List<TokenRevocation> findByExpiresAtAfter(Date time);
+}
@@ -2,9 +2,11 @@ package com.sm.engine.security;
 
 import com.sm.engine.config.JwtConfig;
 import com.sm.engine.domain.User;
-import com.sm.engine.service.UserService;
+import com.sm.engine.service.TokenRevocationService;
 import com.sm.engine.utils.Helper;
+import io.jsonwebtoken.Claims;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.authentication.CredentialsExpiredException;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
@@ -31,10 +33,10 @@ public class JwtFilter extends OncePerRequestFilter {
     private static final String ROLE_PREFIX = "ROLE_";
 
     /**
-     * The injected user service.
+     * The injected principal cache.
      */
     @Autowired
-    private UserService userService;
+    private PrincipalCache principalCache;
 
     /**
      * The injected jwt config
@@ -48,8 +50,16 @@ public class JwtFilter extends OncePerRequestFilter {
     @Autowired
     private JwtService jwtService;
 
+    /**
+     * The token revocation service.
+     */
+    @Autowired
+    private TokenRevocationService tokenRevocationService;
+
     /**
      * Extract jwt token from header and authentication with decoded user.
+     * If claims authorization is enabled, tokens with the role claim are authorized from the claims
+     * unless they are revoked, other tokens with the user found by username.
      *
      * @param req   the request.
      * @param res   the response.
@@ -61,16 +71,25 @@ public class JwtFilter extends OncePerRequestFilter {
     protected void doFilterInternal(HttpServletRequest req,
                                     HttpServletResponse res,
                                     FilterChain chain) throws IOException, ServletException {
-        String header = req.getHeader(jwtConfig.getAuthHeader());
-        if (header == null || !header.startsWith(jwtConfig.getTokenPrefix())) {
+        String token = jwtService.getToken(req);
+        if (token == null) {
             chain.doFilter(req, res);
             return;
         }
-        String username = jwtService.decode(header.replace(jwtConfig.getTokenPrefix(), ""));
-        User user = userService.findByUsername(username);
-        Helper.checkUser(user, username);
+        Claims claims = jwtService.decodeClaims(token);
+        String username = claims.getSubject();
+        String role = claims.get(JwtService.ROLE_CLAIM, String.class);
+        if (jwtConfig.isClaimsAuthorization() && role != null) {
+            if (tokenRevocationService.isRevoked(username, JwtService.getIssuedAt(claims))) {
+                throw new CredentialsExpiredException(String.format("Token of user '%s' is revoked", username));
+            }
+        } else {
+            User user = principalCache.get(username);
+            Helper.checkUser(user, username);
+            role = user.getRole().toString();
+        }
         List<SimpleGrantedAuthority> authorities = new ArrayList<>();
-        authorities.add(new SimpleGrantedAuthority(ROLE_PREFIX + user.getRole().toString()));
+        authorities.add(new SimpleGrantedAuthority(ROLE_PREFIX + role));
         Authentication authentication = new UsernamePasswordAuthenticationToken(username, null,
                 authorities);
         SecurityContextHolder.getContext().setAuthentication(authentication);
@@ -1,25 +1,134 @@
 package com.sm.engine.security;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.sm.engine.config.JwtConfig;
+import com.sm.engine.config.VerifiedTokenCacheConfig;
+import com.sm.engine.domain.HeaderEvaluateResult;
 import com.sm.engine.domain.User;
+import com.sm.engine.service.SigningKeyService;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.JwtBuilder;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.SignatureException;
+import io.jsonwebtoken.SigningKeyResolverAdapter;
+import io.jsonwebtoken.impl.TextCodec;
+import lombok.AllArgsConstructor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.crypto.spec.SecretKeySpec;
+import javax.servlet.http.HttpServletRequest;
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.security.MessageDigest;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The service provides operations to encode/decode jwt token.
  */
 @Service
 public class JwtService {
+    /**
+     * The claim name of embedded headers.
+     */
+    public static final String HEADERS_CLAIM = "headers";
+
+    /**
+     * The claim name of the module id of embedded headers.
+     */
+    public static final String MODULE_ID_CLAIM = "moduleId";
+
+    /**
+     * The claim name of the expiration time in seconds of embedded headers.
+     */
+    public static final String HEADERS_EXPIRATION_CLAIM = "headersExp";
+
+    /**
+     * The claim name of the user role.
+     */
+    public static final String ROLE_CLAIM = "role";
+
+    /**
+     * The claim name of the login time in seconds, kept when the token is refreshed.
+     */
+    public static final String AUTH_TIME_CLAIM = "authTime";
+
+    /**
+     * The claim name of the issue time in milliseconds, more precise than the issued at claim in seconds.
+     */
+    public static final String ISSUED_AT_MILLIS_CLAIM = "iatMillis";
+
     /**
      * Inject jwt config.
      */
     @Autowired
     private JwtConfig jwtConfig;
 
+    /**
+     * The signing key service.
+     */
+    @Autowired
+    private SigningKeyService signingKeyService;
+
+    /**
+     * The verified token cache config.
+     */
+    @Autowired
+    private VerifiedTokenCacheConfig verifiedTokenCacheConfig;
+
+    /**
+     * The claims of verified tokens by token signature, null if verified tokens are not cached.
+     */
+    private Cache<String, VerifiedToken> verifiedTokens;
+
+    /**
+     * Build the verified token cache with the configured ttl and max size.
+     */
+    @PostConstruct
+    public void init() {
+        if (verifiedTokenCacheConfig.getTtl() > 0) {
+            verifiedTokens = Caffeine.newBuilder()
+                    .expireAfterWrite(verifiedTokenCacheConfig.getTtl(), TimeUnit.MILLISECONDS)
+                    .maximumSize(verifiedTokenCacheConfig.getMaxSize())
+                    .build();
+        }
+    }
+
+    /**
+     * Extract the jwt token from the auth header of the request.
+     *
+     * @param request the http request
+     * @return the token without prefix, null if the auth header is missing or has no token prefix.
+     */
+    public String getToken(HttpServletRequest request) {
+        String header = request.getHeader(jwtConfig.getAuthHeader());
+        if (header == null || !header.startsWith(jwtConfig.getTokenPrefix())) {
+            return null;
+        }
+        return header.substring(jwtConfig.getTokenPrefix().length()).trim();
+    }
+
+    /**
+     * Gets the issue time of the token at the best precision of its claims.
+     *
+     * @param claims the claims of token
+     * @return the issue time, null if unknown.
+     */
+    public static Date getIssuedAt(Claims claims) {
+        Number issuedAtMillis = claims.get(ISSUED_AT_MILLIS_CLAIM, Number.class);
+        return issuedAtMillis == null ? claims.getIssuedAt() : new Date(issuedAtMillis.longValue());
+    }
+
     /**
      * Decode jwt token and get username.
      *
@@ -27,11 +136,87 @@ public class JwtService {
      * @return jwt token from user.
      */
     public String decode(String token) {
+        return decodeClaims(token).getSubject();
+    }
+
+    /**
+     * Decode jwt token and get all claims.
+     * The claims of a token verified before are reused until the token expires while its signing key is still
+     * accepted, the cached token is looked up by its signature and compared with the token in constant time.
+     *
+     * @param token the token
+     * @return the claims of token, must not be modified.
+     */
+    public Claims decodeClaims(String token) {
+        if (verifiedTokens == null) {
+            return verify(token).getBody();
+        }
+        String signature = token.substring(token.lastIndexOf('.') + 1);
+        byte[] tokenBytes = token.getBytes(StandardCharsets.US_ASCII);
+        VerifiedToken verified = verifiedTokens.getIfPresent(signature);
+        if (verified != null && MessageDigest.isEqual(verified.token, tokenBytes)
+                && verified.expiration > System.currentTimeMillis() && isAccepted(verified)) {
+            return verified.claims;
+        }
+        Jws<Claims> jws = verify(token);
+        Claims claims = jws.getBody();
+        long expiration = claims.getExpiration() == null ? Long.MAX_VALUE : claims.getExpiration().getTime();
+        verifiedTokens.put(signature, new VerifiedToken(tokenBytes, claims, expiration, jws.getHeader().getKeyId()));
+        return claims;
+    }
+
+    /**
+     * Parse jwt token and verify its signature and expiration.
+     * Tokens with a key id are verified with the public key of the signing key, other tokens with the secret.
+     * Tokens signed with the secret are accepted only while tokens are signed with the secret or until the end of
+     * the transition to key pairs.
+     *
+     * @param token the token
+     * @return the verified token.
+     */
+    private Jws<Claims> verify(String token) {
         return Jwts.parser()
-                .setSigningKey(jwtConfig.getSecret())
-                .parseClaimsJws(token)
-                .getBody()
-                .getSubject();
+                .setSigningKeyResolver(new SigningKeyResolverAdapter() {
+                    @Override
+                    public Key resolveSigningKey(JwsHeader header, Claims claims) {
+                        SignatureAlgorithm algorithm = SignatureAlgorithm.forName(header.getAlgorithm());
+                        if (header.getKeyId() != null) {
+                            return signingKeyService.getVerificationKey(header.getKeyId(), algorithm);
+                        }
+                        if (!algorithm.isHmac()) {
+                            throw new SignatureException(String.format("Token signed with %s has no key id",
+                                    algorithm));
+                        }
+                        if (!isSecretAccepted()) {
+                            throw new SignatureException("Tokens signed with the secret are no longer accepted");
+                        }
+                        return new SecretKeySpec(TextCodec.BASE64.decode(jwtConfig.getSecret()),
+                                algorithm.getJcaName());
+                    }
+                })
+                .parseClaimsJws(token);
+    }
+
+    /**
+     * Whether the verified token is still accepted, its signing key may be expired or the secret no longer accepted
+     * since it was verified.
+     *
+     * @param verified the verified token
+     * @return true if the signing key of the token is still accepted
+     */
+    private boolean isAccepted(VerifiedToken verified) {
+        return verified.keyId == null ? isSecretAccepted() : signingKeyService.isVerificationKey(verified.keyId);
+    }
+
+    /**
+     * Whether tokens signed with the secret are accepted, while tokens are signed with the secret or until the end
+     * of the transition to key pairs.
+     *
+     * @return true if tokens signed with the secret are accepted
+     */
+    private boolean isSecretAccepted() {
+        return jwtConfig.getSignatureAlgorithm().isHmac()
+                || jwtConfig.getHmacTransitionUntil() > System.currentTimeMillis();
     }
 
     /**
@@ -41,10 +226,89 @@ public class JwtService {
      * @return jwt token from user.
      */
     public String encode(User user) {
-        return Jwts.builder()
+        return encode(user, new Date(System.currentTimeMillis() + jwtConfig.getExpirationTime()), null, null);
+    }
+
+    /**
+     * Generate jwt token from user at login with the evaluated headers embedded as claims.
+     *
+     * @param user       the user.
+     * @param expiration the expiration time of token.
+     * @param moduleId   the id of module the headers are evaluated for, null for all modules.
+     * @param headers    the evaluated headers, not embedded if null.
+     * @return jwt token from user.
+     */
+    public String encode(User user, Date expiration, String moduleId, List<HeaderEvaluateResult> headers) {
+        return encode(user, expiration, new Date(), moduleId, headers);
+    }
+
+    /**
+     * Generate jwt token from user with the evaluated headers embedded as claims.
+     * The token has a unique id, its issue time, the login time and the user role so it can be authorized
+     * from the claims. The embedded headers expire earlier than the token, after the configured embedded
+     * headers ttl.
+     *
+     * @param user       the user.
+     * @param expiration the expiration time of token.
+     * @param authTime   the login time of the user.
+     * @param moduleId   the id of module the headers are evaluated for, null for all modules.
+     * @param headers    the evaluated headers, not embedded if null.
+     * @return jwt token from user.
+     */
+    public String encode(User user, Date expiration, Date authTime, String moduleId,
+                         List<HeaderEvaluateResult> headers) {
+        Date issuedAt = new Date();
+        JwtBuilder builder = Jwts.builder()
+                .setId(UUID.randomUUID().toString())
                 .setSubject(user.getUsername())
-                .setExpiration(new Date(System.currentTimeMillis() + jwtConfig.getExpirationTime()))
-                .signWith(SignatureAlgorithm.HS512, jwtConfig.getSecret())
+                .setIssuedAt(issuedAt)
+                .setExpiration(expiration)
+                .claim(ISSUED_AT_MILLIS_CLAIM, issuedAt.getTime())
+                .claim(AUTH_TIME_CLAIM, authTime.getTime() / 1000)
+                .claim(ROLE_CLAIM, user.getRole().toString());
+        if (headers != null) {
+            Map<String, String> headerClaims = new LinkedHashMap<>();
+            headers.forEach(header -> headerClaims.put(header.getName(), header.getValue()));
+            long headersExpiration = Math.min(expiration.getTime(),
+                    System.currentTimeMillis() + jwtConfig.getEmbeddedHeadersTtl());
+            builder.claim(HEADERS_CLAIM, headerClaims)
+                    .claim(MODULE_ID_CLAIM, moduleId)
+                    .claim(HEADERS_EXPIRATION_CLAIM, headersExpiration / 1000);
+        }
+        SignatureAlgorithm algorithm = jwtConfig.getSignatureAlgorithm();
+        if (algorithm.isHmac()) {
+            return builder.signWith(algorithm, jwtConfig.getSecret()).compact();
+        }
+        SigningKeyService.LoadedKey key = signingKeyService.getSigningKey(algorithm);
+        return builder.setHeaderParam(JwsHeader.KEY_ID, key.getId())
+                .signWith(algorithm, key.getPrivateKey())
                 .compact();
     }
+
+    /**
+     * The verified token with its claims.
+     */
+    @AllArgsConstructor
+    private static class VerifiedToken {
+
+        /**
+         * The token.
+         */
+        private final byte[] token;
+
+        /**
+         * The claims.
+         */
+        private final Claims claims;
+
+        /**
+         * The expiration time of token.
+         */
+        private final long expiration;
+
+        /**
+         * The id of the signing key, null if signed with the secret.
+         */
+        private final String keyId;
+    }
 }
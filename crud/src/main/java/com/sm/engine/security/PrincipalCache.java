@@ -0,0 +1,116 @@
+package com.sm.engine.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.sm.engine.config.PrincipalCacheConfig;
+import com.sm.engine.domain.User;
+import com.sm.engine.service.UserService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The cache of user documents of authenticated principals by username.
+ * All principals are discarded after any user document is saved or deleted, so a changed role
+ * or a disabled user takes effect on the next request.
+ */
+@Component
+public class PrincipalCache extends AbstractMongoEventListener<User> {
+
+    /**
+     * The principal cache config.
+     */
+    @Autowired
+    private PrincipalCacheConfig config;
+
+    /**
+     * The user service.
+     */
+    @Autowired
+    private UserService userService;
+
+    /**
+     * The cached users, null if users are not cached.
+     */
+    private Cache<String, User> cache;
+
+    /**
+     * The generation increased on every user document change.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Build the cache with the configured ttl and max size.
+     */
+    @PostConstruct
+    public void init() {
+        if (config.getTtl() > 0) {
+            cache = Caffeine.newBuilder()
+                    .expireAfterWrite(config.getTtl(), TimeUnit.MILLISECONDS)
+                    .maximumSize(config.getMaxSize())
+                    .build();
+        }
+    }
+
+    /**
+     * Gets the cached user or finds the user document and caches it.
+     *
+     * @param username the username
+     * @return the user, null if not found
+     */
+    public User get(String username) {
+        if (cache == null) {
+            return userService.findByUsername(username);
+        }
+        User user = cache.getIfPresent(username);
+        if (user != null) {
+            return user;
+        }
+        long findGeneration = generation.get();
+        user = userService.findByUsername(username);
+        if (user != null) {
+            cache.put(username, user);
+            if (findGeneration != generation.get()) {
+                // user documents changed during lookup
+                cache.invalidate(username);
+            }
+        }
+        return user;
+    }
+
+    /**
+     * Discards all cached users.
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    /**
+     * Invalidate the cached users after a user document is saved.
+     *
+     * @param event the after save event
+     */
+    @Override
+    public void onAfterSave(AfterSaveEvent<User> event) {
+        invalidate();
+    }
+
+    /**
+     * Invalidate the cached users after a user document is deleted.
+     *
+     * @param event the after delete event
+     */
+    @Override
+    public void onAfterDelete(AfterDeleteEvent<User> event) {
+        invalidate();
+    }
+}
@@ -53,6 +53,10 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
         // Authorization
         httpSecurity.authorizeRequests()
                 .antMatchers(HttpMethod.POST, "/login").permitAll()
+                .antMatchers(HttpMethod.POST, "/login/refresh").authenticated()
+                .antMatchers(HttpMethod.GET, "/.well-known/jwks.json").permitAll()
+                // read only batch evaluate is allowed for all roles like evaluate
+                .antMatchers(HttpMethod.POST, "/headers/evaluate:batch").authenticated()
                 // Admin
                 .antMatchers("/users/**").hasRole(Role.Admin.toString()) //
                 .antMatchers("/activity-logs/**").hasRole(Role.Admin.toString()) //
@@ -1,9 +1,13 @@
 package com.sm.engine.service;
 
 import com.sm.engine.domain.ActivityLog;
+import com.sm.engine.domain.ActivityLogSnapshot;
 import com.sm.engine.domain.support.ActivityLogSearchCriteria;
 import com.sm.engine.domain.support.SearchResult;
+import com.sm.engine.domain.support.TotalMode;
+import com.sm.engine.exception.DocumentNotFoundException;
 import com.sm.engine.repository.ActivityLogRepository;
+import com.sm.engine.repository.ActivityLogSnapshotRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Example;
 import org.springframework.data.domain.ExampleMatcher.StringMatcher;
@@ -24,6 +28,24 @@ public class ActivityLogService {
     @Autowired
     private ActivityLogRepository activityLogRepository;
 
+    /**
+     * The activity log snapshot repository.
+     */
+    @Autowired
+    private ActivityLogSnapshotRepository activityLogSnapshotRepository;
+
+    /**
+     * The cursor search service.
+     */
+    @Autowired
+    private CursorSearchService cursorSearchService;
+
+    /**
+     * The search total service.
+     */
+    @Autowired
+    private SearchTotalService searchTotalService;
+
     /**
      * Searches documents with search example and pageable request.
      *
@@ -32,6 +54,21 @@ public class ActivityLogService {
      * @return the results with pagination
      */
     public SearchResult<ActivityLog> search(ActivityLogSearchCriteria criteria, Pageable pageable) {
+        return search(criteria, pageable, null, null);
+    }
+
+    /**
+     * Searches documents with search example and pageable request, after the cursor if not null.
+     *
+     * @param criteria  the search criteria
+     * @param pageable  the pageable request
+     * @param after     the cursor of the previous page, empty for the first page, null to search by page number
+     * @param totalMode the total mode, exact by page number and none with cursor if null
+     * @return the results with pagination
+     * @throws IllegalArgumentException if the cursor is invalid
+     */
+    public SearchResult<ActivityLog> search(ActivityLogSearchCriteria criteria, Pageable pageable, String after,
+                                            TotalMode totalMode) {
         ActivityLog activityLog = new ActivityLog();
         activityLog.setDocumentType(criteria.getDocumentType());
         activityLog.setDescription(criteria.getDescription());
@@ -40,6 +77,51 @@ public class ActivityLogService {
 
         Example<ActivityLog> example =
                 Example.of(activityLog, matching().withStringMatcher(StringMatcher.CONTAINING));
-        return new SearchResult<>(activityLogRepository.findAll(example, pageable));
+        if (after != null) {
+            return cursorSearchService.search(example, pageable, after,
+                    totalMode == null ? TotalMode.NONE : totalMode);
+        }
+        if (totalMode == null || totalMode == TotalMode.EXACT) {
+            return new SearchResult<>(activityLogRepository.findAll(example, pageable));
+        }
+        return searchTotalService.search(example, pageable, totalMode);
+    }
+
+    /**
+     * Render the activity log as the documents before and after the operation.
+     * Activity logs without snapshots are rendered as their description.
+     *
+     * @param id the activity log id
+     * @return the documents before and after the operation
+     * @throws DocumentNotFoundException throws if the activity log or its snapshots are not found
+     */
+    public String render(String id) {
+        ActivityLog activityLog = activityLogRepository.findOne(id);
+        if (activityLog == null) {
+            throw new DocumentNotFoundException(id);
+        }
+        if (activityLog.getBeforeSnapshotId() == null && activityLog.getAfterSnapshotId() == null) {
+            return activityLog.getDescription();
+        }
+        return String.format("BEFORE: %s\nAFTER: %s", findSnapshotContent(activityLog.getBeforeSnapshotId()),
+                findSnapshotContent(activityLog.getAfterSnapshotId()));
+    }
+
+    /**
+     * Find the content of the snapshot.
+     *
+     * @param snapshotId the snapshot id, may be null
+     * @return the content, null if no snapshot id
+     * @throws DocumentNotFoundException throws if the snapshot is not found
+     */
+    private String findSnapshotContent(String snapshotId) {
+        if (snapshotId == null) {
+            return null;
+        }
+        ActivityLogSnapshot snapshot = activityLogSnapshotRepository.findOne(snapshotId);
+        if (snapshot == null) {
+            throw new DocumentNotFoundException(snapshotId);
+        }
+        return snapshot.getContent();
     }
 }
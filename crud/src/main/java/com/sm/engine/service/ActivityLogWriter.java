@@ -0,0 +1,552 @@
+package com.sm.engine.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.hash.Hashing;
+import com.sm.engine.config.ActivityLogWriterConfig;
+import com.sm.engine.domain.ActivityLog;
+import com.sm.engine.domain.ActivityLogChange;
+import com.sm.engine.domain.ActivityLogSnapshot;
+import com.sm.engine.domain.IdentifiableDocument;
+import com.sm.engine.domain.Searchable;
+import com.sm.engine.repository.ActivityLogRepository;
+import com.sm.engine.repository.ActivityLogSnapshotRepository;
+import com.sm.engine.utils.Helper;
+import lombok.AllArgsConstructor;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+/**
+ * The write-behind writer of activity logs.
+ * The caller builds the activity log, its id, creation time, field level changes and the snapshots of the document
+ * before and after, so the queue holds no live documents. Activity logs are queued and a background thread only
+ * inserts them in batches after the flush interval or as soon as a batch is full, a snapshot is stored once for
+ * all activity logs referencing it.
+ * If the queue is full the caller appends the activity log to a local spill file instead, so the caller never
+ * inserts and writer failures never reach it. If a batch fails the activity logs are inserted one by one and
+ * the failed ones are spilled too, flushes are retried with a growing interval while inserts keep failing.
+ * Spilled activity logs are written before the queued ones, the spill file is moved aside while it is written
+ * and kept with the activity logs not written yet, so they survive restarts. Activity logs are inserted with
+ * their ids so ones written again are skipped. Queued activity logs are written or spilled on shutdown,
+ * only the queued ones are lost on crash.
+ */
+@Service
+public class ActivityLogWriter {
+
+    /**
+     * The logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(ActivityLogWriter.class);
+
+    /**
+     * The max time in milliseconds to wait for the writer thread on shutdown.
+     */
+    private static final long SHUTDOWN_TIMEOUT = 10000;
+
+    /**
+     * The max power of two the flush interval is multiplied by while inserts fail.
+     */
+    private static final int MAX_BACKOFF_SHIFT = 6;
+
+    /**
+     * The max length of the values of changes in descriptions.
+     */
+    private static final int MAX_DESCRIBED_VALUE_LENGTH = 100;
+
+    /**
+     * The name of the file activity logs are spilled to.
+     */
+    private static final String SPILL_FILE = "activity-logs.jsonl";
+
+    /**
+     * The name of the spill file moved aside while its activity logs are written.
+     */
+    private static final String REPLAY_FILE = "activity-logs.replay.jsonl";
+
+    /**
+     * The activity log repository.
+     */
+    @Autowired
+    private ActivityLogRepository activityLogRepository;
+
+    /**
+     * The activity log snapshot repository.
+     */
+    @Autowired
+    private ActivityLogSnapshotRepository activityLogSnapshotRepository;
+
+    /**
+     * The object mapper.
+     */
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * The activity log writer config.
+     */
+    @Autowired
+    private ActivityLogWriterConfig config;
+
+    /**
+     * The queued activity logs.
+     */
+    private BlockingQueue<Pending> queue;
+
+    /**
+     * The lock held while activity logs are taken from the queue or the spill file and written,
+     * so they are written in order.
+     */
+    private final Object writeLock = new Object();
+
+    /**
+     * The lock held while the spill file is appended or moved aside.
+     */
+    private final Object spillLock = new Object();
+
+    /**
+     * The file activity logs are spilled to.
+     */
+    private Path spillFile;
+
+    /**
+     * The spill file moved aside while its activity logs are written, guarded by the write lock.
+     */
+    private Path replayFile;
+
+    /**
+     * The number of flushes failed in a row.
+     */
+    private volatile int failures;
+
+    /**
+     * The writer thread.
+     */
+    private Thread writer;
+
+    /**
+     * Whether the writer thread is running.
+     */
+    private volatile boolean running;
+
+    /**
+     * Create the spill directory and start the writer thread, the activity logs spilled before restart are
+     * written by its first flush.
+     *
+     * @throws IllegalStateException throws if the spill directory cannot be created
+     */
+    @PostConstruct
+    public void init() {
+        Path directory = Paths.get(config.getSpillDirectory());
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to create activity log spill directory " + directory, e);
+        }
+        spillFile = directory.resolve(SPILL_FILE);
+        replayFile = directory.resolve(REPLAY_FILE);
+        queue = new ArrayBlockingQueue<>(config.getQueueCapacity());
+        running = true;
+        writer = new Thread(this::run, "activity-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Stop the writer thread and write the queued activity logs, the ones failed are spilled.
+     */
+    @PreDestroy
+    public void destroy() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(SHUTDOWN_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        synchronized (writeLock) {
+            List<Pending> unwritten = new ArrayList<>();
+            queue.drainTo(unwritten);
+            if (!unwritten.isEmpty()) {
+                spill(unwritten);
+                LOG.warn("Spilled {} activity logs on shutdown, they are written after restart", unwritten.size());
+            }
+        }
+    }
+
+    /**
+     * Build the activity log with its changes computed from the documents before and after the operation,
+     * and queue it to write. The activity log is spilled if the queue is full. Failures are logged and not thrown,
+     * the operation logged is already done.
+     *
+     * @param activityLog    the activity log without description
+     * @param documentBefore the document before the operation, null if created
+     * @param documentAfter  the document after the operation, null if deleted
+     */
+    public void write(ActivityLog activityLog, IdentifiableDocument documentBefore,
+                      IdentifiableDocument documentAfter) {
+        try {
+            Pending pending = build(activityLog, documentBefore, documentAfter);
+            if (!queue.offer(pending)) {
+                // overflowed, the caller only appends to the spill file, the writer writes it before the queue
+                spill(Collections.singletonList(pending));
+                if (failures == 0) {
+                    LockSupport.unpark(writer);
+                }
+            } else if (!running) {
+                // stopped after queued, the writer may have done its last flush
+                flush();
+            } else if (queue.size() >= config.getBatchSize()) {
+                LockSupport.unpark(writer);
+            }
+        } catch (RuntimeException e) {
+            LOG.error(String.format("Failed to write activity log of %s '%s'", activityLog.getDocumentType(),
+                    activityLog.getDocumentId()), e);
+        }
+    }
+
+    /**
+     * Write the spilled activity logs and all the queued activity logs now.
+     * Writing stops at the first batch failed, its activity logs not inserted are spilled.
+     */
+    public void flush() {
+        synchronized (writeLock) {
+            if (!replay()) {
+                failures++;
+                return;
+            }
+            int batchSize = config.getBatchSize();
+            List<Pending> batch = new ArrayList<>();
+            while (queue.drainTo(batch, batchSize) > 0) {
+                int inserted = insertInOrder(batch);
+                if (inserted < batch.size()) {
+                    spill(batch.subList(inserted, batch.size()));
+                    failures++;
+                    return;
+                }
+                batch.clear();
+            }
+            failures = 0;
+        }
+    }
+
+    /**
+     * Write the spilled activity logs in batches. The spill file is moved aside first so activity logs spilled
+     * meanwhile go to a new spill file, written by the next flush. If a batch fails the replay file is replaced
+     * by the activity logs not written yet.
+     *
+     * @return true if all spilled activity logs are written
+     */
+    private boolean replay() {
+        try {
+            synchronized (spillLock) {
+                if (Files.notExists(replayFile) && Files.exists(spillFile)) {
+                    Files.move(spillFile, replayFile, StandardCopyOption.ATOMIC_MOVE);
+                }
+            }
+            if (Files.notExists(replayFile)) {
+                return true;
+            }
+            int written = 0;
+            try (BufferedReader reader = Files.newBufferedReader(replayFile, StandardCharsets.UTF_8)) {
+                List<String> lines = new ArrayList<>();
+                while (true) {
+                    lines.clear();
+                    String line;
+                    while (lines.size() < config.getBatchSize() && (line = reader.readLine()) != null) {
+                        if (!line.isEmpty()) {
+                            lines.add(line);
+                        }
+                    }
+                    if (lines.isEmpty()) {
+                        break;
+                    }
+                    List<Pending> batch = new ArrayList<>();
+                    List<String> batchLines = new ArrayList<>();
+                    for (String batchLine : lines) {
+                        Pending pending = parse(batchLine);
+                        if (pending != null) {
+                            batch.add(pending);
+                            batchLines.add(batchLine);
+                        }
+                    }
+                    int inserted = insertInOrder(batch);
+                    written += inserted;
+                    if (inserted < batch.size()) {
+                        keepUnwritten(batchLines.subList(inserted, batchLines.size()), reader);
+                        return false;
+                    }
+                }
+            }
+            Files.delete(replayFile);
+            if (written > 0) {
+                LOG.info("Wrote {} spilled activity logs", written);
+            }
+            return true;
+        } catch (IOException e) {
+            LOG.error("Failed to write spilled activity logs, retry later", e);
+            return false;
+        }
+    }
+
+    /**
+     * Replace the replay file by the activity logs not written yet.
+     *
+     * @param lines  the lines of the batch not written
+     * @param reader the reader of the replay file after the batch
+     * @throws IOException throws if failed to write the file
+     */
+    private void keepUnwritten(List<String> lines, BufferedReader reader) throws IOException {
+        Path file = replayFile.resolveSibling(REPLAY_FILE + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.newLine();
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+        Files.move(file, replayFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Append the activity logs to the spill file and sync it to disk. The activity logs are logged if they
+     * cannot be spilled.
+     *
+     * @param pendings the activity logs in order
+     */
+    private void spill(List<Pending> pendings) {
+        StringBuilder lines = new StringBuilder();
+        for (Pending pending : pendings) {
+            ObjectNode line = objectMapper.createObjectNode();
+            line.set("activityLog", objectMapper.valueToTree(pending.activityLog));
+            line.set("snapshots", objectMapper.valueToTree(pending.snapshots));
+            lines.append(line.toString()).append('\n');
+        }
+        synchronized (spillLock) {
+            try (FileChannel channel = FileChannel.open(spillFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                LOG.error(String.format("Failed to spill %d activity logs: %s", pendings.size(), lines), e);
+            }
+        }
+    }
+
+    /**
+     * Parse the spilled activity log.
+     *
+     * @param line the line of the spill file
+     * @return the activity log with its snapshots, null if the line is not valid
+     */
+    private Pending parse(String line) {
+        try {
+            JsonNode node = objectMapper.readTree(line);
+            return new Pending(objectMapper.treeToValue(node.get("activityLog"), ActivityLog.class),
+                    objectMapper.convertValue(node.get("snapshots"),
+                            new TypeReference<List<ActivityLogSnapshot>>() { }));
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Skip invalid spilled activity log: " + line, e);
+            return null;
+        }
+    }
+
+    /**
+     * Insert the batch, one by one if the batch fails, until the first activity log failed.
+     * Activity logs inserted before are skipped.
+     *
+     * @param batch the activity logs in order
+     * @return the number of activity logs inserted from the start of batch
+     */
+    private int insertInOrder(List<Pending> batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        try {
+            insert(batch);
+            return batch.size();
+        } catch (RuntimeException e) {
+            LOG.warn(String.format("Failed to write %d activity logs, write one by one", batch.size()), e);
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            try {
+                insert(Collections.singletonList(batch.get(i)));
+            } catch (DuplicateKeyException e) {
+                // inserted before
+            } catch (RuntimeException e) {
+                LOG.error(String.format("Failed to write %d activity logs, retry later", batch.size() - i), e);
+                return i;
+            }
+        }
+        return batch.size();
+    }
+
+    /**
+     * Insert the activity logs with the snapshots not stored yet.
+     *
+     * @param batch the activity logs
+     */
+    private void insert(List<Pending> batch) {
+        Map<String, ActivityLogSnapshot> snapshots = new LinkedHashMap<>();
+        batch.forEach(pending -> pending.snapshots.forEach(snapshot ->
+                snapshots.putIfAbsent(snapshot.getId(), snapshot)));
+        activityLogSnapshotRepository.findAll(snapshots.keySet())
+                .forEach(snapshot -> snapshots.remove(snapshot.getId()));
+        if (!snapshots.isEmpty()) {
+            activityLogSnapshotRepository.save(snapshots.values());
+        }
+        activityLogRepository.insert(batch.stream().map(pending -> pending.activityLog)
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Build the activity log with its id, creation time, the changes, the snapshot references and a short
+     * description. The id is assigned so the activity log is not inserted twice when retried.
+     *
+     * @param activityLog    the activity log without description
+     * @param documentBefore the document before the operation, null if created
+     * @param documentAfter  the document after the operation, null if deleted
+     * @return the activity log to queue with its snapshots
+     */
+    private Pending build(ActivityLog activityLog, IdentifiableDocument documentBefore,
+                          IdentifiableDocument documentAfter) {
+        Map<String, ActivityLogSnapshot> snapshots = new LinkedHashMap<>();
+        JsonNode before = documentBefore == null ? null : objectMapper.valueToTree(documentBefore);
+        JsonNode after = documentAfter == null ? null : objectMapper.valueToTree(documentAfter);
+        String documentId = (documentAfter != null ? documentAfter : documentBefore).getId();
+        activityLog.setId(new ObjectId().toHexString());
+        activityLog.setCreatedAt(new Date());
+        activityLog.setDocumentId(documentId);
+        activityLog.setBeforeSnapshotId(addSnapshot(before, snapshots));
+        activityLog.setAfterSnapshotId(addSnapshot(after, snapshots));
+        String document = describe(documentAfter != null ? documentAfter : documentBefore);
+        if (before == null) {
+            activityLog.setDescription("CREATED: " + document);
+        } else if (after == null) {
+            activityLog.setDescription("DELETED: " + document);
+        } else {
+            List<ActivityLogChange> changes = Helper.diffJson(before, after);
+            activityLog.setChanges(changes);
+            activityLog.setDescription("CHANGED: " + document + ": " + changes.stream()
+                    .map(ActivityLogWriter::describe).collect(Collectors.joining(", ")));
+        }
+        return new Pending(activityLog, new ArrayList<>(snapshots.values()));
+    }
+
+    /**
+     * Describe the document by its name and id so its activity logs are found by name.
+     *
+     * @param document the document
+     * @return the description
+     */
+    private static String describe(IdentifiableDocument document) {
+        String name = document instanceof Searchable ? ((Searchable) document).searchText() : null;
+        return name == null ? document.getId() : String.format("%s (%s)", name, document.getId());
+    }
+
+    /**
+     * Describe the change by its path and new value so activity logs are found by the values set.
+     * Long values are abbreviated.
+     *
+     * @param change the change
+     * @return the description
+     */
+    private static String describe(ActivityLogChange change) {
+        if (change.getValue() == null) {
+            return change.getPath() + " removed";
+        }
+        String value = change.getValue();
+        if (value.length() > MAX_DESCRIBED_VALUE_LENGTH) {
+            value = value.substring(0, MAX_DESCRIBED_VALUE_LENGTH) + "...";
+        }
+        return change.getPath() + "=" + value;
+    }
+
+    /**
+     * Add the snapshot of the document identified by the hash of its content.
+     *
+     * @param document  the document as JSON, may be null
+     * @param snapshots the snapshots by id, to add to
+     * @return the snapshot id, null if no document
+     */
+    private static String addSnapshot(JsonNode document, Map<String, ActivityLogSnapshot> snapshots) {
+        if (document == null) {
+            return null;
+        }
+        String content = document.toString();
+        String id = Hashing.sha256().hashString(content, StandardCharsets.UTF_8).toString();
+        snapshots.computeIfAbsent(id, key -> {
+            ActivityLogSnapshot snapshot = new ActivityLogSnapshot(content);
+            snapshot.setId(key);
+            return snapshot;
+        });
+        return id;
+    }
+
+    /**
+     * Write the queued activity logs after every flush interval or when a batch is full, until stopped.
+     * The interval doubles for every flush failed in a row, up to the max backoff.
+     */
+    private void run() {
+        while (running) {
+            long interval = config.getFlushInterval() << Math.min(failures, MAX_BACKOFF_SHIFT);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(interval));
+            flush();
+        }
+    }
+
+    /**
+     * The built activity log with the snapshots it references.
+     */
+    @AllArgsConstructor
+    private static class Pending {
+
+        /**
+         * The activity log.
+         */
+        private final ActivityLog activityLog;
+
+        /**
+         * The snapshots of the document before and after the operation.
+         */
+        private final List<ActivityLogSnapshot> snapshots;
+    }
+}
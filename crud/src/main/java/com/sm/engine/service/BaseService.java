@@ -4,8 +4,8 @@ import com.sm.engine.domain.ActivityLog;
 import com.sm.engine.domain.IdentifiableDocument;
 import com.sm.engine.domain.OperationType;
 import com.sm.engine.domain.support.SearchResult;
+import com.sm.engine.domain.support.TotalMode;
 import com.sm.engine.exception.DocumentNotFoundException;
-import com.sm.engine.repository.ActivityLogRepository;
 import com.sm.engine.repository.BaseRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Example;
@@ -39,10 +39,22 @@ public abstract class BaseService<T extends IdentifiableDocument, S> {
     private BaseRepository<T> repository;
 
     /**
-     * The activity log repository instance.
+     * The activity log writer instance.
      */
     @Autowired
-    private ActivityLogRepository activityLogRepository;
+    private ActivityLogWriter activityLogWriter;
+
+    /**
+     * The cursor search service instance.
+     */
+    @Autowired
+    private CursorSearchService cursorSearchService;
+
+    /**
+     * The search total service instance.
+     */
+    @Autowired
+    private SearchTotalService searchTotalService;
 
     @Autowired
     Validator validator;
@@ -116,8 +128,27 @@ public abstract class BaseService<T extends IdentifiableDocument, S> {
      */
     @Transactional(readOnly = true)
     public SearchResult<T> search(S criteria, Pageable pageable) {
-        Example<T> example = createSearchExample(criteria);
-        return new SearchResult<T>(repository.findAll(example, pageable));
+        return searchTotalService.search(createSearchExample(criteria), pageable, TotalMode.EXACT);
+    }
+
+    /**
+     * Searches documents with search example and pageable request, after the cursor if not null.
+     *
+     * @param criteria  the search criteria
+     * @param pageable  the pageable request
+     * @param after     the cursor of the previous page, empty for the first page, null to search by page number
+     * @param totalMode the total mode, exact by page number and none with cursor if null
+     * @return the results with pagination
+     * @throws IllegalArgumentException if the cursor is invalid
+     */
+    @Transactional(readOnly = true)
+    public SearchResult<T> search(S criteria, Pageable pageable, String after, TotalMode totalMode) {
+        if (after != null) {
+            return cursorSearchService.search(createSearchExample(criteria), pageable, after,
+                    totalMode == null ? TotalMode.NONE : totalMode);
+        }
+        return searchTotalService.search(createSearchExample(criteria), pageable,
+                totalMode == null ? TotalMode.EXACT : totalMode);
     }
 
     /**
@@ -243,7 +274,7 @@ public abstract class BaseService<T extends IdentifiableDocument, S> {
     }
 
     /**
-     * Creates a activity log.
+     * Creates a activity log, it is written in background.
      *
      * @param operationType  the operation type
      * @param documentBefore the document before saving
@@ -253,11 +284,9 @@ public abstract class BaseService<T extends IdentifiableDocument, S> {
         final String documentType =
                 ((documentBefore != null) ? documentBefore : documentAfter).getClass().getSimpleName();
         final String username = SecurityContextHolder.getContext().getAuthentication().getName();
-        final String description =
-                String.format("BEFORE: %s\nAFTER: %s", documentBefore, documentAfter);
 
-        ActivityLog activityLog = new ActivityLog(operationType, documentType, username, description);
+        ActivityLog activityLog = new ActivityLog(operationType, documentType, username, null);
 
-        activityLogRepository.insert(activityLog);
+        activityLogWriter.write(activityLog, documentBefore, documentAfter);
     }
 }
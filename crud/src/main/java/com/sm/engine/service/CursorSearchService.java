@@ -0,0 +1,283 @@
+package com.sm.engine.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sm.engine.domain.IdentifiableDocument;
+import com.sm.engine.domain.support.SearchResult;
+import com.sm.engine.domain.support.TotalMode;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.PropertyAccessorFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Example;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.beans.PropertyDescriptor;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * The service searches documents page by page with keyset pagination.
+ * The next page is searched after the sort value and id of the last record of the page, the position is kept in
+ * an opaque cursor. Unlike offset pagination no records are skipped and no total is counted, so every page
+ * takes the same time at any depth. Only the id and properties with a compound index on the property and the id
+ * can be sorted by, so pages are read in the index order without sorting in memory.
+ */
+@Service
+public class CursorSearchService {
+
+    /**
+     * The id property.
+     */
+    private static final String ID = "id";
+
+    /**
+     * The mongo operations.
+     */
+    @Autowired
+    private MongoOperations mongoOperations;
+
+    /**
+     * The object mapper.
+     */
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * The search total service.
+     */
+    @Autowired
+    private SearchTotalService searchTotalService;
+
+    /**
+     * The search index service.
+     */
+    @Autowired
+    private SearchIndexService searchIndexService;
+
+    /**
+     * The properties that can be sorted by with an index by document type.
+     */
+    private final Map<Class<?>, Set<String>> indexedProperties = new ConcurrentHashMap<>();
+
+    /**
+     * Search documents matching the example after the cursor.
+     * The records are sorted by the sort property of the pageable and the id, the page number is ignored.
+     *
+     * @param example  the search example
+     * @param pageable the page size and the sort with at most one property
+     * @param after     the cursor of the previous page, empty for the first page
+     * @param totalMode the total mode
+     * @param <T>       the document type
+     * @return the records with the total in the mode and the cursor of the next page
+     * @throws IllegalArgumentException throws if more than one sort property, the sort property is not indexed
+     *                                  or the cursor is invalid
+     */
+    public <T extends IdentifiableDocument> SearchResult<T> search(Example<T> example, Pageable pageable,
+                                                                   String after, TotalMode totalMode) {
+        Class<T> type = example.getProbeType();
+        Sort.Order order = getOrder(pageable.getSort());
+        Set<String> indexed = indexedProperties.computeIfAbsent(type, CursorSearchService::findIndexedProperties);
+        if (!indexed.contains(order.getProperty())) {
+            throw new IllegalArgumentException(String.format("Search with cursor supports sort by %s only",
+                    indexed.stream().sorted().collect(Collectors.joining(", "))));
+        }
+        String sort = order.getProperty() + "," + order.getDirection();
+        Criteria criteria = searchIndexService.byExample(example);
+        if (!after.isEmpty()) {
+            Map<?, ?> cursor = decode(after);
+            if (!sort.equals(cursor.get("sort"))) {
+                throw new IllegalArgumentException("The cursor is not of the sort " + sort);
+            }
+            Object value = convert(cursor.get("value"), getPropertyType(type, order.getProperty()));
+            String id = (String) cursor.get(ID);
+            criteria = new Criteria().andOperator(criteria, after(order, value, id));
+        }
+        Query query = new Query(criteria)
+                .with(order.getProperty().equals(ID) ? new Sort(order)
+                        : new Sort(order, new Sort.Order(order.getDirection(), ID)))
+                .limit(pageable.getPageSize() + 1);
+        List<T> records = new ArrayList<>(mongoOperations.find(query, type));
+        SearchResult<T> result = new SearchResult<>();
+        result.setRecords(records);
+        result.setTotalMode(totalMode);
+        result.setTotal(searchTotalService.count(example, totalMode));
+        result.setHasMore(records.size() > pageable.getPageSize());
+        if (result.getHasMore()) {
+            records.remove(records.size() - 1);
+            T last = records.get(records.size() - 1);
+            Object value = PropertyAccessorFactory.forBeanPropertyAccess(last).getPropertyValue(order.getProperty());
+            result.setNext(encode(sort, value, last.getId()));
+        }
+        return result;
+    }
+
+    /**
+     * Gets the single sort order, by id ascending if not sorted.
+     *
+     * @param sort the sort, may be null
+     * @return the sort order
+     * @throws IllegalArgumentException throws if more than one sort property
+     */
+    private static Sort.Order getOrder(Sort sort) {
+        if (sort == null) {
+            return new Sort.Order(Sort.Direction.ASC, ID);
+        }
+        Iterator<Sort.Order> orders = sort.iterator();
+        if (!orders.hasNext()) {
+            return new Sort.Order(Sort.Direction.ASC, ID);
+        }
+        Sort.Order order = orders.next();
+        if (orders.hasNext()) {
+            throw new IllegalArgumentException("Search with cursor supports one sort property");
+        }
+        return order;
+    }
+
+    /**
+     * Find the properties of the document type that can be sorted by with an index, the id and the properties
+     * with a compound index on exactly the property and the id in the same direction, as records are sorted by
+     * the property then the id.
+     *
+     * @param type the document type
+     * @return the indexed properties
+     */
+    private static Set<String> findIndexedProperties(Class<?> type) {
+        Set<String> properties = new HashSet<>();
+        properties.add(ID);
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            List<CompoundIndex> compoundIndexes = new ArrayList<>();
+            if (current.isAnnotationPresent(CompoundIndexes.class)) {
+                compoundIndexes.addAll(Arrays.asList(current.getAnnotation(CompoundIndexes.class).value()));
+            }
+            if (current.isAnnotationPresent(CompoundIndex.class)) {
+                compoundIndexes.add(current.getAnnotation(CompoundIndex.class));
+            }
+            for (CompoundIndex compoundIndex : compoundIndexes) {
+                List<Map.Entry<String, Object>> keys = new ArrayList<>(Document.parse(compoundIndex.def()).entrySet());
+                if (keys.size() == 2 && "_id".equals(keys.get(1).getKey())
+                        && keys.get(0).getValue().equals(keys.get(1).getValue())) {
+                    properties.add(keys.get(0).getKey());
+                }
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * Build the criteria of the records after the sort value and id in the sort order.
+     * Null sort values are before all other values in ascending order.
+     *
+     * @param order the sort order
+     * @param value the sort value of the last record, may be null
+     * @param id    the id of the last record
+     * @return the criteria
+     */
+    private static Criteria after(Sort.Order order, Object value, String id) {
+        String property = order.getProperty();
+        boolean ascending = order.isAscending();
+        // ids are stored as object ids if valid, range queries do not convert them
+        Object lastId = ObjectId.isValid(id) ? new ObjectId(id) : id;
+        Criteria sameValueAfterId = ascending ? Criteria.where(ID).gt(lastId) : Criteria.where(ID).lt(lastId);
+        if (property.equals(ID)) {
+            return sameValueAfterId;
+        }
+        Criteria sameValue = Criteria.where(property).is(value);
+        if (value == null) {
+            return ascending
+                    ? new Criteria().orOperator(Criteria.where(property).ne(null),
+                    new Criteria().andOperator(sameValue, sameValueAfterId))
+                    : new Criteria().andOperator(sameValue, sameValueAfterId);
+        }
+        Criteria afterValue = ascending ? Criteria.where(property).gt(value) : Criteria.where(property).lt(value);
+        if (ascending) {
+            return new Criteria().orOperator(afterValue, new Criteria().andOperator(sameValue, sameValueAfterId));
+        }
+        return new Criteria().orOperator(afterValue, new Criteria().andOperator(sameValue, sameValueAfterId),
+                Criteria.where(property).is(null));
+    }
+
+    /**
+     * Gets the type of the document property.
+     *
+     * @param type     the document type
+     * @param property the property
+     * @return the property type
+     * @throws IllegalArgumentException throws if the property is not found
+     */
+    private static Class<?> getPropertyType(Class<?> type, String property) {
+        PropertyDescriptor descriptor = BeanUtils.getPropertyDescriptor(type, property);
+        if (descriptor == null) {
+            throw new IllegalArgumentException("Unknown sort property " + property);
+        }
+        return descriptor.getPropertyType();
+    }
+
+    /**
+     * Convert the JSON value of the cursor to the property type.
+     *
+     * @param value the JSON value
+     * @param type  the property type
+     * @return the converted value
+     * @throws IllegalArgumentException throws if the value is invalid
+     */
+    private Object convert(Object value, Class<?> type) {
+        return objectMapper.convertValue(value, type);
+    }
+
+    /**
+     * Encode the cursor.
+     *
+     * @param sort  the sort
+     * @param value the sort value of the last record
+     * @param id    the id of the last record
+     * @return the cursor
+     */
+    private String encode(String sort, Object value, String id) {
+        Map<String, Object> cursor = new LinkedHashMap<>();
+        cursor.put("sort", sort);
+        cursor.put("value", value);
+        cursor.put(ID, id);
+        try {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(objectMapper.writeValueAsBytes(cursor));
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to encode cursor", e);
+        }
+    }
+
+    /**
+     * Decode the cursor.
+     *
+     * @param cursor the cursor
+     * @return the sort, the sort value and the id of the last record
+     * @throws IllegalArgumentException throws if the cursor is invalid
+     */
+    private Map<?, ?> decode(String cursor) {
+        try {
+            Map<?, ?> decoded = objectMapper.readValue(Base64.getUrlDecoder().decode(cursor), Map.class);
+            if (!(decoded.get(ID) instanceof String)) {
+                throw new IllegalArgumentException("The cursor is invalid");
+            }
+            return decoded;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("The cursor is invalid", e);
+        }
+    }
+}
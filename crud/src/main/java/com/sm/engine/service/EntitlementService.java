@@ -0,0 +1,486 @@
+package com.sm.engine.service;
+
+import com.sm.engine.config.EntitlementConfig;
+import com.sm.engine.domain.Entitlement;
+import com.sm.engine.domain.EntitlementAttribute;
+import com.sm.engine.domain.HeaderEvaluateResult;
+import com.sm.engine.domain.LdapUser;
+import com.sm.engine.domain.Module;
+import com.sm.engine.domain.support.CompiledPolicySet;
+import com.sm.engine.exception.NotFoundException;
+import com.sm.engine.repository.EntitlementRepository;
+import com.sm.engine.repository.ModuleRepository;
+import com.sm.engine.utils.Helper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The service precomputes the evaluated headers of all ldap users into the entitlement collection
+ * so evaluations become a lookup by id.
+ * All users are recomputed on start, periodically and when the ldap service changes. After policy related
+ * changes only the modules whose compiled policies changed are recomputed, from the user attributes stored
+ * with the entitlements, and only the entitlements whose headers changed are written.
+ * Entitlements of a module are used only once they are recomputed since the last change, and an entitlement
+ * is used only while the user attributes it is evaluated with are not older than the max age, so precomputed
+ * headers are not staler than the live evaluation.
+ * Changes are received as {@link EvaluationChangedEvent} so the service does not depend on the services
+ * evaluating headers.
+ */
+@Service
+public class EntitlementService {
+
+    /**
+     * The logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(EntitlementService.class);
+
+    /**
+     * The module key used for all modules.
+     */
+    private static final String ALL_MODULES = "";
+
+    /**
+     * The number of users recomputed in one task.
+     */
+    private static final int CHUNK_SIZE = 100;
+
+    /**
+     * The entitlement config.
+     */
+    @Autowired
+    private EntitlementConfig config;
+
+    /**
+     * The entitlement repository.
+     */
+    @Autowired
+    private EntitlementRepository entitlementRepository;
+
+    /**
+     * The module repository.
+     */
+    @Autowired
+    private ModuleRepository moduleRepository;
+
+    /**
+     * The policy snapshot service.
+     */
+    @Autowired
+    private PolicySnapshotService policySnapshotService;
+
+    /**
+     * The ldap service registry.
+     */
+    @Autowired
+    private LdapServiceRegistry ldapServiceRegistry;
+
+    /**
+     * The generation increased on every policy or ldap configuration change.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * The generation each module key is up to date with.
+     */
+    private final ConcurrentMap<String, Long> readyModules = new ConcurrentHashMap<>();
+
+    /**
+     * Whether a refresh is scheduled and not started yet.
+     */
+    private final AtomicBoolean refreshScheduled = new AtomicBoolean();
+
+    /**
+     * Whether the next refresh must recompute all users.
+     */
+    private final AtomicBoolean fullRefreshRequired = new AtomicBoolean(true);
+
+    /**
+     * The policy sets the entitlements are computed with by module key.
+     */
+    private Map<String, CompiledPolicySet> materialized = Collections.emptyMap();
+
+    /**
+     * The ldap service the entitlements are computed with.
+     */
+    private LdapService materializedLdapService;
+
+    /**
+     * The executor to run refreshes one by one.
+     */
+    private ScheduledExecutorService refreshExecutor;
+
+    /**
+     * The executor to recompute chunks of users.
+     */
+    private ExecutorService recomputeExecutor;
+
+    /**
+     * Create the executors and schedule the full refreshes if enabled.
+     *
+     * @throws IllegalStateException throws if the full refresh interval is not below the max age
+     */
+    @PostConstruct
+    public void init() {
+        if (config.getFullRefreshInterval() >= config.getMaxAge()) {
+            throw new IllegalStateException("entitlement.fullRefreshInterval must be below entitlement.maxAge");
+        }
+        refreshExecutor = Executors.newSingleThreadScheduledExecutor(createThreadFactory("entitlement-refresh-"));
+        recomputeExecutor = Executors.newFixedThreadPool(config.getConcurrency(),
+                createThreadFactory("entitlement-recompute-"));
+        if (config.isEnabled()) {
+            refreshExecutor.scheduleWithFixedDelay(() -> {
+                fullRefreshRequired.set(true);
+                refreshQuietly();
+            }, 0, config.getFullRefreshInterval(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Shutdown the executors.
+     */
+    @PreDestroy
+    public void destroy() {
+        refreshExecutor.shutdownNow();
+        recomputeExecutor.shutdownNow();
+    }
+
+    /**
+     * Check whether the entitlements of the module are up to date.
+     *
+     * @param moduleId the id of module, all modules if null or empty
+     * @return true if the entitlements can be used
+     */
+    public boolean isReady(String moduleId) {
+        Long readyGeneration = readyModules.get(getModuleKey(moduleId));
+        return config.isEnabled() && readyGeneration != null && readyGeneration == generation.get();
+    }
+
+    /**
+     * Gets the precomputed headers of the user.
+     *
+     * @param username the username
+     * @param moduleId the id of module, all modules if null or empty
+     * @return the precomputed headers, null if the entitlements are not up to date, the user is unknown
+     * or the entitlement is older than the max age
+     */
+    public List<HeaderEvaluateResult> find(String username, String moduleId) {
+        if (!isReady(moduleId)) {
+            return null;
+        }
+        Entitlement entitlement = entitlementRepository.findOne(getId(getModuleKey(moduleId), username));
+        if (entitlement == null
+                || entitlement.getEvaluatedAt() < System.currentTimeMillis() - config.getMaxAge()) {
+            return null;
+        }
+        return entitlement.getHeaders();
+    }
+
+    /**
+     * Marks all entitlements out of date after the ldap configuration or the policies changed.
+     *
+     * @param event the evaluation changed event
+     */
+    @EventListener
+    public void onEvaluationChanged(EvaluationChangedEvent event) {
+        invalidate();
+    }
+
+    /**
+     * Marks all entitlements out of date and schedules a refresh.
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        scheduleRefresh();
+    }
+
+    /**
+     * Schedules a refresh unless one is already scheduled.
+     */
+    private void scheduleRefresh() {
+        if (config.isEnabled() && refreshScheduled.compareAndSet(false, true)) {
+            refreshExecutor.execute(() -> {
+                refreshScheduled.set(false);
+                refreshQuietly();
+            });
+        }
+    }
+
+    /**
+     * Recompute the entitlements affected since the last refresh.
+     * All users are recomputed if required or the ldap service changed, otherwise only the modules whose compiled
+     * policies changed are recomputed.
+     *
+     * @throws NotFoundException throws if no enabled ldap configuration
+     */
+    public synchronized void refresh() {
+        long refreshGeneration = generation.get();
+        boolean full = fullRefreshRequired.getAndSet(false);
+        Map<String, CompiledPolicySet> policySets = new LinkedHashMap<>();
+        try {
+            LdapService ldapService = ldapServiceRegistry.getLdapService();
+            full = full || ldapService != materializedLdapService;
+            for (String key : getModuleKeys()) {
+                policySets.put(key, policySnapshotService.getPolicySet(key));
+            }
+            entitlementRepository.deleteByModuleIdNotIn(policySets.keySet());
+            Map<String, CompiledPolicySet> added = new LinkedHashMap<>();
+            for (Map.Entry<String, CompiledPolicySet> entry : policySets.entrySet()) {
+                CompiledPolicySet previous = full ? null : materialized.get(entry.getKey());
+                if (previous == null) {
+                    added.put(entry.getKey(), entry.getValue());
+                } else if (!previous.getRules().equals(entry.getValue().getRules())) {
+                    recomputeModule(ldapService, entry.getKey(), entry.getValue());
+                }
+            }
+            if (!added.isEmpty()) {
+                recomputeUsers(ldapService, added);
+            }
+            materialized = policySets;
+            materializedLdapService = ldapService;
+        } catch (RuntimeException ex) {
+            if (full) {
+                fullRefreshRequired.set(true);
+            }
+            throw ex;
+        }
+        readyModules.keySet().retainAll(policySets.keySet());
+        policySets.keySet().forEach(key -> readyModules.put(key, refreshGeneration));
+        if (refreshGeneration != generation.get()) {
+            LOG.info("Policies changed during entitlement refresh, refresh again");
+            scheduleRefresh();
+        }
+    }
+
+    /**
+     * Refresh and log the errors so scheduled refreshes keep running.
+     */
+    private void refreshQuietly() {
+        try {
+            refresh();
+        } catch (RuntimeException ex) {
+            LOG.error("Error happened during refreshing entitlements", ex);
+        }
+    }
+
+    /**
+     * Recompute the entitlements of all ldap users for the modules, each user is searched once in ldap.
+     * Entitlements of users no longer in ldap are deleted.
+     *
+     * @param ldapService the ldap service
+     * @param policySets  the compiled policy sets by module key
+     */
+    private void recomputeUsers(LdapService ldapService, Map<String, CompiledPolicySet> policySets) {
+        long version = System.currentTimeMillis();
+        Map<String, Boolean> ruleResults = HeaderService.evaluateRules(ldapService, policySets.values());
+        String[] attributes = HeaderService.getUserAttributes(policySets.values().stream()
+                .flatMap(policySet -> policySet.getRules().stream()).collect(Collectors.toList()));
+        List<String> usernames = ldapService.listUsers();
+        LOG.info("Recompute entitlements of {} users for modules {}", usernames.size(), policySets.keySet());
+        recomputeInChunks(usernames.iterator(), chunk -> {
+            List<Entitlement> entitlements = new ArrayList<>();
+            for (String username : chunk) {
+                LdapUser user = ldapService.findUser(username, attributes);
+                if (user == null) {
+                    continue;
+                }
+                long evaluatedAt = System.currentTimeMillis();
+                policySets.forEach((key, policySet) -> entitlements.add(new Entitlement(username, key,
+                        HeaderService.evaluateHeaders(policySet.getRules(), ruleResults, user.getAttributes()),
+                        toEntitlementAttributes(user.getAttributes()), version, evaluatedAt)));
+            }
+            entitlements.forEach(entitlement ->
+                    entitlement.setId(getId(entitlement.getModuleId(), entitlement.getUsername())));
+            entitlementRepository.save(entitlements);
+        });
+        entitlementRepository.deleteByModuleIdInAndVersionLessThan(policySets.keySet(), version);
+    }
+
+    /**
+     * Recompute the entitlements of the module after its compiled policies changed.
+     * The headers are evaluated with the stored user attributes, users are searched in ldap again only if
+     * the policies need attributes not stored, and only the changed entitlements are written.
+     *
+     * @param ldapService the ldap service
+     * @param key         the module key
+     * @param policySet   the compiled policy set
+     */
+    private void recomputeModule(LdapService ldapService, String key, CompiledPolicySet policySet) {
+        Map<String, Boolean> ruleResults = HeaderService.evaluateRules(ldapService,
+                Collections.singletonList(policySet));
+        String[] attributes = HeaderService.getUserAttributes(policySet.getRules());
+        List<String> requiredAttributes = Arrays.asList(attributes);
+        LOG.info("Recompute entitlements of changed module '{}'", key);
+        try (Stream<Entitlement> entitlements = entitlementRepository.streamByModuleId(key)) {
+            recomputeInChunks(entitlements.iterator(), chunk -> {
+                List<Entitlement> changed = new ArrayList<>();
+                for (Entitlement entitlement : chunk) {
+                    Map<String, Object> attributeValues = toAttributeValues(entitlement.getAttributes());
+                    boolean fetched = !attributeValues.keySet().containsAll(requiredAttributes);
+                    if (fetched) {
+                        LdapUser user = ldapService.findUser(entitlement.getUsername(), attributes);
+                        if (user == null) {
+                            entitlementRepository.delete(entitlement.getId());
+                            continue;
+                        }
+                        attributeValues = user.getAttributes();
+                        entitlement.setAttributes(toEntitlementAttributes(attributeValues));
+                        entitlement.setEvaluatedAt(System.currentTimeMillis());
+                    }
+                    List<HeaderEvaluateResult> headers = HeaderService.evaluateHeaders(policySet.getRules(),
+                            ruleResults, attributeValues);
+                    if (fetched || !headers.equals(entitlement.getHeaders())) {
+                        entitlement.setHeaders(headers);
+                        changed.add(entitlement);
+                    }
+                }
+                entitlementRepository.save(changed);
+            });
+        }
+    }
+
+    /**
+     * Run the task for chunks of the items on the recompute executor and wait for all of them.
+     * Only a bounded number of chunks is submitted ahead so memory stays bounded.
+     *
+     * @param items the items
+     * @param task  the task for one chunk
+     * @param <T>   the item type
+     */
+    private <T> void recomputeInChunks(Iterator<T> items, Consumer<List<T>> task) {
+        Semaphore permits = new Semaphore(config.getConcurrency() * 2);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        while (items.hasNext()) {
+            List<T> chunk = new ArrayList<>(CHUNK_SIZE);
+            while (items.hasNext() && chunk.size() < CHUNK_SIZE) {
+                chunk.add(items.next());
+            }
+            permits.acquireUninterruptibly();
+            futures.add(CompletableFuture.runAsync(() -> task.accept(chunk), recomputeExecutor)
+                    .whenComplete((result, ex) -> permits.release()));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()])).join();
+    }
+
+    /**
+     * Gets the keys of the modules to precompute.
+     *
+     * @return the module keys
+     */
+    private List<String> getModuleKeys() {
+        if (!config.getModuleIds().isEmpty()) {
+            return config.getModuleIds();
+        }
+        List<String> keys = new ArrayList<>();
+        keys.add(ALL_MODULES);
+        for (Module module : moduleRepository.findAll()) {
+            keys.add(module.getId());
+        }
+        return keys;
+    }
+
+    /**
+     * Gets the module key of the module id.
+     *
+     * @param moduleId the id of module, all modules if null or empty
+     * @return the module key
+     */
+    private static String getModuleKey(String moduleId) {
+        return Helper.isNullOrEmpty(moduleId) ? ALL_MODULES : moduleId;
+    }
+
+    /**
+     * Gets the entitlement id of the user for the module.
+     *
+     * @param key      the module key
+     * @param username the username
+     * @return the entitlement id
+     */
+    private static String getId(String key, String username) {
+        return key + "/" + username;
+    }
+
+    /**
+     * Convert the ldap attribute values to the attributes stored with an entitlement.
+     *
+     * @param attributeValues the ldap attribute values
+     * @return the entitlement attributes
+     */
+    private static List<EntitlementAttribute> toEntitlementAttributes(Map<String, Object> attributeValues) {
+        List<EntitlementAttribute> attributes = new ArrayList<>();
+        attributeValues.forEach((name, value) -> {
+            List<String> values;
+            if (value == null) {
+                values = Collections.emptyList();
+            } else if (value instanceof String) {
+                values = Collections.singletonList((String) value);
+            } else {
+                values = Arrays.asList((String[]) value);
+            }
+            attributes.add(new EntitlementAttribute(name, values));
+        });
+        return attributes;
+    }
+
+    /**
+     * Convert the attributes stored with an entitlement back to the ldap attribute values.
+     *
+     * @param attributes the entitlement attributes, may be null
+     * @return the ldap attribute values
+     */
+    private static Map<String, Object> toAttributeValues(List<EntitlementAttribute> attributes) {
+        Map<String, Object> attributeValues = new HashMap<>();
+        if (attributes != null) {
+            for (EntitlementAttribute attribute : attributes) {
+                List<String> values = attribute.getValues();
+                if (values == null || values.isEmpty()) {
+                    attributeValues.put(attribute.getName(), null);
+                } else if (values.size() == 1) {
+                    attributeValues.put(attribute.getName(), values.get(0));
+                } else {
+                    attributeValues.put(attribute.getName(), values.toArray(new String[values.size()]));
+                }
+            }
+        }
+        return attributeValues;
+    }
+
+    /**
+     * Create the daemon thread factory.
+     *
+     * @param threadNamePrefix the thread name prefix
+     * @return the thread factory
+     */
+    private static CustomizableThreadFactory createThreadFactory(String threadNamePrefix) {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(threadNamePrefix);
+        threadFactory.setDaemon(true);
+        return threadFactory;
+    }
+}
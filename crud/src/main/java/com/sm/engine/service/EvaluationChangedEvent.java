@@ -0,0 +1,19 @@
+package com.sm.engine.service;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * The event published after the ldap configuration or the policies changed, so the services holding
+ * evaluated headers can discard them without depending on the publishers.
+ */
+public class EvaluationChangedEvent extends ApplicationEvent {
+
+    /**
+     * Create the event.
+     *
+     * @param source the service that detected the change
+     */
+    public EvaluationChangedEvent(Object source) {
+        super(source);
+    }
+}
@@ -0,0 +1,282 @@
+package com.sm.engine.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.sm.engine.config.HeaderEvaluateCacheConfig;
+import com.sm.engine.domain.HeaderEvaluateResult;
+import com.sm.engine.domain.HeaderEvaluateStats;
+import com.sm.engine.utils.Helper;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * The cache of header evaluate results by username and module.
+ * It is invalidated as a whole after the compiled policies or the ldap configuration change.
+ * Concurrent identical evaluations are coalesced into one evaluation in flight, every request waits on its own
+ * copy so a request giving up never fails the others, and the evaluation is cancelled once no request waits.
+ */
+@Service
+public class HeaderEvaluateCache {
+
+    /**
+     * The header evaluate cache config.
+     */
+    @Autowired
+    private HeaderEvaluateCacheConfig config;
+
+    /**
+     * The cached evaluate results, null if evaluate results are not cached.
+     */
+    private Cache<Key, List<HeaderEvaluateResult>> cache;
+
+    /**
+     * The generation increased on every invalidation.
+     * Results evaluated before an invalidation are stored with the old generation and never read.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * The evaluations in flight by key.
+     */
+    private final ConcurrentMap<Key, InFlight> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * The number of evaluate requests.
+     */
+    private final LongAdder requestCount = new LongAdder();
+
+    /**
+     * The number of requests answered from cache.
+     */
+    private final LongAdder hitCount = new LongAdder();
+
+    /**
+     * The number of requests collapsed into an evaluation in flight.
+     */
+    private final LongAdder coalescedCount = new LongAdder();
+
+    /**
+     * The number of evaluations actually run.
+     */
+    private final LongAdder evaluationCount = new LongAdder();
+
+    /**
+     * Build the cache with the configured ttl and max size.
+     */
+    @PostConstruct
+    public void init() {
+        if (config.getTtl() > 0) {
+            cache = Caffeine.newBuilder()
+                    .expireAfterWrite(config.getTtl(), TimeUnit.MILLISECONDS)
+                    .maximumSize(config.getMaxSize())
+                    .build();
+        }
+    }
+
+    /**
+     * Gets the cached evaluate results, or joins the identical evaluation in flight,
+     * or evaluates asynchronously and caches the results.
+     *
+     * @param username the username
+     * @param moduleId the id of module
+     * @param loader   the loader to evaluate the results asynchronously
+     * @return the future of evaluate results, cancelling it does not affect other requests
+     * and cancels the evaluation if no other request waits for it
+     */
+    public CompletableFuture<List<HeaderEvaluateResult>> getAsync(
+            String username, String moduleId, Supplier<CompletableFuture<List<HeaderEvaluateResult>>> loader) {
+        requestCount.increment();
+        Key key = createKey(username, moduleId);
+        if (cache != null) {
+            List<HeaderEvaluateResult> cached = cache.getIfPresent(key);
+            if (cached != null) {
+                hitCount.increment();
+                return CompletableFuture.completedFuture(cached);
+            }
+        }
+        InFlight created = new InFlight(key);
+        InFlight existing = inFlight.putIfAbsent(key, created);
+        while (existing != null) {
+            CompletableFuture<List<HeaderEvaluateResult>> waiter = existing.attach();
+            if (waiter != null) {
+                coalescedCount.increment();
+                return waiter;
+            }
+            // the evaluation was cancelled by its last request
+            inFlight.remove(key, existing);
+            existing = inFlight.putIfAbsent(key, created);
+        }
+        CompletableFuture<List<HeaderEvaluateResult>> waiter = created.attach();
+        evaluationCount.increment();
+        try {
+            created.loading = loader.get();
+            created.loading.whenComplete((result, ex) -> {
+                inFlight.remove(key, created);
+                if (ex == null) {
+                    List<HeaderEvaluateResult> value = Collections.unmodifiableList(result);
+                    // results evaluated from the state before an invalidation are not cached
+                    if (cache != null && key.generation == generation.get()) {
+                        cache.put(key, value);
+                    }
+                    created.result.complete(value);
+                } else {
+                    created.result.completeExceptionally(ex);
+                }
+            });
+        } catch (RuntimeException ex) {
+            inFlight.remove(key, created);
+            created.result.completeExceptionally(ex);
+            throw ex;
+        }
+        return waiter;
+    }
+
+    /**
+     * Gets the header evaluate statistics.
+     *
+     * @return the header evaluate statistics
+     */
+    public HeaderEvaluateStats getStats() {
+        HeaderEvaluateStats stats = new HeaderEvaluateStats();
+        stats.setRequestCount(requestCount.sum());
+        stats.setHitCount(hitCount.sum());
+        stats.setCoalescedCount(coalescedCount.sum());
+        stats.setEvaluationCount(evaluationCount.sum());
+        stats.setInFlightCount(inFlight.size());
+        return stats;
+    }
+
+    /**
+     * Discard all cached evaluate results.
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    /**
+     * Create the cache key of current generation.
+     *
+     * @param username the username
+     * @param moduleId the id of module
+     * @return the cache key
+     */
+    private Key createKey(String username, String moduleId) {
+        return new Key(generation.get(), username, Helper.isNullOrEmpty(moduleId) ? "" : moduleId);
+    }
+
+    /**
+     * The evaluation in flight with the number of requests waiting for it.
+     */
+    private class InFlight {
+
+        /**
+         * The cache key.
+         */
+        private final Key key;
+
+        /**
+         * The future of evaluate results shared by the waiting requests.
+         */
+        private final CompletableFuture<List<HeaderEvaluateResult>> result = new CompletableFuture<>();
+
+        /**
+         * The future of the evaluation, null until started.
+         */
+        private volatile CompletableFuture<List<HeaderEvaluateResult>> loading;
+
+        /**
+         * The number of requests waiting.
+         */
+        private int waiters;
+
+        /**
+         * Whether the evaluation was cancelled since no request waits.
+         */
+        private boolean cancelled;
+
+        /**
+         * Create the evaluation in flight.
+         *
+         * @param key the cache key
+         */
+        private InFlight(Key key) {
+            this.key = key;
+        }
+
+        /**
+         * Attach a request waiting for the evaluation.
+         *
+         * @return the own future of evaluate results of the request, null if the evaluation was cancelled
+         */
+        private synchronized CompletableFuture<List<HeaderEvaluateResult>> attach() {
+            if (cancelled) {
+                return null;
+            }
+            waiters++;
+            CompletableFuture<List<HeaderEvaluateResult>> waiter = result.thenApply(Function.identity());
+            waiter.whenComplete((value, ex) -> {
+                if (waiter.isCancelled()) {
+                    detach();
+                }
+            });
+            return waiter;
+        }
+
+        /**
+         * Detach a request that stopped waiting, the evaluation is cancelled if it was the last one.
+         */
+        private void detach() {
+            synchronized (this) {
+                if (--waiters > 0 || result.isDone()) {
+                    return;
+                }
+                cancelled = true;
+            }
+            inFlight.remove(key, this);
+            if (loading != null) {
+                loading.cancel(true);
+            }
+            result.cancel(true);
+        }
+    }
+
+    /**
+     * The cache key.
+     */
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    private static class Key {
+
+        /**
+         * The generation.
+         */
+        private final long generation;
+
+        /**
+         * The username.
+         */
+        private final String username;
+
+        /**
+         * The id of module, empty for all modules.
+         */
+        private final String moduleId;
+    }
+}
@@ -0,0 +1,257 @@
+package com.sm.engine.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.sm.engine.domain.HeaderReceiverSearchResult;
+import com.sm.engine.domain.HeaderType;
+import com.sm.engine.domain.LdapAttributeNameValue;
+import com.sm.engine.domain.support.CompiledPolicySet;
+import com.sm.engine.domain.support.CompiledRule;
+import com.sm.engine.domain.support.HeaderReceiverSearchCriteria;
+import com.sm.engine.exception.NotFoundException;
+import com.sm.engine.utils.Helper;
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * The service answers which ldap users receive a header without evaluating every user.
+ * Only the rules of the header are evaluated, ldap rules once for all users and local rules and dynamic header
+ * values as directory searches. The users of every rule are kept as compressed bitmaps of user ids, the ids being
+ * the positions of the usernames in order, so the first valid rule of the header wins by cheap bitmap operations.
+ * The sorted usernames and the bitmaps of directory searches are kept while the ldap service is in use,
+ * up to the rule cache ttl, and discarded when the ldap configuration, the policies or the rule cache change.
+ */
+@Service
+public class HeaderReceiverService {
+
+    /**
+     * The max number of directory search bitmaps kept.
+     */
+    private static final long MAX_SEARCHES = 1000;
+
+    /**
+     * The ldap service registry.
+     */
+    @Autowired
+    private LdapServiceRegistry ldapServiceRegistry;
+
+    /**
+     * The policy snapshot service.
+     */
+    @Autowired
+    private PolicySnapshotService policySnapshotService;
+
+    /**
+     * The evaluator of the ldap service in use, null if it must be built again.
+     */
+    private volatile BitmapEvaluator evaluator;
+
+    /**
+     * Search the users who receive the header.
+     *
+     * @param criteria the search criteria
+     * @param pageable the pagination, all users if null
+     * @return the users found in username order
+     * @throws IllegalArgumentException throws if header name is null or empty
+     * @throws NotFoundException throws if no enabled ldap configuration
+     */
+    public HeaderReceiverSearchResult search(HeaderReceiverSearchCriteria criteria, Pageable pageable) {
+        Helper.checkNullOrEmpty(criteria.getHeaderName(), "headerName");
+        CompiledPolicySet policySet = policySnapshotService.getPolicySet(criteria.getModuleId());
+        List<CompiledRule> rules = policySet.getRules().stream()
+                .filter(rule -> criteria.getHeaderName().equals(rule.getHeaderName()))
+                .collect(Collectors.toList());
+        if (rules.isEmpty()) {
+            return new HeaderReceiverSearchResult(0, Collections.emptyList());
+        }
+        BitmapEvaluator bitmapEvaluator = getEvaluator(ldapServiceRegistry.getLdapService());
+        RoaringBitmap receivers = bitmapEvaluator.findReceivers(
+                new CompiledPolicySet(policySet.getModuleId(), rules), criteria.getHeaderValue());
+        int offset = pageable == null ? 0 : pageable.getOffset();
+        int size = pageable == null ? Integer.MAX_VALUE : pageable.getPageSize();
+        List<String> page = new ArrayList<>();
+        if (offset < receivers.getCardinality()) {
+            PeekableIntIterator iterator = receivers.getIntIterator();
+            iterator.advanceIfNeeded(receivers.select(offset));
+            while (iterator.hasNext() && page.size() < size) {
+                page.add(bitmapEvaluator.usernames.get(iterator.next()));
+            }
+        }
+        return new HeaderReceiverSearchResult(receivers.getCardinality(), page);
+    }
+
+    /**
+     * Discards the sorted usernames and the search bitmaps, they are loaded again on next search.
+     */
+    public void invalidate() {
+        evaluator = null;
+    }
+
+    /**
+     * Discards the sorted usernames and the search bitmaps after the ldap configuration or the policies changed.
+     *
+     * @param event the evaluation changed event
+     */
+    @EventListener
+    public void onEvaluationChanged(EvaluationChangedEvent event) {
+        invalidate();
+    }
+
+    /**
+     * Gets the evaluator of the ldap service, the current one is reused until expired or replaced.
+     *
+     * @param ldapService the ldap service
+     * @return the evaluator
+     */
+    private BitmapEvaluator getEvaluator(LdapService ldapService) {
+        BitmapEvaluator current = evaluator;
+        if (current != null && current.isValid(ldapService)) {
+            return current;
+        }
+        synchronized (this) {
+            current = evaluator;
+            if (current == null || !current.isValid(ldapService)) {
+                current = new BitmapEvaluator(ldapService);
+                if (ldapService.getRuleCacheTtl() > 0) {
+                    evaluator = current;
+                }
+            }
+            return current;
+        }
+    }
+
+    /**
+     * The evaluator of the rules of headers as bitmaps of user ids, shared by searches.
+     * Identical directory searches are run once, the bitmaps kept are never modified.
+     */
+    private static class BitmapEvaluator {
+
+        /**
+         * The ldap service.
+         */
+        private final LdapService ldapService;
+
+        /**
+         * The time in milliseconds the evaluator expires.
+         */
+        private final long expiresAt;
+
+        /**
+         * The distinct usernames in order, the user id is the position.
+         */
+        private final List<String> usernames;
+
+        /**
+         * The user ids by username.
+         */
+        private final Map<String, Integer> userIds = new HashMap<>();
+
+        /**
+         * The users found by directory searches by attribute values.
+         */
+        private final Cache<Map<String, String>, RoaringBitmap> searched =
+                Caffeine.newBuilder().maximumSize(MAX_SEARCHES).build();
+
+        /**
+         * Create the evaluator and load the usernames.
+         *
+         * @param ldapService the ldap service
+         */
+        private BitmapEvaluator(LdapService ldapService) {
+            this.ldapService = ldapService;
+            this.expiresAt = System.currentTimeMillis() + ldapService.getRuleCacheTtl();
+            this.usernames = ldapService.listUsers().stream().distinct().sorted().collect(Collectors.toList());
+            for (int i = 0; i < usernames.size(); i++) {
+                userIds.put(usernames.get(i), i);
+            }
+        }
+
+        /**
+         * Check whether the evaluator can be used for the ldap service.
+         *
+         * @param service the ldap service in use
+         * @return true if built for the ldap service and not expired
+         */
+        private boolean isValid(LdapService service) {
+            return ldapService == service && System.currentTimeMillis() < expiresAt;
+        }
+
+        /**
+         * Find the users who receive the header of the rules, the first valid rule of every user wins.
+         *
+         * @param policySet   the compiled rules of the header in order
+         * @param headerValue the header value, any value if null
+         * @return the bitmap of user ids
+         */
+        private RoaringBitmap findReceivers(CompiledPolicySet policySet, String headerValue) {
+            Map<String, Boolean> ruleResults = HeaderService.evaluateRules(ldapService,
+                    Collections.singletonList(policySet));
+            // users whose header is not decided by a previous rule
+            RoaringBitmap remaining = new RoaringBitmap();
+            remaining.add(0L, (long) userIds.size());
+            RoaringBitmap receivers = new RoaringBitmap();
+            for (CompiledRule rule : policySet.getRules()) {
+                if (remaining.isEmpty()) {
+                    break;
+                }
+                RoaringBitmap winners;
+                if (rule.isLocal()) {
+                    Map<String, String> attributeValues = new LinkedHashMap<>();
+                    boolean valued = true;
+                    for (LdapAttributeNameValue nameValue : rule.getRuleInfo()) {
+                        valued &= nameValue.getValue() != null;
+                        attributeValues.put(nameValue.getName(), nameValue.getValue());
+                    }
+                    // a local pair without value never matches, as in header evaluation
+                    winners = valued ? RoaringBitmap.and(remaining, searchUsers(attributeValues)) : new RoaringBitmap();
+                } else if (ruleResults.get(rule.getLdapRule())) {
+                    winners = remaining.clone();
+                } else {
+                    continue;
+                }
+                remaining.andNot(winners);
+                if (headerValue == null) {
+                    receivers.or(winners);
+                } else if (HeaderType.DYNAMIC.equals(rule.getHeaderType())) {
+                    // dynamic header value is the user attribute value
+                    receivers.or(RoaringBitmap.and(winners,
+                            searchUsers(Collections.singletonMap(rule.getHeaderValue(), headerValue))));
+                } else if (headerValue.equals(rule.getHeaderValue())) {
+                    receivers.or(winners);
+                }
+            }
+            return receivers;
+        }
+
+        /**
+         * Search the users having all the attribute values in ldap.
+         *
+         * @param attributeValues the attribute values by attribute name
+         * @return the bitmap of user ids
+         */
+        private RoaringBitmap searchUsers(Map<String, String> attributeValues) {
+            return searched.get(attributeValues, key -> {
+                RoaringBitmap users = new RoaringBitmap();
+                for (String username : ldapService.searchUsers(key)) {
+                    Integer userId = userIds.get(username);
+                    if (userId != null) {
+                        users.add(userId);
+                    }
+                }
+                return users;
+            });
+        }
+    }
+}
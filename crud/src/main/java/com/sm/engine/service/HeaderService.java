@@ -1,31 +1,62 @@
 package com.sm.engine.service;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sm.engine.config.HeaderEvaluateAsyncConfig;
+import com.sm.engine.config.HeaderEvaluateBatchConfig;
 import com.sm.engine.domain.Header;
+import com.sm.engine.domain.HeaderEvaluateBatchResult;
 import com.sm.engine.domain.HeaderEvaluateResult;
+import com.sm.engine.domain.HeaderEvaluateStats;
 import com.sm.engine.domain.HeaderType;
-import com.sm.engine.domain.Policy;
-import com.sm.engine.domain.Rule;
-import com.sm.engine.domain.UserAttributesRequest;
+import com.sm.engine.domain.LdapAttributeNameValue;
+import com.sm.engine.domain.LdapUser;
+import com.sm.engine.domain.support.CompiledPolicySet;
+import com.sm.engine.domain.support.CompiledRule;
 import com.sm.engine.domain.support.NameSearchCriteria;
-import com.sm.engine.domain.support.PolicySearchCriteria;
-import com.sm.engine.domain.support.SearchResult;
+import com.sm.engine.domain.support.StageTimings;
 import com.sm.engine.exception.NotFoundException;
 import com.sm.engine.utils.Helper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Example;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static org.springframework.data.domain.ExampleMatcher.GenericPropertyMatchers.contains;
 import static org.springframework.data.domain.ExampleMatcher.matching;
@@ -48,10 +79,20 @@ public class HeaderService extends BaseService<Header, NameSearchCriteria> {
     private static final String COMMA = ",";
 
     /**
-     * The ldap configuration service.
+     * The message format of not found ldap user.
+     */
+    private static final String USER_NOT_FOUND = "There is no ldap user with username '%s' found";
+
+    /**
+     * The stage name of the whole evaluation.
+     */
+    private static final String STAGE_TOTAL = "total";
+
+    /**
+     * The ldap service registry.
      */
     @Autowired
-    private LdapConfigurationService ldapConfigurationService;
+    private LdapServiceRegistry ldapServiceRegistry;
 
     /**
      * The ldap attribute service.
@@ -60,10 +101,60 @@ public class HeaderService extends BaseService<Header, NameSearchCriteria> {
     private LdapAttributeService ldapAttributeService;
 
     /**
-     * The policy service
+     * The policy snapshot service.
+     */
+    @Autowired
+    private PolicySnapshotService policySnapshotService;
+
+    /**
+     * The header evaluate cache.
+     */
+    @Autowired
+    private HeaderEvaluateCache headerEvaluateCache;
+
+    /**
+     * The user profile cache.
+     */
+    @Autowired
+    private UserProfileCache userProfileCache;
+
+    /**
+     * The entitlement service.
+     */
+    @Autowired
+    private EntitlementService entitlementService;
+
+    /**
+     * The header batch evaluate config.
+     */
+    @Autowired
+    private HeaderEvaluateBatchConfig headerEvaluateBatchConfig;
+
+    /**
+     * The executor to evaluate users of batches.
+     */
+    private ExecutorService batchExecutor;
+
+    /**
+     * The header async evaluate config.
      */
     @Autowired
-    private PolicyService policyService;
+    private HeaderEvaluateAsyncConfig headerEvaluateAsyncConfig;
+
+    /**
+     * The executor to search users concurrently with rules for sync evaluations, callers search once full.
+     */
+    private ExecutorService userExecutor;
+
+    /**
+     * The bounded executor to load policies from mongo for async evaluations.
+     */
+    private ExecutorService asyncMongoExecutor;
+
+    /**
+     * The bounded executor to evaluate headers in ldap for async evaluations.
+     */
+    private ExecutorService asyncLdapExecutor;
 
     /**
      * Validate all documents referenced by the specified document. Concrete classes should overwrite
@@ -100,79 +191,479 @@ public class HeaderService extends BaseService<Header, NameSearchCriteria> {
      */
     @Transactional(readOnly = true)
     public List<HeaderEvaluateResult> evaluate(String username, String moduleId) {
+        return evaluate(username, moduleId, new StageTimings());
+    }
+
+    /**
+     * Gets the headers evaluate results for the specified username and records the stage timings.
+     * The headers are evaluated on the calling thread, only the user search runs concurrently with
+     * the ldap rule searches.
+     *
+     * @param username the username
+     * @param moduleId the id of module
+     * @param timings  the stage timings to record
+     * @return the headers evaluate result
+     */
+    @Transactional(readOnly = true)
+    public List<HeaderEvaluateResult> evaluate(String username, String moduleId, StageTimings timings) {
+        Helper.checkNullOrEmpty(username, "username");
+        List<HeaderEvaluateResult> result = timings.time(STAGE_TOTAL, () -> join(headerEvaluateCache.getAsync(
+                username, moduleId, () -> CompletableFuture.completedFuture(
+                        evaluateNow(username, moduleId, timings))))).get();
+        LOG.debug("Evaluated headers of user '{}' with stage timings: {}", username, timings);
+        return result;
+    }
+
+    /**
+     * Gets the headers evaluate results for the specified username asynchronously and records the stage timings.
+     * The policies are loaded on the mongo executor and the headers are evaluated on the ldap executor
+     * so the calling thread is never blocked.
+     *
+     * @param username the username
+     * @param moduleId the id of module
+     * @param timings  the stage timings to record
+     * @return the future of headers evaluate result
+     * @throws RejectedExecutionException throws if the executors are saturated
+     */
+    public CompletableFuture<List<HeaderEvaluateResult>> evaluateAsync(String username, String moduleId,
+                                                                       StageTimings timings) {
         Helper.checkNullOrEmpty(username, "username");
-        LdapService ldapService = Helper.buildLdapService(ldapConfigurationService);
-        String userDN = ldapService.findUserDN(username);
-        if (Helper.isNullOrEmpty(userDN)) {
-            throw new NotFoundException("There is no ldap user with username '" + username + "' found");
+        long start = System.nanoTime();
+        return headerEvaluateCache.getAsync(username, moduleId, () -> evaluatePipeline(username, moduleId, timings))
+                .whenComplete((result, ex) -> {
+                    timings.record(STAGE_TOTAL, System.nanoTime() - start);
+                    LOG.debug("Evaluated headers of user '{}' with stage timings: {}", username, timings);
+                });
+    }
+
+    /**
+     * Gets the header evaluate statistics.
+     *
+     * @return the header evaluate statistics
+     */
+    public HeaderEvaluateStats getEvaluateStats() {
+        return headerEvaluateCache.getStats();
+    }
+
+    /**
+     * Evaluates the headers for many users and modules in one batch.
+     * The policies and ldap rule evaluations are shared by all users, and each user is searched once in ldap
+     * with the attributes of all modules, local rules are evaluated against them. Users are evaluated concurrently
+     * with a bounded number of ldap requests and the results are produced in the order of usernames.
+     *
+     * @param usernames the usernames
+     * @param moduleIds the ids of modules, all modules if null or empty
+     * @return the lazy stream of results, one per user and module, must be closed after use
+     * @throws IllegalArgumentException throws if usernames are invalid
+     * @throws NotFoundException throws if no enabled ldap configuration
+     */
+    @Transactional(readOnly = true)
+    public Stream<HeaderEvaluateBatchResult> evaluateBatch(List<String> usernames, List<String> moduleIds) {
+        if (usernames == null || usernames.isEmpty()) {
+            throw new IllegalArgumentException("usernames should not be null or empty");
         }
-        List<String> headerNames = new ArrayList<>();
-        List<HeaderEvaluateResult> result = new ArrayList<>();
-        PolicySearchCriteria policySearchCriteria = new PolicySearchCriteria();
-        policySearchCriteria.setModuleId(moduleId);
-        policySearchCriteria.setEnabled(Boolean.TRUE);
-        SearchResult<Policy> policyResult = policyService.search(policySearchCriteria, null);
-        List<Policy> policies = policyResult.getRecords();
-        Set<Header> dynamicHeaders = new HashSet<>();
-        if (policies != null) {
-            for (Policy policy : policies) {
-                List<Rule> rules = policy.getRules();
-                if (rules != null) {
-                    for (Rule rule : rules) {
-                        if (rule != null && rule.getRuleInfo() != null && rule.getHeader() != null) {
-                            String ldapRule = rule.getRuleInfo().stream()
-                                    .map(r -> r.getName() + "=" + r.getValue())
-                                    .collect(Collectors.joining(COMMA));
-                            if (!ldapService.evaluateRule(ldapRule)) {
-                                continue;
-                            }
-                            Header header = rule.getHeader();
-                            String headerName = header.getHeaderName();
-                            if (headerNames.contains(headerName)) {
-                                LOG.warn("Already exist static or dynamic header with name '{}'", headerName);
-                                continue;
-                            }
-                            headerNames.add(headerName);
-                            if (HeaderType.STATIC.equals(header.getType())) {
-                                // static headers
-                                result.add(new HeaderEvaluateResult(headerName, header.getValue()));
-                            } else if (HeaderType.DYNAMIC.equals(header.getType())) {
-                                // dynamic headers from ldap
-                                dynamicHeaders.add(header);
-                            }
-                        }
-                    }
+        if (usernames.size() > headerEvaluateBatchConfig.getMaxUsernames()) {
+            throw new IllegalArgumentException("usernames should not contain more than "
+                    + headerEvaluateBatchConfig.getMaxUsernames() + " usernames");
+        }
+        usernames.forEach(username -> Helper.checkNullOrEmpty(username, "username"));
+        LdapService ldapService = ldapServiceRegistry.getLdapService();
+        List<String> modules = moduleIds == null || moduleIds.isEmpty()
+                ? Collections.singletonList(null) : moduleIds.stream().distinct().collect(Collectors.toList());
+        Map<String, CompiledPolicySet> policySets = new LinkedHashMap<>();
+        modules.forEach(moduleId -> policySets.put(moduleId, policySnapshotService.getPolicySet(moduleId)));
+        Map<String, Boolean> ruleResults = evaluateRules(ldapService, policySets.values());
+        // rules failed in ldap can never match so their attributes are not fetched
+        String[] attributes = getUserAttributes(policySets.values().stream()
+                .flatMap(policySet -> policySet.getRules().stream())
+                .filter(rule -> rule.isLocal() || ruleResults.get(rule.getLdapRule()))
+                .collect(Collectors.toList()));
+        return streamInOrder(usernames,
+                username -> evaluateUser(ldapService, username, policySets, ruleResults, attributes))
+                .flatMap(List::stream);
+    }
+
+    /**
+     * Create the executors to evaluate users of batches and async evaluations.
+     */
+    @PostConstruct
+    public void init() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("header-evaluate-batch-");
+        threadFactory.setDaemon(true);
+        batchExecutor = Executors.newFixedThreadPool(headerEvaluateBatchConfig.getConcurrency(), threadFactory);
+        userExecutor = createExecutor("header-evaluate-user-", headerEvaluateAsyncConfig.getLdapThreads(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        asyncMongoExecutor = createExecutor("header-evaluate-mongo-", headerEvaluateAsyncConfig.getMongoThreads(),
+                new ThreadPoolExecutor.AbortPolicy());
+        asyncLdapExecutor = createExecutor("header-evaluate-ldap-", headerEvaluateAsyncConfig.getLdapThreads(),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Shutdown the executors to evaluate users of batches and async evaluations.
+     */
+    @PreDestroy
+    public void destroy() {
+        batchExecutor.shutdownNow();
+        userExecutor.shutdownNow();
+        asyncMongoExecutor.shutdownNow();
+        asyncLdapExecutor.shutdownNow();
+    }
+
+    /**
+     * Evaluates the headers for the specified username without cache on the calling thread.
+     * The precomputed entitlement is used if the entitlements of the module are up to date,
+     * otherwise the user is searched in ldap while the ldap rules are evaluated.
+     *
+     * @param username the username
+     * @param moduleId the id of module
+     * @param timings  the stage timings to record
+     * @return the headers evaluate result
+     * @throws NotFoundException throws if the ldap user is not found
+     */
+    private List<HeaderEvaluateResult> evaluateNow(String username, String moduleId, StageTimings timings) {
+        if (entitlementService.isReady(moduleId)) {
+            List<HeaderEvaluateResult> headers = timings.time("entitlement",
+                    () -> entitlementService.find(username, moduleId)).get();
+            if (headers != null) {
+                return headers;
+            }
+        }
+        LdapService ldapService = timings.time("ldapService", ldapServiceRegistry::getLdapService).get();
+        CompiledPolicySet policySet = timings.time("policies",
+                () -> policySnapshotService.getPolicySet(moduleId)).get();
+        String[] attributes = getUserAttributes(policySet.getRules());
+        CompletableFuture<LdapUser> user = CompletableFuture.supplyAsync(timings.time("user",
+                () -> userProfileCache.get(ldapService, username, attributes)), userExecutor);
+        Map<String, Boolean> ruleResults = timings.time("rules",
+                () -> evaluateRules(ldapService, Collections.singletonList(policySet))).get();
+        LdapUser ldapUser = join(user);
+        if (ldapUser == null) {
+            throw new NotFoundException(String.format(USER_NOT_FOUND, username));
+        }
+        return evaluateHeaders(policySet.getRules(), ruleResults, ldapUser.getAttributes());
+    }
+
+    /**
+     * Evaluates the headers for the specified username without cache on the async executors.
+     * The precomputed entitlement is looked up if the entitlements of the module are up to date,
+     * otherwise or if the user has no entitlement the headers are evaluated in ldap.
+     *
+     * @param username the username
+     * @param moduleId the id of module
+     * @param timings  the stage timings to record
+     * @return the future of headers evaluate result
+     * @throws RejectedExecutionException throws if the mongo executor is saturated
+     */
+    private CompletableFuture<List<HeaderEvaluateResult>> evaluatePipeline(String username, String moduleId,
+                                                                          StageTimings timings) {
+        if (!entitlementService.isReady(moduleId)) {
+            return evaluateInLdap(username, moduleId, timings);
+        }
+        return CompletableFuture.supplyAsync(timings.time("entitlement",
+                () -> entitlementService.find(username, moduleId)), asyncMongoExecutor)
+                .thenCompose(headers -> headers == null
+                        ? evaluateInLdap(username, moduleId, timings) : CompletableFuture.completedFuture(headers));
+    }
+
+    /**
+     * Evaluates the headers for the specified username in ldap as a pipeline of stages.
+     * The ldap service and the policies are loaded concurrently, then the ldap rules are evaluated
+     * while the user profile with all attributes of the policies is loaded, and local rules are evaluated
+     * against the user profile.
+     *
+     * @param username the username
+     * @param moduleId the id of module
+     * @param timings  the stage timings to record
+     * @return the future of headers evaluate result
+     * @throws RejectedExecutionException throws if the mongo executor is saturated
+     */
+    private CompletableFuture<List<HeaderEvaluateResult>> evaluateInLdap(String username, String moduleId,
+                                                                        StageTimings timings) {
+        CompletableFuture<LdapService> ldapService = CompletableFuture.supplyAsync(
+                timings.time("ldapService", ldapServiceRegistry::getLdapService), asyncMongoExecutor);
+        CompletableFuture<CompiledPolicySet> policySet = CompletableFuture.supplyAsync(
+                timings.time("policies", () -> policySnapshotService.getPolicySet(moduleId)), asyncMongoExecutor);
+        // compose so that rejection by ldap executor completes the futures exceptionally
+        CompletableFuture<Map<String, Boolean>> ruleResults = ldapService.thenCombine(policySet,
+                (service, set) -> CompletableFuture.supplyAsync(timings.time("rules",
+                        () -> evaluateRules(service, Collections.singletonList(set))), asyncLdapExecutor))
+                .thenCompose(Function.identity());
+        // find user dn and all attributes in one search or from cached profile, overlapping with rule evaluations
+        CompletableFuture<LdapUser> user = ldapService.thenCombine(policySet,
+                (service, set) -> CompletableFuture.supplyAsync(timings.time("user",
+                        () -> userProfileCache.get(service, username, getUserAttributes(set.getRules()))),
+                        asyncLdapExecutor))
+                .thenCompose(Function.identity());
+        return ruleResults.thenCombine(user, (results, ldapUser) -> {
+            if (ldapUser == null) {
+                throw new NotFoundException(String.format(USER_NOT_FOUND, username));
+            }
+            // policy set is already loaded once rule results are available
+            return evaluateHeaders(policySet.join().getRules(), results, ldapUser.getAttributes());
+        });
+    }
+
+    /**
+     * Evaluates the headers of one user in a batch for all modules.
+     * Errors are reported in the results so that other users in the batch are still evaluated.
+     *
+     * @param ldapService the ldap service
+     * @param username    the username
+     * @param policySets  the compiled policy sets by module id
+     * @param ruleResults the evaluate results by ldap rule
+     * @param attributes  the ldap attributes of all rules
+     * @return the results, one per module
+     */
+    private List<HeaderEvaluateBatchResult> evaluateUser(LdapService ldapService, String username,
+                                                         Map<String, CompiledPolicySet> policySets,
+                                                         Map<String, Boolean> ruleResults,
+                                                         String[] attributes) {
+        Map<String, Object> attributeValues = null;
+        String error = null;
+        try {
+            LdapUser user = ldapService.findUser(username, attributes);
+            if (user == null) {
+                error = String.format(USER_NOT_FOUND, username);
+            } else {
+                attributeValues = user.getAttributes();
+            }
+        } catch (RuntimeException ex) {
+            LOG.error("Error happened during evaluating headers of user '" + username + "'", ex);
+            error = "Failed to evaluate headers of user '" + username + "'";
+        }
+        List<HeaderEvaluateBatchResult> results = new ArrayList<>();
+        for (Map.Entry<String, CompiledPolicySet> entry : policySets.entrySet()) {
+            List<HeaderEvaluateResult> headers = null;
+            String moduleError = error;
+            if (error == null) {
+                try {
+                    headers = evaluateHeaders(entry.getValue().getRules(), ruleResults, attributeValues);
+                } catch (RuntimeException ex) {
+                    LOG.error("Error happened during evaluating headers of user '" + username + "'", ex);
+                    moduleError = "Failed to evaluate headers of user '" + username + "'";
                 }
             }
-            if (!dynamicHeaders.isEmpty()) {
-                // speed up by call once for all dynamic headers for same user dn
-                String[] attributes = dynamicHeaders.stream()
-                        .map(Header::getValue)
-                        //.filter(ldapAttributeService.getAllNames()::contains)// must be enabled attribute in database
-                        .toArray(String[]::new);
-                UserAttributesRequest attributesRequest = new UserAttributesRequest();
-                attributesRequest.setUserDN(userDN);
-                attributesRequest.setAttributes(attributes);
-                Map<String, Object> attributeValues = ldapService.getUserAttributes(attributesRequest);
-                for (Header dynamicHeader : dynamicHeaders) {
-                    if (attributeValues.containsKey(dynamicHeader.getValue())) {
-                        Object attributeValue = attributeValues.get(dynamicHeader.getValue());
-                        String value = null;
-                        if (attributeValue==null){
-                            value = "null";
-                        }
-                        else if (attributeValue instanceof String) {
-                            value = (String) attributeValue;
-                        } else {
-                            // will join array of string by comma
-                            value = String.join(COMMA, (String[]) attributeValue);
-                        }
-                        result.add(new HeaderEvaluateResult(dynamicHeader.getHeaderName(),
-                                value));
-                    }
+            results.add(new HeaderEvaluateBatchResult(username, entry.getKey(), headers, moduleError));
+        }
+        return results;
+    }
+
+    /**
+     * Wait for the future and rethrow the runtime exception it completed with.
+     *
+     * @param future the future
+     * @param <T>    the result type
+     * @return the result
+     */
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Create the executor with fixed number of threads and bounded queue.
+     *
+     * @param threadNamePrefix the thread name prefix
+     * @param threads          the number of threads
+     * @param handler          the handler of tasks once full
+     * @return the executor
+     */
+    private ExecutorService createExecutor(String threadNamePrefix, int threads,
+                                           RejectedExecutionHandler handler) {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(threadNamePrefix);
+        threadFactory.setDaemon(true);
+        int queueCapacity = headerEvaluateAsyncConfig.getQueueCapacity();
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                queueCapacity > 0 ? new ArrayBlockingQueue<>(queueCapacity) : new SynchronousQueue<>(),
+                threadFactory, handler);
+    }
+
+    /**
+     * Run the tasks of usernames on the batch executor and stream the results in the order of usernames.
+     * Only a bounded window of tasks is submitted ahead of the consumer so memory stays bounded.
+     *
+     * @param usernames the usernames
+     * @param task      the task for one username
+     * @param <R>       the result type
+     * @return the lazy stream of results, closing it cancels the tasks not consumed
+     */
+    private <R> Stream<R> streamInOrder(List<String> usernames, Function<String, R> task) {
+        int windowSize = headerEvaluateBatchConfig.getConcurrency() * 2;
+        Iterator<String> pending = usernames.iterator();
+        Deque<Future<R>> window = new ArrayDeque<>();
+        Iterator<R> iterator = new Iterator<R>() {
+            @Override
+            public boolean hasNext() {
+                while (pending.hasNext() && window.size() < windowSize) {
+                    String username = pending.next();
+                    window.add(batchExecutor.submit(() -> task.apply(username)));
                 }
+                return !window.isEmpty();
+            }
+
+            @Override
+            public R next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                try {
+                    return window.poll().get();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted during evaluating headers", ex);
+                } catch (ExecutionException ex) {
+                    throw new IllegalStateException("Error happened during evaluating headers", ex.getCause());
+                }
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+                .onClose(() -> window.forEach(future -> future.cancel(true)));
+    }
+
+    /**
+     * Evaluate the distinct ldap rules of the policy sets in one batch, local rules are skipped.
+     *
+     * @param ldapService the ldap service
+     * @param policySets  the compiled policy sets
+     * @return the evaluate results by ldap rule
+     */
+    static Map<String, Boolean> evaluateRules(LdapService ldapService, Collection<CompiledPolicySet> policySets) {
+        List<String> ldapRules = policySets.stream().flatMap(policySet -> policySet.getRules().stream())
+                .filter(rule -> !rule.isLocal())
+                .map(CompiledRule::getLdapRule).distinct().collect(Collectors.toList());
+        boolean[] values = ldapService.evaluateRules(ldapRules);
+        Map<String, Boolean> ruleResults = new HashMap<>();
+        for (int i = 0; i < ldapRules.size(); i++) {
+            ruleResults.put(ldapRules.get(i), values[i]);
+        }
+        return ruleResults;
+    }
+
+    /**
+     * Evaluate the headers of the user from the rules, the ldap rule results and the user attributes.
+     *
+     * @param rules           the compiled rules in order
+     * @param ruleResults     the evaluate results by ldap rule
+     * @param attributeValues the ldap attribute values of the user
+     * @return the header evaluate results
+     */
+    static List<HeaderEvaluateResult> evaluateHeaders(List<CompiledRule> rules, Map<String, Boolean> ruleResults,
+                                                      Map<String, Object> attributeValues) {
+        return buildResults(matchRules(rules, ruleResults, attributeValues), attributeValues);
+    }
+
+    /**
+     * Match the rules, the first valid rule of every header name wins.
+     *
+     * @param rules           the compiled rules in order
+     * @param ruleResults     the evaluate results by ldap rule
+     * @param attributeValues the ldap attribute values of the user to evaluate local rules
+     * @return the matched rules in order
+     */
+    private static List<CompiledRule> matchRules(List<CompiledRule> rules, Map<String, Boolean> ruleResults,
+                                                 Map<String, Object> attributeValues) {
+        Set<String> headerNames = new HashSet<>();
+        List<CompiledRule> matched = new ArrayList<>();
+        for (CompiledRule rule : rules) {
+            String headerName = rule.getHeaderName();
+            if (headerNames.contains(headerName)) {
+                LOG.warn("Already exist static or dynamic header with name '{}'", headerName);
+                continue;
+            }
+            if (rule.isLocal() ? evaluateLocalRule(rule, attributeValues) : ruleResults.get(rule.getLdapRule())) {
+                headerNames.add(headerName);
+                matched.add(rule);
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * Evaluate the local rule against the ldap attribute values of the user.
+     * Every attribute name and value pair must match one of the values of the attribute, ignoring case.
+     * A pair without value never matches.
+     *
+     * @param rule            the local rule
+     * @param attributeValues the ldap attribute values of the user
+     * @return true if the rule is valid for the user
+     */
+    private static boolean evaluateLocalRule(CompiledRule rule, Map<String, Object> attributeValues) {
+        for (LdapAttributeNameValue nameValue : rule.getRuleInfo()) {
+            if (nameValue.getValue() == null) {
+                return false;
+            }
+            Object attributeValue = attributeValues.get(nameValue.getName());
+            String[] values = attributeValue instanceof String[]
+                    ? (String[]) attributeValue : new String[]{(String) attributeValue};
+            if (Arrays.stream(values).noneMatch(nameValue.getValue()::equalsIgnoreCase)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the distinct ldap attributes of the user needed by the rules,
+     * the attributes of dynamic headers and the attributes of local rules.
+     *
+     * @param rules the rules
+     * @return the ldap attributes
+     */
+    static String[] getUserAttributes(List<CompiledRule> rules) {
+        Stream<String> dynamicAttributes = rules.stream()
+                .filter(rule -> HeaderType.DYNAMIC.equals(rule.getHeaderType()))
+                .map(CompiledRule::getHeaderValue);
+        Stream<String> localRuleAttributes = rules.stream().filter(CompiledRule::isLocal)
+                .flatMap(rule -> rule.getRuleInfo().stream()).map(LdapAttributeNameValue::getName);
+        return Stream.concat(dynamicAttributes, localRuleAttributes).distinct().toArray(String[]::new);
+    }
+
+    /**
+     * Build the header evaluate results of the matched rules, static headers first.
+     *
+     * @param matched         the matched rules
+     * @param attributeValues the ldap attribute values of the user
+     * @return the header evaluate results
+     */
+    private static List<HeaderEvaluateResult> buildResults(List<CompiledRule> matched,
+                                                           Map<String, Object> attributeValues) {
+        List<HeaderEvaluateResult> result = new ArrayList<>();
+        for (CompiledRule rule : matched) {
+            if (HeaderType.STATIC.equals(rule.getHeaderType())) {
+                result.add(new HeaderEvaluateResult(rule.getHeaderName(), rule.getHeaderValue()));
+            }
+        }
+        for (CompiledRule rule : matched) {
+            if (HeaderType.DYNAMIC.equals(rule.getHeaderType())
+                    && attributeValues.containsKey(rule.getHeaderValue())) {
+                result.add(new HeaderEvaluateResult(rule.getHeaderName(),
+                        formatAttributeValue(attributeValues.get(rule.getHeaderValue()))));
             }
         }
         return result;
     }
+
+    /**
+     * Format ldap attribute value as header value.
+     *
+     * @param attributeValue the ldap attribute value
+     * @return the header value
+     */
+    private static String formatAttributeValue(Object attributeValue) {
+        if (attributeValue == null) {
+            return "null";
+        }
+        if (attributeValue instanceof String) {
+            return (String) attributeValue;
+        }
+        // will join array of string by comma
+        return String.join(COMMA, (String[]) attributeValue);
+    }
 }
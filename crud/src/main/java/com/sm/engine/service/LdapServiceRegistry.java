@@ -0,0 +1,246 @@
+package com.sm.engine.service;
+
+import com.sm.engine.domain.LdapConfiguration;
+import com.sm.engine.domain.support.LdapConfigurationSearchCriteria;
+import com.sm.engine.domain.support.SearchResult;
+import com.sm.engine.exception.NotFoundException;
+import com.sm.engine.utils.Helper;
+import lombok.AllArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.util.DigestUtils;
+
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The registry keeps one long-lived ldap service built from the latest enabled ldap configuration.
+ * The configuration is looked up again only after an ldap configuration document is saved or deleted
+ * and the ldap service is rebuilt only if the configuration fingerprint changed.
+ * A replaced ldap service is closed after a grace period so in-flight requests can complete.
+ */
+@Service
+public class LdapServiceRegistry extends AbstractMongoEventListener<LdapConfiguration> {
+
+    /**
+     * The logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(LdapServiceRegistry.class);
+
+    /**
+     * The delay in seconds before a replaced ldap service is closed.
+     */
+    private static final long CLOSE_DELAY_SECONDS = 60;
+
+    /**
+     * The ldap configuration service.
+     */
+    @Autowired
+    private LdapConfigurationService ldapConfigurationService;
+
+    /**
+     * The header evaluate cache.
+     */
+    @Autowired
+    private HeaderEvaluateCache headerEvaluateCache;
+
+    /**
+     * The event publisher to notify the entitlements.
+     */
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    /**
+     * The user profile cache.
+     */
+    @Autowired
+    private UserProfileCache userProfileCache;
+
+    /**
+     * The current ldap service, null if the configuration must be looked up again.
+     */
+    private volatile Entry current;
+
+    /**
+     * The last ldap service built, reused if the fingerprint did not change.
+     */
+    private Entry last;
+
+    /**
+     * The generation increased on every ldap configuration change.
+     */
+    private long generation;
+
+    /**
+     * The executor to close replaced ldap services.
+     */
+    private final ScheduledExecutorService closeExecutor =
+            Executors.newSingleThreadScheduledExecutor(createThreadFactory());
+
+    /**
+     * Gets the ldap service of the latest enabled ldap configuration.
+     *
+     * @return the ldap service
+     * @throws NotFoundException throws if no enabled ldap configuration.
+     */
+    public LdapService getLdapService() {
+        Entry entry = current;
+        if (entry != null) {
+            return entry.service;
+        }
+        long lookupGeneration;
+        synchronized (this) {
+            lookupGeneration = generation;
+        }
+        LdapConfiguration config = findLatestEnabledConfiguration();
+        String fingerprint = fingerprint(config);
+        synchronized (this) {
+            if (last == null || !last.fingerprint.equals(fingerprint)) {
+                LOG.info("Build ldap service for ldap configuration '{}'", config.getName());
+                scheduleClose(last);
+                last = new Entry(fingerprint, Helper.buildLdapService(config));
+            }
+            entry = last;
+            if (lookupGeneration == generation) {
+                // configuration did not change during lookup
+                current = entry;
+            }
+        }
+        return entry.service;
+    }
+
+    /**
+     * Forces the ldap configuration to be looked up again on next use.
+     * The header evaluate results and user profiles from the previous ldap configuration are discarded
+     * and the entitlements are refreshed.
+     */
+    public synchronized void invalidate() {
+        generation++;
+        current = null;
+        headerEvaluateCache.invalidate();
+        userProfileCache.invalidate();
+        eventPublisher.publishEvent(new EvaluationChangedEvent(this));
+    }
+
+    /**
+     * Close the ldap services on shutdown.
+     */
+    @PreDestroy
+    public synchronized void destroy() {
+        closeExecutor.shutdownNow();
+        if (last != null) {
+            last.service.close();
+        }
+        current = null;
+        last = null;
+    }
+
+    /**
+     * Invalidate the ldap service after an ldap configuration is saved.
+     *
+     * @param event the after save event
+     */
+    @Override
+    public void onAfterSave(AfterSaveEvent<LdapConfiguration> event) {
+        invalidate();
+    }
+
+    /**
+     * Invalidate the ldap service after an ldap configuration is deleted.
+     *
+     * @param event the after delete event
+     */
+    @Override
+    public void onAfterDelete(AfterDeleteEvent<LdapConfiguration> event) {
+        invalidate();
+    }
+
+    /**
+     * Find the latest enabled ldap configuration.
+     *
+     * @return the latest enabled ldap configuration
+     * @throws NotFoundException throws if no enabled ldap configuration.
+     */
+    private LdapConfiguration findLatestEnabledConfiguration() {
+        LdapConfigurationSearchCriteria criteria = new LdapConfigurationSearchCriteria();
+        criteria.setEnabled(true);
+        // use latest enabled ldap configuration
+        SearchResult<LdapConfiguration> configs = ldapConfigurationService.search(criteria,
+                new PageRequest(0, 1, Sort.Direction.DESC, "lastModifiedAt"));
+        if (configs.getRecords().isEmpty()) {
+            throw new NotFoundException("There is no enabled ldap configuration");
+        }
+        return configs.getRecords().get(0);
+    }
+
+    /**
+     * Build the fingerprint of the ldap configuration values used to build the ldap service.
+     *
+     * @param config the ldap configuration
+     * @return the fingerprint
+     */
+    private static String fingerprint(LdapConfiguration config) {
+        String values = Stream.of(config.getUrl(), config.getRoot(), config.getUserDn(),
+                config.getPassword(), config.getUserSearchBase(), config.getUserAttribute(),
+                config.getPooled(), config.getPoolMaxActive(), config.getPoolMaxIdle(), config.getPoolMinIdle(),
+                config.getPoolMaxWait(), config.getPoolTestOnBorrow(), config.getPoolTestWhileIdle(),
+                config.getPoolEvictionRunInterval(), config.getPoolMinEvictableIdleTime(),
+                config.getRuleCacheTtl(), config.getRuleCacheMaxSize(), config.getRuleEvaluateConcurrency(),
+                config.getRuleEvaluateTimeout())
+                .map(String::valueOf).collect(Collectors.joining("\n"));
+        return DigestUtils.md5DigestAsHex(values.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Schedule to close the replaced ldap service.
+     *
+     * @param entry the replaced entry, may be null
+     */
+    private void scheduleClose(Entry entry) {
+        if (entry != null) {
+            closeExecutor.schedule(entry.service::close, CLOSE_DELAY_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Create the daemon thread factory of close executor.
+     *
+     * @return the thread factory
+     */
+    private static CustomizableThreadFactory createThreadFactory() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("ldap-service-close-");
+        threadFactory.setDaemon(true);
+        return threadFactory;
+    }
+
+    /**
+     * The ldap service with the fingerprint of its configuration.
+     */
+    @AllArgsConstructor
+    private static class Entry {
+
+        /**
+         * The configuration fingerprint.
+         */
+        private final String fingerprint;
+
+        /**
+         * The ldap service.
+         */
+        private final LdapService service;
+    }
+}
@@ -0,0 +1,177 @@
+package com.sm.engine.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.sm.engine.domain.Header;
+import com.sm.engine.domain.IdentifiableDocument;
+import com.sm.engine.domain.Module;
+import com.sm.engine.domain.Policy;
+import com.sm.engine.domain.Rule;
+import com.sm.engine.domain.RuleEvaluationMode;
+import com.sm.engine.domain.support.CompiledPolicySet;
+import com.sm.engine.domain.support.CompiledRule;
+import com.sm.engine.domain.support.PolicySearchCriteria;
+import com.sm.engine.utils.Helper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * The service keeps the in-memory snapshot of enabled policies compiled per module.
+ * The snapshot is replaced as a whole whenever a Policy, Header or Module document is written.
+ */
+@Service
+public class PolicySnapshotService extends AbstractMongoEventListener<IdentifiableDocument> {
+
+    /**
+     * The snapshot key used for all modules.
+     */
+    private static final String ALL_MODULES = "";
+
+    /**
+     * The comma.
+     */
+    private static final String COMMA = ",";
+
+    /**
+     * The max number of compiled policy sets kept, so unknown module ids cannot grow the snapshot without limit.
+     */
+    private static final long MAX_POLICY_SETS = 10000;
+
+    /**
+     * The policy service.
+     */
+    @Autowired
+    private PolicyService policyService;
+
+    /**
+     * The header evaluate cache.
+     */
+    @Autowired
+    private HeaderEvaluateCache headerEvaluateCache;
+
+    /**
+     * The event publisher to notify the entitlements.
+     */
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    /**
+     * The current snapshot of compiled policy sets by module id.
+     */
+    private volatile Cache<String, CompiledPolicySet> snapshot = createSnapshot();
+
+    /**
+     * Gets the compiled policy set of the enabled policies for the specified module.
+     *
+     * @param moduleId the id of module, all modules if null or empty
+     * @return the compiled policy set
+     */
+    public CompiledPolicySet getPolicySet(String moduleId) {
+        String key = Helper.isNullOrEmpty(moduleId) ? ALL_MODULES : moduleId;
+        // empty sets are kept too so modules without policies and unknown module ids do not hit the database
+        return snapshot.get(key, k -> compile(moduleId));
+    }
+
+    /**
+     * Drops the current snapshot, policy sets will be compiled again on next use.
+     * The header evaluate results built from the dropped snapshot are discarded and the entitlements are refreshed.
+     */
+    public void invalidate() {
+        snapshot = createSnapshot();
+        headerEvaluateCache.invalidate();
+        eventPublisher.publishEvent(new EvaluationChangedEvent(this));
+    }
+
+    /**
+     * Invalidate the snapshot after a policy related document is saved.
+     *
+     * @param event the after save event
+     */
+    @Override
+    public void onAfterSave(AfterSaveEvent<IdentifiableDocument> event) {
+        if (isPolicyRelated(event.getSource().getClass())) {
+            invalidate();
+        }
+    }
+
+    /**
+     * Invalidate the snapshot after a policy related document is deleted.
+     *
+     * @param event the after delete event
+     */
+    @Override
+    public void onAfterDelete(AfterDeleteEvent<IdentifiableDocument> event) {
+        if (isPolicyRelated(event.getType())) {
+            invalidate();
+        }
+    }
+
+    /**
+     * Compile the enabled policies of the specified module.
+     *
+     * @param moduleId the id of module, all modules if null or empty
+     * @return the compiled policy set
+     */
+    private CompiledPolicySet compile(String moduleId) {
+        PolicySearchCriteria policySearchCriteria = new PolicySearchCriteria();
+        policySearchCriteria.setModuleId(moduleId);
+        policySearchCriteria.setEnabled(Boolean.TRUE);
+        List<Policy> policies = policyService.search(policySearchCriteria, null).getRecords();
+        List<CompiledRule> rules = new ArrayList<>();
+        // same header with same ldap rule can never produce another result so keep the first one only
+        Set<String> compiledKeys = new HashSet<>();
+        if (policies != null) {
+            for (Policy policy : policies) {
+                if (policy.getRules() == null) {
+                    continue;
+                }
+                for (Rule rule : policy.getRules()) {
+                    if (rule != null && rule.getRuleInfo() != null && rule.getHeader() != null) {
+                        String ldapRule = rule.getRuleInfo().stream()
+                                .map(r -> r.getName() + "=" + r.getValue())
+                                .collect(Collectors.joining(COMMA));
+                        RuleEvaluationMode evaluationMode = rule.getEvaluationMode() == null
+                                ? RuleEvaluationMode.LDAP : rule.getEvaluationMode();
+                        Header header = rule.getHeader();
+                        if (compiledKeys.add(header.getHeaderName() + "\n" + evaluationMode + "\n" + ldapRule)) {
+                            rules.add(new CompiledRule(ldapRule, new ArrayList<>(rule.getRuleInfo()),
+                                    evaluationMode, header.getId(), header.getHeaderName(),
+                                    header.getType(), header.getValue()));
+                        }
+                    }
+                }
+            }
+        }
+        return new CompiledPolicySet(Helper.isNullOrEmpty(moduleId) ? null : moduleId, rules);
+    }
+
+    /**
+     * Create an empty snapshot.
+     *
+     * @return the snapshot
+     */
+    private static Cache<String, CompiledPolicySet> createSnapshot() {
+        return Caffeine.newBuilder().maximumSize(MAX_POLICY_SETS).build();
+    }
+
+    /**
+     * Check whether documents of the specified type affect the compiled policies.
+     *
+     * @param type the document type
+     * @return true if the type is Policy, Header or Module
+     */
+    private static boolean isPolicyRelated(Class<?> type) {
+        return type != null && (Policy.class.isAssignableFrom(type) || Header.class.isAssignableFrom(type)
+                || Module.class.isAssignableFrom(type));
+    }
+}
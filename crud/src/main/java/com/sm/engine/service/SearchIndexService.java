@@ -0,0 +1,240 @@
+package com.sm.engine.service;
+
+import com.sm.engine.config.SearchConfig;
+import com.sm.engine.domain.IdentifiableDocument;
+import com.sm.engine.domain.Searchable;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Example;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.BeforeSaveEvent;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The service keeps the search text of searchable documents indexed as n-gram tokens.
+ * All substrings of the lower case text up to the n-gram length are stored in an indexed field on write.
+ * A substring search then requires all n-grams of the searched text, so only the documents found by the index
+ * are matched by the regular expression of the search example instead of the whole collection.
+ * The documents saved without search tokens are indexed in the background once the application is ready,
+ * until a collection is fully indexed its searches match the regular expression alone so no document is missed.
+ */
+@Service
+public class SearchIndexService extends AbstractMongoEventListener<IdentifiableDocument> {
+
+    /**
+     * The field of the search tokens.
+     */
+    public static final String TOKENS_FIELD = "searchTokens";
+
+    /**
+     * The n-gram length.
+     */
+    private static final int GRAM_LENGTH = 3;
+
+    /**
+     * The logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(SearchIndexService.class);
+
+    /**
+     * The mongo operations.
+     */
+    @Autowired
+    private MongoOperations mongoOperations;
+
+    /**
+     * The search config.
+     */
+    @Autowired
+    private SearchConfig config;
+
+    /**
+     * The searchable document types.
+     */
+    private final List<Class<?>> types = new ArrayList<>();
+
+    /**
+     * The document types fully indexed, searched with the search tokens.
+     */
+    private final Set<Class<?>> indexedTypes = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The executor to index the documents saved without search tokens.
+     */
+    private ExecutorService loadExecutor;
+
+    /**
+     * Ensure the search token indexes of the searchable document types.
+     */
+    @PostConstruct
+    public void init() {
+        for (MongoPersistentEntity<?> entity : mongoOperations.getConverter().getMappingContext()
+                .getPersistentEntities()) {
+            Class<?> type = entity.getType();
+            if (!Searchable.class.isAssignableFrom(type) || Modifier.isAbstract(type.getModifiers())) {
+                continue;
+            }
+            mongoOperations.indexOps(type).ensureIndex(new Index().on(TOKENS_FIELD, Sort.Direction.ASC)
+                    .named(TOKENS_FIELD));
+            types.add(type);
+        }
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("search-index-load-");
+        threadFactory.setDaemon(true);
+        loadExecutor = Executors.newSingleThreadExecutor(threadFactory);
+    }
+
+    /**
+     * Index the documents saved without search tokens in the background once the application is ready.
+     *
+     * @param event the application ready event
+     */
+    @EventListener
+    public void onApplicationReady(ApplicationReadyEvent event) {
+        loadExecutor.execute(() -> {
+            try {
+                load();
+            } catch (RuntimeException ex) {
+                LOG.error("Error happened during indexing search tokens", ex);
+            }
+        });
+    }
+
+    /**
+     * Shutdown the load executor.
+     */
+    @PreDestroy
+    public void destroy() {
+        loadExecutor.shutdownNow();
+    }
+
+    /**
+     * Index the documents saved without search tokens in id order by batches of bulk updates.
+     * Each document type is searched with the search tokens once all its documents are indexed.
+     */
+    public synchronized void load() {
+        for (Class<?> type : types) {
+            long count = 0;
+            String lastId = null;
+            while (!Thread.currentThread().isInterrupted()) {
+                Criteria criteria = Criteria.where(TOKENS_FIELD).exists(false);
+                if (lastId != null) {
+                    // ids are stored as object ids if valid, range queries do not convert them
+                    criteria = criteria.and("id").gt(ObjectId.isValid(lastId) ? new ObjectId(lastId) : lastId);
+                }
+                List<?> documents = mongoOperations.find(new Query(criteria)
+                        .with(new Sort(Sort.Direction.ASC, "id")).limit(config.getIndexBatchSize()), type);
+                if (documents.isEmpty()) {
+                    indexedTypes.add(type);
+                    break;
+                }
+                BulkOperations operations = mongoOperations.bulkOps(BulkOperations.BulkMode.UNORDERED, type);
+                for (Object document : documents) {
+                    lastId = ((IdentifiableDocument) document).getId();
+                    operations.updateOne(new Query(Criteria.where("id").is(lastId)),
+                            Update.update(TOKENS_FIELD, tokenize(((Searchable) document).searchText())));
+                }
+                operations.execute();
+                count += documents.size();
+            }
+            if (count > 0) {
+                LOG.info("Indexed search tokens of {} {} documents", count, type.getSimpleName());
+            }
+        }
+    }
+
+    /**
+     * Store the search tokens of a searchable document before it is saved.
+     *
+     * @param event the before save event
+     */
+    @Override
+    public void onBeforeSave(BeforeSaveEvent<IdentifiableDocument> event) {
+        if (event.getSource() instanceof Searchable) {
+            event.getDBObject().put(TOKENS_FIELD, tokenize(((Searchable) event.getSource()).searchText()));
+        }
+    }
+
+    /**
+     * Create the criteria of the search example.
+     * The search text of a searchable probe is searched by substring with the search tokens,
+     * or with the regular expression alone while the documents are not fully indexed.
+     *
+     * @param example the search example, with the search text matched by substring if searchable
+     * @return the criteria
+     */
+    public Criteria byExample(Example<?> example) {
+        Criteria criteria = Criteria.byExample(example);
+        if (!(example.getProbe() instanceof Searchable)) {
+            return criteria;
+        }
+        String text = ((Searchable) example.getProbe()).searchText();
+        if (text == null || text.isEmpty() || !indexedTypes.contains(example.getProbeType())) {
+            return criteria;
+        }
+        return new Criteria().andOperator(Criteria.where(TOKENS_FIELD).all(queryTokens(text)), criteria);
+    }
+
+    /**
+     * Tokenize the search text into all its distinct n-grams up to the n-gram length.
+     *
+     * @param text the search text, may be null
+     * @return the tokens
+     */
+    private static List<String> tokenize(String text) {
+        if (text == null) {
+            return Collections.emptyList();
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        Set<String> tokens = new LinkedHashSet<>();
+        for (int length = 1; length <= GRAM_LENGTH; length++) {
+            for (int i = 0; i + length <= lower.length(); i++) {
+                tokens.add(lower.substring(i, i + length));
+            }
+        }
+        return new ArrayList<>(tokens);
+    }
+
+    /**
+     * Gets the tokens a text containing the searched text has.
+     *
+     * @param text the searched text
+     * @return the searched text if not longer than the n-gram length, otherwise its distinct n-grams
+     */
+    private static List<String> queryTokens(String text) {
+        String lower = text.toLowerCase(Locale.ROOT);
+        if (lower.length() <= GRAM_LENGTH) {
+            return Collections.singletonList(lower);
+        }
+        Set<String> tokens = new LinkedHashSet<>();
+        for (int i = 0; i + GRAM_LENGTH <= lower.length(); i++) {
+            tokens.add(lower.substring(i, i + GRAM_LENGTH));
+        }
+        return new ArrayList<>(tokens);
+    }
+}
@@ -0,0 +1,117 @@
+package com.sm.engine.service;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.client.model.DBCollectionCountOptions;
+import com.sm.engine.config.SearchConfig;
+import com.sm.engine.domain.IdentifiableDocument;
+import com.sm.engine.domain.support.SearchResult;
+import com.sm.engine.domain.support.TotalMode;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Example;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoExampleMapper;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The service searches documents by page with the total counted exactly, estimated or not at all.
+ * Searchable documents are searched by substring with the search index.
+ * The exact count runs the search filter over all matching documents, which often costs more than the page.
+ * The estimated total of an unfiltered search is the collection count from the collection stats, the one of
+ * a filtered search is counted up to a limit. Whether there are more records is known by fetching one more record.
+ */
+@Service
+public class SearchTotalService {
+
+    /**
+     * The type key of documents in mongo.
+     */
+    private static final String TYPE_KEY = "_class";
+
+    /**
+     * The mongo operations.
+     */
+    @Autowired
+    private MongoOperations mongoOperations;
+
+    /**
+     * The search config.
+     */
+    @Autowired
+    private SearchConfig searchConfig;
+
+    /**
+     * The search index service.
+     */
+    @Autowired
+    private SearchIndexService searchIndexService;
+
+    /**
+     * Search documents matching the example by page with the total counted in the mode.
+     *
+     * @param example   the search example
+     * @param pageable  the pageable request, all records if null and the total is exact
+     * @param totalMode the total mode
+     * @param <T>       the document type
+     * @return the records with the total and whether there are more records if the total is not exact
+     */
+    public <T extends IdentifiableDocument> SearchResult<T> search(Example<T> example, Pageable pageable,
+                                                                   TotalMode totalMode) {
+        Criteria criteria = searchIndexService.byExample(example);
+        if (totalMode == TotalMode.EXACT) {
+            List<T> records = mongoOperations.find(new Query(criteria).with(pageable), example.getProbeType());
+            if (pageable == null || pageable.getOffset() == 0 && records.size() < pageable.getPageSize()) {
+                // all records found
+                return new SearchResult<>(records.size(), records);
+            }
+            return new SearchResult<>(mongoOperations.count(new Query(criteria), example.getProbeType()), records);
+        }
+        Query query = new Query(criteria).with(pageable).limit(pageable.getPageSize() + 1);
+        List<T> records = new ArrayList<>(mongoOperations.find(query, example.getProbeType()));
+        SearchResult<T> result = new SearchResult<>();
+        result.setHasMore(records.size() > pageable.getPageSize());
+        if (result.getHasMore()) {
+            records.remove(records.size() - 1);
+        }
+        result.setRecords(records);
+        result.setTotalMode(totalMode);
+        result.setTotal(count(example, totalMode));
+        return result;
+    }
+
+    /**
+     * Count the documents matching the example in the mode.
+     *
+     * @param example   the search example
+     * @param totalMode the total mode
+     * @return the total, null if the mode is none
+     */
+    public Long count(Example<?> example, TotalMode totalMode) {
+        Criteria criteria = searchIndexService.byExample(example);
+        if (totalMode == TotalMode.EXACT) {
+            return mongoOperations.count(new Query(criteria), example.getProbeType());
+        }
+        if (totalMode == TotalMode.ESTIMATED) {
+            MongoConverter converter = mongoOperations.getConverter();
+            // a collection holds one document type
+            BasicDBObject conditions = new BasicDBObject(
+                    new MongoExampleMapper(converter).getMappedExample(example).toMap());
+            conditions.remove(TYPE_KEY);
+            DBObject filter = new QueryMapper(converter).getMappedObject(criteria.getCriteriaObject(),
+                    converter.getMappingContext().getPersistentEntity(example.getProbeType()));
+            return mongoOperations.execute(example.getProbeType(), collection -> conditions.isEmpty()
+                    ? collection.getCount()
+                    : collection.count(filter,
+                    new DBCollectionCountOptions().limit(searchConfig.getEstimatedCountLimit())));
+        }
+        return null;
+    }
+}
@@ -0,0 +1,561 @@
+package com.sm.engine.service;
+
+import com.sm.engine.config.JwtConfig;
+import com.sm.engine.domain.SigningKey;
+import com.sm.engine.repository.SigningKeyRepository;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.SignatureException;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * The service manages the asymmetric keys tokens are signed with.
+ * Keys are persisted so all instances sign and verify with the same keys. A new key replaces the signing key
+ * after the key rotation interval, replaced keys are still used to verify tokens until all the tokens
+ * signed with them are expired. The public keys are published as a JSON web key set.
+ * Private keys are stored encrypted with AES-GCM under the configured encryption key, keys stored before
+ * encryption are encrypted when loaded.
+ */
+@Service
+public class SigningKeyService {
+
+    /**
+     * The logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(SigningKeyService.class);
+
+    /**
+     * The max interval in milliseconds between key rotation checks.
+     */
+    private static final long MAX_ROTATION_CHECK_INTERVAL = 3600000;
+
+    /**
+     * The min interval in milliseconds between key reloads for unknown key ids.
+     */
+    private static final long MIN_RELOAD_INTERVAL = 1000;
+
+    /**
+     * The pattern of key ids, keys are created with random UUIDs.
+     */
+    private static final Pattern KEY_ID_PATTERN =
+            Pattern.compile("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}");
+
+    /**
+     * The RSA key size in bits.
+     */
+    private static final int RSA_KEY_SIZE = 2048;
+
+    /**
+     * The AES-GCM transformation private keys are encrypted with.
+     */
+    private static final String CIPHER_TRANSFORMATION = "AES/GCM/NoPadding";
+
+    /**
+     * The AES-GCM IV length in bytes.
+     */
+    private static final int IV_LENGTH = 12;
+
+    /**
+     * The AES-GCM authentication tag length in bits.
+     */
+    private static final int TAG_LENGTH = 128;
+
+    /**
+     * The signing key repository.
+     */
+    @Autowired
+    private SigningKeyRepository signingKeyRepository;
+
+    /**
+     * The jwt config.
+     */
+    @Autowired
+    private JwtConfig jwtConfig;
+
+    /**
+     * The random generator of IVs.
+     */
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * The key private keys are encrypted with.
+     */
+    private SecretKey encryptionKey;
+
+    /**
+     * The keys not expired by key id.
+     */
+    private volatile Map<String, LoadedKey> keys = Collections.emptyMap();
+
+    /**
+     * The time of last key reload.
+     */
+    private final AtomicLong lastReload = new AtomicLong();
+
+    /**
+     * The executor to rotate keys.
+     */
+    private final ScheduledExecutorService rotationExecutor =
+            Executors.newSingleThreadScheduledExecutor(createThreadFactory());
+
+    /**
+     * Load the keys and schedule the key rotation checks.
+     */
+    @PostConstruct
+    public void init() {
+        encryptionKey = buildEncryptionKey();
+        reload();
+        long interval = getRotationCheckInterval();
+        rotationExecutor.scheduleWithFixedDelay(this::checkRotation, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the key rotation on shutdown.
+     */
+    @PreDestroy
+    public void destroy() {
+        rotationExecutor.shutdownNow();
+    }
+
+    /**
+     * Gets the key to sign tokens with, a key is created if there is no key of the algorithm.
+     *
+     * @param algorithm the asymmetric signature algorithm
+     * @return the key
+     * @throws IllegalArgumentException throws if the algorithm is not asymmetric
+     */
+    public LoadedKey getSigningKey(SignatureAlgorithm algorithm) {
+        LoadedKey key = findCurrentKey(algorithm);
+        if (key == null) {
+            synchronized (this) {
+                key = findCurrentKey(algorithm);
+                if (key == null) {
+                    key = rotate(algorithm);
+                }
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Gets the public key to verify tokens signed with the key id.
+     * The keys are loaded again if the key id is unknown, it may be created by another instance.
+     * Unknown key ids are not trusted yet, so only key ids of the created format reload the keys,
+     * by one caller at most once per min reload interval.
+     *
+     * @param keyId     the key id
+     * @param algorithm the signature algorithm of the token
+     * @return the public key
+     * @throws SignatureException throws if no key of the algorithm with the key id
+     */
+    public PublicKey getVerificationKey(String keyId, SignatureAlgorithm algorithm) {
+        LoadedKey key = getUnexpiredKey(keyId);
+        if (key == null && keyId != null && KEY_ID_PATTERN.matcher(keyId).matches()) {
+            long last = lastReload.get();
+            long now = System.currentTimeMillis();
+            if (now - last >= MIN_RELOAD_INTERVAL && lastReload.compareAndSet(last, now)) {
+                reload();
+                key = getUnexpiredKey(keyId);
+            }
+        }
+        if (key == null || key.algorithm != algorithm) {
+            throw new SignatureException(String.format("Signing key '%s' of algorithm %s not found",
+                    keyId, algorithm));
+        }
+        return key.publicKey;
+    }
+
+    /**
+     * Whether the key still verifies tokens, the keys are not loaded again.
+     *
+     * @param keyId the key id
+     * @return true if the key is loaded and not expired
+     */
+    public boolean isVerificationKey(String keyId) {
+        return getUnexpiredKey(keyId) != null;
+    }
+
+    /**
+     * Gets the public keys not expired as JSON web keys, the newest first.
+     *
+     * @return the JSON web keys
+     */
+    public List<Map<String, Object>> getJwks() {
+        return keys.values().stream()
+                .sorted(Comparator.comparing((LoadedKey key) -> key.createdAt).reversed())
+                .map(SigningKeyService::toJwk)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Create a new signing key of the algorithm and retire the current signing keys.
+     * Other instances sign with a retired key until their next rotation check, so retired keys expire
+     * after the tokens signed by then.
+     *
+     * @param algorithm the asymmetric signature algorithm
+     * @return the new key
+     * @throws IllegalArgumentException throws if the algorithm is not asymmetric
+     */
+    public synchronized LoadedKey rotate(SignatureAlgorithm algorithm) {
+        KeyPair keyPair = generateKeyPair(algorithm);
+        Date now = new Date();
+        for (SigningKey current : signingKeyRepository.findByRetiredAtIsNull()) {
+            current.setRetiredAt(now);
+            current.setExpiresAt(new Date(now.getTime() + getRotationCheckInterval()
+                    + jwtConfig.getExpirationTime()));
+            signingKeyRepository.save(current);
+        }
+        SigningKey key = new SigningKey(algorithm.getValue(), encrypt(keyPair.getPrivate().getEncoded()), true,
+                Base64.getEncoder().encodeToString(keyPair.getPublic().getEncoded()), null, null);
+        key.setId(UUID.randomUUID().toString());
+        key.setCreatedAt(now);
+        signingKeyRepository.insert(key);
+        LOG.info("Created signing key '{}' of algorithm {}", key.getId(), algorithm);
+        reload();
+        return keys.get(key.getId());
+    }
+
+    /**
+     * Rotate the signing key if it is older than the key rotation interval and remove the expired keys.
+     */
+    private void checkRotation() {
+        try {
+            SignatureAlgorithm algorithm = jwtConfig.getSignatureAlgorithm();
+            if (!algorithm.isHmac()) {
+                // another instance may have rotated
+                reload();
+                LoadedKey key = findCurrentKey(algorithm);
+                if (key == null
+                        || key.createdAt.getTime() + jwtConfig.getKeyRotationInterval() <= System.currentTimeMillis()) {
+                    rotate(algorithm);
+                }
+            }
+            signingKeyRepository.deleteByExpiresAtBefore(new Date());
+        } catch (RuntimeException e) {
+            LOG.error("Failed to rotate signing keys", e);
+        }
+    }
+
+    /**
+     * Load the keys not expired, the keys not encrypted yet are encrypted.
+     */
+    private synchronized void reload() {
+        Date now = new Date();
+        Map<String, LoadedKey> loaded = new HashMap<>();
+        for (SigningKey key : signingKeyRepository.findAll()) {
+            if (key.getExpiresAt() == null || key.getExpiresAt().after(now)) {
+                if (!key.isEncrypted()) {
+                    key.setPrivateKey(encrypt(Base64.getDecoder().decode(key.getPrivateKey())));
+                    key.setEncrypted(true);
+                    signingKeyRepository.save(key);
+                    LOG.info("Encrypted signing key '{}'", key.getId());
+                }
+                loaded.put(key.getId(), load(key));
+            }
+        }
+        keys = loaded;
+        lastReload.set(now.getTime());
+    }
+
+    /**
+     * Gets the interval in milliseconds between key rotation checks.
+     *
+     * @return the key rotation interval, at most the max rotation check interval
+     */
+    private long getRotationCheckInterval() {
+        return Math.min(jwtConfig.getKeyRotationInterval(), MAX_ROTATION_CHECK_INTERVAL);
+    }
+
+    /**
+     * Gets the loaded key if not expired since loaded.
+     *
+     * @param keyId the key id
+     * @return the key, null if not loaded or expired
+     */
+    private LoadedKey getUnexpiredKey(String keyId) {
+        LoadedKey key = keyId == null ? null : keys.get(keyId);
+        if (key == null || key.expiresAt != null && !key.expiresAt.after(new Date())) {
+            return null;
+        }
+        return key;
+    }
+
+    /**
+     * Find the newest key of the algorithm not retired.
+     *
+     * @param algorithm the signature algorithm
+     * @return the key, null if not found
+     */
+    private LoadedKey findCurrentKey(SignatureAlgorithm algorithm) {
+        return keys.values().stream()
+                .filter(key -> key.algorithm == algorithm && !key.retired)
+                .max(Comparator.comparing(key -> key.createdAt))
+                .orElse(null);
+    }
+
+    /**
+     * Decode the key pair of the encrypted signing key document.
+     *
+     * @param key the signing key document
+     * @return the loaded key
+     */
+    private LoadedKey load(SigningKey key) {
+        SignatureAlgorithm algorithm = SignatureAlgorithm.forName(key.getAlgorithm());
+        Base64.Decoder decoder = Base64.getDecoder();
+        try {
+            KeyFactory keyFactory = KeyFactory.getInstance(algorithm.isRsa() ? "RSA" : "EC");
+            return new LoadedKey(key.getId(), algorithm,
+                    keyFactory.generatePrivate(new PKCS8EncodedKeySpec(decrypt(key.getPrivateKey()))),
+                    keyFactory.generatePublic(new X509EncodedKeySpec(decoder.decode(key.getPublicKey()))),
+                    key.getCreatedAt(), key.getRetiredAt() != null, key.getExpiresAt());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(String.format("Invalid signing key '%s'", key.getId()), e);
+        }
+    }
+
+    /**
+     * Build the AES key private keys are encrypted with from the configured encryption key or the secret.
+     *
+     * @return the AES key
+     * @throws IllegalStateException throws if the configured encryption key is not a valid AES key
+     */
+    private SecretKey buildEncryptionKey() {
+        byte[] key;
+        if (jwtConfig.getSigningKeyEncryptionKey() == null || jwtConfig.getSigningKeyEncryptionKey().isEmpty()) {
+            try {
+                key = MessageDigest.getInstance("SHA-256")
+                        .digest(jwtConfig.getSecret().getBytes(StandardCharsets.UTF_8));
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Failed to derive signing key encryption key", e);
+            }
+        } else {
+            key = Base64.getDecoder().decode(jwtConfig.getSigningKeyEncryptionKey());
+            if (key.length != 16 && key.length != 24 && key.length != 32) {
+                throw new IllegalStateException("Signing key encryption key must be of 16, 24 or 32 bytes");
+            }
+        }
+        return new SecretKeySpec(key, "AES");
+    }
+
+    /**
+     * Encrypt the private key with a random IV.
+     *
+     * @param privateKey the encoded private key
+     * @return the base64 encoded IV and encrypted private key
+     */
+    private String encrypt(byte[] privateKey) {
+        byte[] iv = new byte[IV_LENGTH];
+        random.nextBytes(iv);
+        try {
+            Cipher cipher = Cipher.getInstance(CIPHER_TRANSFORMATION);
+            cipher.init(Cipher.ENCRYPT_MODE, encryptionKey, new GCMParameterSpec(TAG_LENGTH, iv));
+            byte[] encrypted = cipher.doFinal(privateKey);
+            byte[] result = Arrays.copyOf(iv, IV_LENGTH + encrypted.length);
+            System.arraycopy(encrypted, 0, result, IV_LENGTH, encrypted.length);
+            return Base64.getEncoder().encodeToString(result);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to encrypt signing key", e);
+        }
+    }
+
+    /**
+     * Decrypt the private key.
+     *
+     * @param privateKey the base64 encoded IV and encrypted private key
+     * @return the encoded private key
+     * @throws GeneralSecurityException throws if the private key is not encrypted with the encryption key
+     */
+    private byte[] decrypt(String privateKey) throws GeneralSecurityException {
+        byte[] bytes = Base64.getDecoder().decode(privateKey);
+        Cipher cipher = Cipher.getInstance(CIPHER_TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, encryptionKey, new GCMParameterSpec(TAG_LENGTH, bytes, 0, IV_LENGTH));
+        return cipher.doFinal(bytes, IV_LENGTH, bytes.length - IV_LENGTH);
+    }
+
+    /**
+     * Generate a key pair of the signature algorithm.
+     *
+     * @param algorithm the signature algorithm
+     * @return the key pair
+     * @throws IllegalArgumentException throws if the algorithm is not asymmetric
+     */
+    private static KeyPair generateKeyPair(SignatureAlgorithm algorithm) {
+        try {
+            KeyPairGenerator generator;
+            if (algorithm.isRsa()) {
+                generator = KeyPairGenerator.getInstance("RSA");
+                generator.initialize(RSA_KEY_SIZE);
+            } else if (algorithm.isEllipticCurve()) {
+                generator = KeyPairGenerator.getInstance("EC");
+                generator.initialize(new ECGenParameterSpec(getCurve(algorithm)[0]));
+            } else {
+                throw new IllegalArgumentException(String.format("Signature algorithm %s is not asymmetric",
+                        algorithm));
+            }
+            return generator.generateKeyPair();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(String.format("Failed to generate key pair of %s", algorithm), e);
+        }
+    }
+
+    /**
+     * Gets the JCA name and the JSON web key name of the curve of the elliptic curve algorithm.
+     *
+     * @param algorithm the elliptic curve signature algorithm
+     * @return the JCA name and the JSON web key name
+     */
+    private static String[] getCurve(SignatureAlgorithm algorithm) {
+        switch (algorithm) {
+            case ES256:
+                return new String[]{"secp256r1", "P-256"};
+            case ES384:
+                return new String[]{"secp384r1", "P-384"};
+            default:
+                return new String[]{"secp521r1", "P-521"};
+        }
+    }
+
+    /**
+     * Convert the public key to JSON web key.
+     *
+     * @param key the key
+     * @return the JSON web key
+     */
+    private static Map<String, Object> toJwk(LoadedKey key) {
+        Map<String, Object> jwk = new LinkedHashMap<>();
+        jwk.put("kid", key.id);
+        jwk.put("use", "sig");
+        jwk.put("alg", key.algorithm.getValue());
+        if (key.publicKey instanceof RSAPublicKey) {
+            RSAPublicKey publicKey = (RSAPublicKey) key.publicKey;
+            jwk.put("kty", "RSA");
+            jwk.put("n", encodeUnsigned(publicKey.getModulus(), 0));
+            jwk.put("e", encodeUnsigned(publicKey.getPublicExponent(), 0));
+        } else {
+            ECPublicKey publicKey = (ECPublicKey) key.publicKey;
+            int length = (publicKey.getParams().getCurve().getField().getFieldSize() + 7) / 8;
+            jwk.put("kty", "EC");
+            jwk.put("crv", getCurve(key.algorithm)[1]);
+            jwk.put("x", encodeUnsigned(publicKey.getW().getAffineX(), length));
+            jwk.put("y", encodeUnsigned(publicKey.getW().getAffineY(), length));
+        }
+        return jwk;
+    }
+
+    /**
+     * Encode the unsigned big endian bytes of the integer as base64url without padding.
+     *
+     * @param value  the integer
+     * @param length the min length in bytes, left padded with zeros
+     * @return the encoded integer
+     */
+    private static String encodeUnsigned(BigInteger value, int length) {
+        byte[] bytes = value.toByteArray();
+        if (bytes.length > 1 && bytes[0] == 0) {
+            bytes = Arrays.copyOfRange(bytes, 1, bytes.length);
+        }
+        if (bytes.length < length) {
+            byte[] padded = new byte[length];
+            System.arraycopy(bytes, 0, padded, length - bytes.length, bytes.length);
+            bytes = padded;
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * Create the daemon thread factory of rotation executor.
+     *
+     * @return the thread factory
+     */
+    private static CustomizableThreadFactory createThreadFactory() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("signing-key-rotation-");
+        threadFactory.setDaemon(true);
+        return threadFactory;
+    }
+
+    /**
+     * The decoded signing key.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class LoadedKey {
+
+        /**
+         * The key id.
+         */
+        private final String id;
+
+        /**
+         * The signature algorithm.
+         */
+        private final SignatureAlgorithm algorithm;
+
+        /**
+         * The private key.
+         */
+        private final PrivateKey privateKey;
+
+        /**
+         * The public key.
+         */
+        private final PublicKey publicKey;
+
+        /**
+         * The created time.
+         */
+        private final Date createdAt;
+
+        /**
+         * Whether the key is replaced by a new key.
+         */
+        private final boolean retired;
+
+        /**
+         * The expiration time, null if not retired.
+         */
+        private final Date expiresAt;
+    }
+}
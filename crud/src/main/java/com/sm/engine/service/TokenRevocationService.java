@@ -0,0 +1,158 @@
+package com.sm.engine.service;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.sm.engine.config.JwtConfig;
+import com.sm.engine.domain.TokenRevocation;
+import com.sm.engine.repository.TokenRevocationRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The service keeps the token revocations of users in memory so tokens are checked without the database.
+ * A bloom filter of the revoked usernames answers most checks, the exact revocation times are read only
+ * for the usernames it might contain. The revocations are persisted and loaded again at startup and
+ * periodically, so revocations of other instances are picked up.
+ * Revocation and issue times are compared in milliseconds so a token issued right after a revocation is valid.
+ */
+@Service
+public class TokenRevocationService {
+
+    /**
+     * The logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(TokenRevocationService.class);
+
+    /**
+     * The false positive probability of the bloom filter.
+     */
+    private static final double FALSE_POSITIVE_PROBABILITY = 0.01;
+
+    /**
+     * The token revocation repository.
+     */
+    @Autowired
+    private TokenRevocationRepository tokenRevocationRepository;
+
+    /**
+     * The jwt config.
+     */
+    @Autowired
+    private JwtConfig jwtConfig;
+
+    /**
+     * The revocation times in milliseconds by username.
+     */
+    private volatile Map<String, Long> revocations = new ConcurrentHashMap<>();
+
+    /**
+     * The bloom filter of the revoked usernames.
+     */
+    private volatile BloomFilter<CharSequence> filter;
+
+    /**
+     * The expected number of usernames of the bloom filter.
+     */
+    private long filterCapacity;
+
+    /**
+     * The executor to load the revocations periodically.
+     */
+    private ScheduledExecutorService reloadExecutor;
+
+    /**
+     * Load the revocations and schedule the periodic reloads.
+     */
+    @PostConstruct
+    public void init() {
+        load();
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("token-revocation-reload-");
+        threadFactory.setDaemon(true);
+        reloadExecutor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        reloadExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                load();
+            } catch (RuntimeException ex) {
+                LOG.error("Error happened during reloading token revocations", ex);
+            }
+        }, jwtConfig.getRevocationReloadInterval(), jwtConfig.getRevocationReloadInterval(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Shutdown the reload executor.
+     */
+    @PreDestroy
+    public void destroy() {
+        reloadExecutor.shutdownNow();
+    }
+
+    /**
+     * Load the revocations not expired, the revocations in use are replaced once loaded.
+     */
+    public synchronized void load() {
+        Map<String, Long> loaded = new ConcurrentHashMap<>();
+        tokenRevocationRepository.findByExpiresAtAfter(new Date()).forEach(revocation ->
+                loaded.put(revocation.getId(), revocation.getRevokedAt().getTime()));
+        rebuildFilter(loaded);
+        revocations = loaded;
+    }
+
+    /**
+     * Revoke the tokens of the user issued until now.
+     *
+     * @param username the username
+     */
+    public synchronized void revoke(String username) {
+        long now = System.currentTimeMillis();
+        TokenRevocation revocation = new TokenRevocation(new Date(now), new Date(now + jwtConfig.getExpirationTime()));
+        revocation.setId(username);
+        tokenRevocationRepository.save(revocation);
+        revocations.put(username, now);
+        if (revocations.size() > filterCapacity) {
+            rebuildFilter(revocations);
+        } else {
+            filter.put(username);
+        }
+    }
+
+    /**
+     * Check whether the token of the user is revoked, it is if issued before the revocation.
+     *
+     * @param username the username
+     * @param issuedAt the issue time of token, null if unknown
+     * @return true if the token is revoked
+     */
+    public boolean isRevoked(String username, Date issuedAt) {
+        if (!filter.mightContain(username)) {
+            return false;
+        }
+        Long revokedAt = revocations.get(username);
+        return revokedAt != null && (issuedAt == null || issuedAt.getTime() < revokedAt);
+    }
+
+    /**
+     * Build the bloom filter of the revoked usernames, sized for the revocations.
+     *
+     * @param revoked the revocation times by username
+     */
+    private void rebuildFilter(Map<String, Long> revoked) {
+        filterCapacity = Math.max(jwtConfig.getRevocationFilterSize(), revoked.size() * 2L);
+        BloomFilter<CharSequence> rebuilt = BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8),
+                filterCapacity, FALSE_POSITIVE_PROBABILITY);
+        revoked.keySet().forEach(rebuilt::put);
+        filter = rebuilt;
+    }
+}
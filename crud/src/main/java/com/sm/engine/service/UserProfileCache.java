@@ -0,0 +1,104 @@
+package com.sm.engine.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.sm.engine.config.UserProfileCacheConfig;
+import com.sm.engine.domain.LdapUser;
+import lombok.AllArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cache of ldap user profiles by username.
+ * A profile keeps the user dn and the attributes fetched so far, it is fetched again with more attributes
+ * when an evaluation needs attributes the profile does not have.
+ * Profiles fetched by a replaced ldap service are never read.
+ */
+@Service
+public class UserProfileCache {
+
+    /**
+     * The user profile cache config.
+     */
+    @Autowired
+    private UserProfileCacheConfig config;
+
+    /**
+     * The cached user profiles, null if user profiles are not cached.
+     */
+    private Cache<String, Entry> cache;
+
+    /**
+     * Build the cache with the configured ttl and max size.
+     */
+    @PostConstruct
+    public void init() {
+        if (config.getTtl() > 0) {
+            cache = Caffeine.newBuilder()
+                    .expireAfterWrite(config.getTtl(), TimeUnit.MILLISECONDS)
+                    .maximumSize(config.getMaxSize())
+                    .build();
+        }
+    }
+
+    /**
+     * Gets the cached profile of the user if it has all the attributes,
+     * or searches the user with the attributes and caches the profile.
+     *
+     * @param ldapService the ldap service
+     * @param username    the username
+     * @param attributes  the attributes to fetch
+     * @return the user profile, null if no unique user found
+     */
+    public LdapUser get(LdapService ldapService, String username, String[] attributes) {
+        if (cache == null) {
+            return ldapService.findUser(username, attributes);
+        }
+        Entry entry = cache.getIfPresent(username);
+        Set<String> names = new LinkedHashSet<>(Arrays.asList(attributes));
+        if (entry != null && entry.ldapService == ldapService) {
+            if (entry.user.getAttributes().keySet().containsAll(names)) {
+                return entry.user;
+            }
+            // fetch the attributes already cached too so the profile only grows
+            names.addAll(entry.user.getAttributes().keySet());
+        }
+        LdapUser user = ldapService.findUser(username, names.toArray(new String[0]));
+        if (user != null) {
+            cache.put(username, new Entry(ldapService, user));
+        }
+        return user;
+    }
+
+    /**
+     * Discards all cached user profiles.
+     */
+    public void invalidate() {
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    /**
+     * The user profile with the ldap service it was fetched by.
+     */
+    @AllArgsConstructor
+    private static class Entry {
+
+        /**
+         * The ldap service.
+         */
+        private final LdapService ldapService;
+
+        /**
+         * The user profile.
+         */
+        private final LdapUser user;
+    }
+}
@@ -25,6 +25,12 @@ public class UserService extends BaseService<User, UserSearchCriteria> {
     @Autowired
     private UserRepository userRepository;
 
+    /**
+     * The token revocation service.
+     */
+    @Autowired
+    private TokenRevocationService tokenRevocationService;
+
     /**
      * Find user document by username.
      *
@@ -37,6 +43,38 @@ public class UserService extends BaseService<User, UserSearchCriteria> {
         return userRepository.findByUsername(username);
     }
 
+    /**
+     * Updates an existing user and revokes the tokens of the user issued before.
+     * The tokens are revoked before the write so no token outlives the change, and again after it so tokens
+     * issued while writing are revoked too.
+     *
+     * @param id       the document id
+     * @param document the document to update
+     * @return the updated document
+     */
+    @Override
+    public User update(String id, User document) {
+        String username = get(id).getUsername();
+        tokenRevocationService.revoke(username);
+        User updated = super.update(id, document);
+        tokenRevocationService.revoke(username);
+        return updated;
+    }
+
+    /**
+     * Deletes a user by id and revokes the tokens of the user issued before.
+     * The tokens are revoked before the delete so no token outlives the user, and again after it so tokens
+     * issued while deleting are revoked too.
+     *
+     * @param id the document id
+     */
+    @Override
+    public void delete(String id) {
+        String username = get(id).getUsername();
+        tokenRevocationService.revoke(username);
+        super.delete(id);
+        tokenRevocationService.revoke(username);
+    }
 
     /**
      * Creates the search example instance.
@@ -1,24 +1,27 @@
 package com.sm.engine.utils;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.sm.engine.config.LdapConfig;
+import com.sm.engine.domain.ActivityLogChange;
 import com.sm.engine.domain.Header;
 import com.sm.engine.domain.HeaderType;
 import com.sm.engine.domain.LdapConfiguration;
 import com.sm.engine.domain.User;
-import com.sm.engine.domain.support.LdapConfigurationSearchCriteria;
-import com.sm.engine.domain.support.SearchResult;
-import com.sm.engine.exception.NotFoundException;
 import com.sm.engine.service.Impl.LdapServiceImpl;
-import com.sm.engine.service.LdapConfigurationService;
 import com.sm.engine.service.LdapService;
 import lombok.NoArgsConstructor;
 import org.springframework.beans.BeanUtils;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Sort;
 import org.springframework.ldap.query.SearchScope;
 import org.springframework.security.authentication.DisabledException;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import static lombok.AccessLevel.PRIVATE;
 
 /**
@@ -26,6 +29,15 @@ import static lombok.AccessLevel.PRIVATE;
  */
 @NoArgsConstructor(access = PRIVATE)
 public class Helper {
+    /**
+     * The field identifying the objects of arrays compared by key.
+     */
+    private static final String ID_FIELD = "id";
+
+    /**
+     * The max number of item pairs compared to find the items kept in an array, the array is replaced if exceeded.
+     */
+    private static final long MAX_ARRAY_COMPARISONS = 1000000;
     /**
      * The true value for static header type
      */
@@ -77,23 +89,12 @@ public class Helper {
     }
 
     /**
-     * Build ldap service with enabled ldap configurations.
+     * Build ldap service with the ldap configuration.
      *
-     * @param ldapConfigurationService the ldap configuration service
-     * @return the ldap service with enabled ldap configurations.
-     * @throws NotFoundException throws if no enabled ldap configuration.
+     * @param config the ldap configuration
+     * @return the ldap service with the ldap configuration.
      */
-    public static LdapService buildLdapService(LdapConfigurationService ldapConfigurationService) {
-        LdapConfigurationSearchCriteria criteria = new LdapConfigurationSearchCriteria();
-        criteria.setEnabled(true);
-        // use latest enabled ldap configuration
-        SearchResult<LdapConfiguration> configs = ldapConfigurationService.search(criteria,
-                new PageRequest(0, 1, Sort.Direction.DESC, "lastModifiedAt"));
-        if (configs.getRecords().isEmpty()) {
-            throw new NotFoundException("There is no enabled ldap configuration");
-        }
-
-        LdapConfiguration config = configs.getRecords().get(0);
+    public static LdapService buildLdapService(LdapConfiguration config) {
         LdapConfig conf = new LdapConfig();
         BeanUtils.copyProperties(config, conf);
         conf.setSearchScope(SearchScope.SUBTREE);
@@ -115,4 +116,166 @@ public class Helper {
             }
         }
     }
+
+    /**
+     * Compute the JSON patch operations changing the JSON value before into the JSON value after.
+     * Objects are compared field by field. Arrays of objects with ids are compared by id, other arrays by their
+     * longest common subsequence of items. An array is replaced if most of its items are not kept in place.
+     *
+     * @param before the JSON value before
+     * @param after  the JSON value after
+     * @return the changes
+     */
+    public static List<ActivityLogChange> diffJson(JsonNode before, JsonNode after) {
+        List<ActivityLogChange> changes = new ArrayList<>();
+        diffJson("", before, after, changes);
+        return changes;
+    }
+
+    /**
+     * Add the JSON patch operations changing the JSON value before into the JSON value after at the path.
+     *
+     * @param path    the JSON pointer of the values
+     * @param before  the JSON value before
+     * @param after   the JSON value after
+     * @param changes the changes to add to
+     */
+    private static void diffJson(String path, JsonNode before, JsonNode after, List<ActivityLogChange> changes) {
+        if (before.equals(after)) {
+            return;
+        }
+        if (before.isObject() && after.isObject()) {
+            before.fields().forEachRemaining(field -> {
+                String fieldPath = path + "/" + escapeJsonPointer(field.getKey());
+                if (after.has(field.getKey())) {
+                    diffJson(fieldPath, field.getValue(), after.get(field.getKey()), changes);
+                } else {
+                    changes.add(new ActivityLogChange("remove", fieldPath, null));
+                }
+            });
+            after.fields().forEachRemaining(field -> {
+                if (!before.has(field.getKey())) {
+                    changes.add(new ActivityLogChange("add", path + "/" + escapeJsonPointer(field.getKey()),
+                            field.getValue().toString()));
+                }
+            });
+        } else if (before.isArray() && after.isArray()) {
+            List<int[]> kept = hasIds(before) && hasIds(after) ? matchByIds(before, after) : matchByLcs(before, after);
+            if (kept == null || kept.size() * 2 < Math.max(before.size(), after.size())) {
+                changes.add(new ActivityLogChange("replace", path, after.toString()));
+                return;
+            }
+            Set<Integer> keptBefore = new HashSet<>();
+            Map<Integer, Integer> keptAfter = new HashMap<>();
+            kept.forEach(pair -> {
+                keptBefore.add(pair[0]);
+                keptAfter.put(pair[1], pair[0]);
+            });
+            // remove from the end so the indexes of the items left do not change, the kept items are then in order
+            for (int i = before.size() - 1; i >= 0; i--) {
+                if (!keptBefore.contains(i)) {
+                    changes.add(new ActivityLogChange("remove", path + "/" + i, null));
+                }
+            }
+            // add in order so every kept item is at its index in the array after when compared
+            for (int i = 0; i < after.size(); i++) {
+                Integer beforeIndex = keptAfter.get(i);
+                if (beforeIndex == null) {
+                    changes.add(new ActivityLogChange("add", path + "/" + i, after.get(i).toString()));
+                } else {
+                    diffJson(path + "/" + i, before.get(beforeIndex), after.get(i), changes);
+                }
+            }
+        } else {
+            changes.add(new ActivityLogChange("replace", path, after.toString()));
+        }
+    }
+
+    /**
+     * Check whether all the items of the array are objects with distinct ids.
+     *
+     * @param array the JSON array
+     * @return true if the items can be compared by id
+     */
+    private static boolean hasIds(JsonNode array) {
+        Set<String> ids = new HashSet<>();
+        for (JsonNode item : array) {
+            JsonNode id = item.get(ID_FIELD);
+            if (!item.isObject() || id == null || !id.isValueNode() || !ids.add(id.asText())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Match the items of the arrays by id.
+     *
+     * @param before the JSON array before
+     * @param after  the JSON array after
+     * @return the indexes before and after of the items kept in order, null if kept items are reordered
+     */
+    private static List<int[]> matchByIds(JsonNode before, JsonNode after) {
+        Map<String, Integer> beforeIndexes = new HashMap<>();
+        for (int i = 0; i < before.size(); i++) {
+            beforeIndexes.put(before.get(i).get(ID_FIELD).asText(), i);
+        }
+        List<int[]> kept = new ArrayList<>();
+        for (int i = 0; i < after.size(); i++) {
+            Integer beforeIndex = beforeIndexes.get(after.get(i).get(ID_FIELD).asText());
+            if (beforeIndex != null) {
+                if (!kept.isEmpty() && kept.get(kept.size() - 1)[0] > beforeIndex) {
+                    return null;
+                }
+                kept.add(new int[]{beforeIndex, i});
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Match the equal items of the arrays by their longest common subsequence.
+     *
+     * @param before the JSON array before
+     * @param after  the JSON array after
+     * @return the indexes before and after of the items kept in order, null if the arrays are too large to compare
+     */
+    private static List<int[]> matchByLcs(JsonNode before, JsonNode after) {
+        int n = before.size();
+        int m = after.size();
+        if ((long) n * m > MAX_ARRAY_COMPARISONS) {
+            return null;
+        }
+        // lengths[i][j] is the length of the longest common subsequence of the items from i and from j
+        int[][] lengths = new int[n + 1][m + 1];
+        for (int i = n - 1; i >= 0; i--) {
+            for (int j = m - 1; j >= 0; j--) {
+                lengths[i][j] = before.get(i).equals(after.get(j))
+                        ? lengths[i + 1][j + 1] + 1 : Math.max(lengths[i + 1][j], lengths[i][j + 1]);
+            }
+        }
+        List<int[]> kept = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < n && j < m) {
+            if (before.get(i).equals(after.get(j))) {
+                kept.add(new int[]{i++, j++});
+            } else if (lengths[i + 1][j] >= lengths[i][j + 1]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Escape the name as a JSON pointer token.
+     *
+     * @param name the name
+     * @return the escaped name
+     */
+    private static String escapeJsonPointer(String name) {
+        return name.replace("~", "~0").replace("/", "~1");
+    }
 }
@@ -3,10 +3,17 @@ package com.sm.engine.controller;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.sm.engine.TestApplication;
 import com.sm.engine.TestData;
+import com.sm.engine.config.ActivityLogWriterConfig;
+import com.sm.engine.config.SearchConfig;
 import com.sm.engine.domain.ActivityLog;
+import com.sm.engine.domain.ActivityLogChange;
+import com.sm.engine.domain.ActivityLogSnapshot;
 import com.sm.engine.domain.OperationType;
 import com.sm.engine.domain.Role;
+import com.sm.engine.domain.User;
 import com.sm.engine.domain.support.SearchResult;
+import com.sm.engine.service.ActivityLogWriter;
+import com.sm.engine.utils.Helper;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -20,10 +27,21 @@ import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.web.context.WebApplicationContext;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
 import static org.springframework.security.test.web.servlet.setup.SecurityMockMvcConfigurers.springSecurity;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
@@ -66,6 +84,24 @@ public class ActivityLogControllerTest {
     @Autowired
     protected ObjectMapper objectMapper;
 
+    /**
+     * The activity log writer.
+     */
+    @Autowired
+    private ActivityLogWriter activityLogWriter;
+
+    /**
+     * The activity log writer config.
+     */
+    @Autowired
+    private ActivityLogWriterConfig activityLogWriterConfig;
+
+    /**
+     * The search config.
+     */
+    @Autowired
+    private SearchConfig searchConfig;
+
     /**
      * Run before each test to populate test data and initialize the mock MVC.
      */
@@ -83,7 +119,9 @@ public class ActivityLogControllerTest {
      * Removes test data.
      */
     private void removeTestData() {
+        activityLogWriter.flush();
         mongoOperations.remove(new Query(), ActivityLog.class);
+        mongoOperations.remove(new Query(), ActivityLogSnapshot.class);
     }
 
     /**
@@ -175,6 +213,127 @@ public class ActivityLogControllerTest {
                 .andExpect(content().json(expectedJson, true));
     }
 
+    /**
+     * Search with cursor pages through the records in sort order without total.
+     *
+     * @throws Exception if any error occurs
+     */
+    @Test
+    public void searchAfter() throws Exception {
+        List<ActivityLog> allDocuments = TestData.generateActivityLogs();
+
+        // sort ties are ordered by id
+        List<String> expected = allDocuments.stream()
+                .sorted(Comparator.comparing(ActivityLog::getDocumentType).reversed()
+                        .thenComparing(Comparator.comparing(ActivityLog::getId).reversed()))
+                .map(ActivityLog::getId).collect(Collectors.toList());
+        assertEquals(expected, searchAll("&sort=documentType,desc"));
+
+        expected = allDocuments.stream().map(ActivityLog::getId).sorted().collect(Collectors.toList());
+        assertEquals(expected, searchAll(""));
+
+        expected = allDocuments.stream().filter(d -> d.getOperationType() == OperationType.Create)
+                .sorted(Comparator.comparing(ActivityLog::getCreatedAt))
+                .map(ActivityLog::getId).collect(Collectors.toList());
+        assertEquals(expected, searchAll("&sort=createdAt,asc&operationType=" + OperationType.Create));
+
+        // cursor of another sort or invalid, or sort not indexed
+        Map<?, ?> result = search("?size=3&sort=createdAt,asc&after=");
+        mockMvc.perform(get(baseUrl + "?size=3&sort=createdAt,desc&after=" + result.get("next"))
+                .with(user("admin_user1").password("secret").roles(Role.Admin.toString())))
+                .andExpect(status().is(400));
+        mockMvc.perform(get(baseUrl + "?size=3&after=invalid")
+                .with(user("admin_user1").password("secret").roles(Role.Admin.toString())))
+                .andExpect(status().is(400));
+        mockMvc.perform(get(baseUrl + "?size=3&sort=createdAt,asc&sort=id,asc&after=")
+                .with(user("admin_user1").password("secret").roles(Role.Admin.toString())))
+                .andExpect(status().is(400));
+        mockMvc.perform(get(baseUrl + "?size=3&sort=description,asc&after=")
+                .with(user("admin_user1").password("secret").roles(Role.Admin.toString())))
+                .andExpect(status().is(400));
+    }
+
+    /**
+     * Search with the total counted exactly, estimated or not at all.
+     *
+     * @throws Exception if any error occurs
+     */
+    @Test
+    public void searchTotal() throws Exception {
+        Map<?, ?> result = search("?size=4&total=none");
+        assertNull(result.get("total"));
+        assertEquals("none", result.get("totalMode"));
+        assertEquals(true, result.get("hasMore"));
+        assertEquals(4, ((List<?>) result.get("records")).size());
+        result = search("?size=4&page=2&total=none");
+        assertEquals(false, result.get("hasMore"));
+        assertEquals(1, ((List<?>) result.get("records")).size());
+
+        result = search("?size=4&total=exact");
+        assertEquals(9, result.get("total"));
+        assertEquals("exact", result.get("totalMode"));
+        result = search("?size=4");
+        assertEquals("exact", result.get("totalMode"));
+
+        result = search("?size=4&total=estimated");
+        assertEquals(9, result.get("total"));
+        assertEquals("estimated", result.get("totalMode"));
+        result = search("?size=4&total=estimated&documentType=User");
+        assertEquals(4, result.get("total"));
+        int limit = searchConfig.getEstimatedCountLimit();
+        searchConfig.setEstimatedCountLimit(2);
+        try {
+            // filtered searches are counted up to the limit
+            assertEquals(2, search("?size=4&total=estimated&documentType=User").get("total"));
+            assertEquals(9, search("?size=4&total=estimated").get("total"));
+        } finally {
+            searchConfig.setEstimatedCountLimit(limit);
+        }
+
+        // cursor searches are counted on request
+        result = search("?size=4&after=&total=exact");
+        assertEquals(9, result.get("total"));
+        assertEquals(true, result.get("hasMore"));
+
+        mockMvc.perform(get(baseUrl + "?total=invalid")
+                .with(user("admin_user1").password("secret").roles(Role.Admin.toString())))
+                .andExpect(status().is(400));
+    }
+
+    /**
+     * Search all pages of 2 records with cursor.
+     *
+     * @param query the search query
+     * @return the ids of the records found in order
+     * @throws Exception if any error occurs
+     */
+    private List<String> searchAll(String query) throws Exception {
+        List<String> ids = new ArrayList<>();
+        String after = "";
+        do {
+            Map<?, ?> result = search("?size=2&after=" + after + query);
+            assertNull(result.get("total"));
+            ((List<?>) result.get("records")).forEach(record -> ids.add((String) ((Map<?, ?>) record).get("id")));
+            after = (String) result.get("next");
+        } while (after != null);
+        return ids;
+    }
+
+    /**
+     * Search activity logs.
+     *
+     * @param query the search query
+     * @return the search result as JSON map
+     * @throws Exception if any error occurs
+     */
+    private Map<?, ?> search(String query) throws Exception {
+        String json = mockMvc.perform(get(baseUrl + query)
+                .with(user("admin_user1").password("secret").roles(Role.Admin.toString())))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        return objectMapper.readValue(json, Map.class);
+    }
+
     /**
      * Negative search test.
      *
@@ -188,4 +347,117 @@ public class ActivityLogControllerTest {
                                 .with(user("admin_user1").password("secret").roles(Role.Admin.toString()))) //
                 .andExpect(status().is(400));
     }
+
+    /**
+     * Activity logs are written in background in batches and in order, spilled activity logs are written
+     * by the next flush and invalid ones are skipped.
+     *
+     * @throws Exception if any error occurs
+     */
+    @Test
+    public void writeBehind() throws Exception {
+        mongoOperations.remove(new Query(), ActivityLog.class);
+        for (int i = 0; i < 250; i++) {
+            User user = new User("user" + i, Role.RO, true);
+            user.setId("id" + i);
+            activityLogWriter.write(new ActivityLog(OperationType.Create, "User", "admin_user1", null),
+                    null, user);
+        }
+        long deadline = System.currentTimeMillis() + 10000;
+        while (mongoOperations.count(new Query(), ActivityLog.class) < 250
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        List<ActivityLog> activityLogs = mongoOperations.findAll(ActivityLog.class);
+        assertEquals(250, activityLogs.size());
+        for (int i = 0; i < activityLogs.size(); i++) {
+            assertEquals("CREATED: user" + i + " (id" + i + ")", activityLogs.get(i).getDescription());
+            assertEquals("id" + i, activityLogs.get(i).getDocumentId());
+            assertNotNull(activityLogs.get(i).getAfterSnapshotId());
+            assertNotNull(activityLogs.get(i).getCreatedAt());
+        }
+
+        mongoOperations.remove(new Query(), ActivityLog.class);
+        ActivityLog spilled = new ActivityLog(OperationType.Delete, "User", "admin_user1", "DELETED: user0 (id0)");
+        spilled.setId(activityLogs.get(0).getId());
+        spilled.setDocumentId("id0");
+        Path spillFile = Paths.get(activityLogWriterConfig.getSpillDirectory(), "activity-logs.jsonl");
+        Files.write(spillFile, Arrays.asList("{\"activityLog\":" + objectMapper.writeValueAsString(spilled)
+                + ",\"snapshots\":[]}", "{invalid"), StandardCharsets.UTF_8);
+        activityLogWriter.flush();
+        activityLogs = mongoOperations.findAll(ActivityLog.class);
+        assertEquals(1, activityLogs.size());
+        assertEquals("DELETED: user0 (id0)", activityLogs.get(0).getDescription());
+        assertEquals("id0", activityLogs.get(0).getDocumentId());
+        assertFalse(Files.exists(spillFile));
+    }
+
+    /**
+     * Arrays are compared by id or by their common items, and replaced if most items are not kept.
+     *
+     * @throws Exception if any error occurs
+     */
+    @Test
+    public void arrayChanges() throws Exception {
+        List<ActivityLogChange> changes = Helper.diffJson(
+                objectMapper.readTree("{\"rules\":[{\"id\":\"1\",\"v\":1},{\"id\":\"2\",\"v\":2},"
+                        + "{\"id\":\"3\",\"v\":3}]}"),
+                objectMapper.readTree("{\"rules\":[{\"id\":\"2\",\"v\":2},{\"id\":\"3\",\"v\":4},"
+                        + "{\"id\":\"4\",\"v\":5}]}"));
+        assertEquals(Arrays.asList("remove /rules/0", "replace /rules/1/v", "add /rules/2"),
+                changes.stream().map(change -> change.getOp() + " " + change.getPath()).collect(Collectors.toList()));
+
+        changes = Helper.diffJson(objectMapper.readTree("[\"a\",\"b\",\"c\",\"d\"]"),
+                objectMapper.readTree("[\"x\",\"a\",\"b\",\"c\"]"));
+        assertEquals(Arrays.asList("remove /3", "add /0"),
+                changes.stream().map(change -> change.getOp() + " " + change.getPath()).collect(Collectors.toList()));
+
+        changes = Helper.diffJson(objectMapper.readTree("[1,2,3,4]"), objectMapper.readTree("[4,3,2,1]"));
+        assertEquals(1, changes.size());
+        assertEquals("replace", changes.get(0).getOp());
+        assertEquals("", changes.get(0).getPath());
+        assertEquals("[4,3,2,1]", changes.get(0).getValue());
+    }
+
+    /**
+     * Activity logs store the changes and the snapshots of documents, rendered as before and after on demand.
+     *
+     * @throws Exception if any error occurs
+     */
+    @Test
+    public void changes() throws Exception {
+        mongoOperations.remove(new Query(), ActivityLog.class);
+        User enabled = new User("user1", Role.RO, true);
+        enabled.setId("id1");
+        User disabled = new User("user1", Role.RO, false);
+        disabled.setId("id1");
+        activityLogWriter.write(new ActivityLog(OperationType.Change, "User", "admin_user1", null), enabled, disabled);
+        activityLogWriter.write(new ActivityLog(OperationType.Change, "User", "admin_user1", null), disabled, enabled);
+        String expected = String.format("BEFORE: %s\nAFTER: %s",
+                objectMapper.writeValueAsString(enabled), objectMapper.writeValueAsString(disabled));
+        // changes of the documents after written are not logged
+        enabled.setUsername("user2");
+        activityLogWriter.flush();
+
+        List<ActivityLog> activityLogs = mongoOperations.findAll(ActivityLog.class);
+        assertEquals(2, activityLogs.size());
+        ActivityLog activityLog = activityLogs.get(0);
+        assertEquals("CHANGED: user1 (id1): /enabled=false", activityLog.getDescription());
+        assertEquals("id1", activityLog.getDocumentId());
+        assertEquals(1, activityLog.getChanges().size());
+        assertEquals("replace", activityLog.getChanges().get(0).getOp());
+        assertEquals("/enabled", activityLog.getChanges().get(0).getPath());
+        assertEquals("false", activityLog.getChanges().get(0).getValue());
+        // the snapshots are stored once
+        assertEquals(activityLog.getAfterSnapshotId(), activityLogs.get(1).getBeforeSnapshotId());
+        assertEquals(2, mongoOperations.count(new Query(), ActivityLogSnapshot.class));
+
+        mockMvc.perform(get(baseUrl + "/" + activityLog.getId() + "/description")
+                .with(user("admin_user1").password("secret").roles(Role.Admin.toString())))
+                .andExpect(status().isOk())
+                .andExpect(content().string(expected));
+        mockMvc.perform(get(baseUrl + "/notexist/description")
+                .with(user("admin_user1").password("secret").roles(Role.Admin.toString())))
+                .andExpect(status().isNotFound());
+    }
 }
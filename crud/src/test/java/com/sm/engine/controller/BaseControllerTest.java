@@ -4,6 +4,8 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.sm.engine.TestApplication;
 import com.sm.engine.TestData;
 import com.sm.engine.domain.ActivityLog;
+import com.sm.engine.domain.ActivityLogSnapshot;
+import com.sm.engine.domain.Entitlement;
 import com.sm.engine.domain.Header;
 import com.sm.engine.domain.IdentifiableDocument;
 import com.sm.engine.domain.LdapAttribute;
@@ -15,6 +17,7 @@ import com.sm.engine.domain.Role;
 import com.sm.engine.domain.System;
 import com.sm.engine.domain.User;
 import com.sm.engine.domain.support.SearchResult;
+import com.sm.engine.service.ActivityLogWriter;
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -94,6 +97,12 @@ public abstract class BaseControllerTest<T extends IdentifiableDocument> {
     @Autowired
     protected ObjectMapper objectMapper;
 
+    /**
+     * The activity log writer.
+     */
+    @Autowired
+    private ActivityLogWriter activityLogWriter;
+
     /**
      * Run before each test to populate test data and initialize the mock MVC.
      */
@@ -111,7 +120,9 @@ public abstract class BaseControllerTest<T extends IdentifiableDocument> {
      * Remove test data.
      */
     private void removeTestData() {
+        activityLogWriter.flush();
         mongoOperations.remove(new Query(), ActivityLog.class);
+        mongoOperations.remove(new Query(), ActivityLogSnapshot.class);
 
         mongoOperations.remove(new Query(), User.class);
         mongoOperations.remove(new Query(), LdapConfiguration.class);
@@ -121,6 +132,7 @@ public abstract class BaseControllerTest<T extends IdentifiableDocument> {
         mongoOperations.remove(new Query(), System.class);
 
         mongoOperations.remove(new Query(), Header.class);
+        mongoOperations.remove(new Query(), Entitlement.class);
     }
 
     /**
@@ -248,7 +260,7 @@ public abstract class BaseControllerTest<T extends IdentifiableDocument> {
                 objectMapper.writeValueAsString(dbDocument));
 
         //  New Activity Log added
-        List<ActivityLog> activityLogs = mongoOperations.findAll(ActivityLog.class)
+        List<ActivityLog> activityLogs = findActivityLogs()
                 .stream()
                 .filter(a-> OperationType.Create.equals(a.getOperationType()) &&
                         dbDocument.getClass().getSimpleName().equals(a.getDocumentType()))
@@ -322,7 +334,7 @@ public abstract class BaseControllerTest<T extends IdentifiableDocument> {
                 objectMapper.writeValueAsString(dbDocument));
 
         //  New Activity Log added
-        List<ActivityLog> activityLogs = mongoOperations.findAll(ActivityLog.class)
+        List<ActivityLog> activityLogs = findActivityLogs()
                 .stream()
                 .filter(a-> OperationType.Change.equals(a.getOperationType()) &&
                         dbDocument.getClass().getSimpleName().equals(a.getDocumentType()))
@@ -445,7 +457,7 @@ public abstract class BaseControllerTest<T extends IdentifiableDocument> {
         assertFalse(existed);
 
         // New Activity Log added
-        List<ActivityLog> activityLogs = mongoOperations.findAll(ActivityLog.class);
+        List<ActivityLog> activityLogs = findActivityLogs();
         assertTrue(activityLogs.size() == 1);
         assertEquals(existing.getClass().getSimpleName(), activityLogs.get(0).getDocumentType());
         assertEquals("admin_user1", activityLogs.get(0).getOperatedBy());
@@ -468,6 +480,16 @@ public abstract class BaseControllerTest<T extends IdentifiableDocument> {
                 .andExpect(status().is(404));
     }
 
+    /**
+     * Finds all activity logs after the queued activity logs are written.
+     *
+     * @return the activity logs
+     */
+    protected List<ActivityLog> findActivityLogs() {
+        activityLogWriter.flush();
+        return mongoOperations.findAll(ActivityLog.class);
+    }
+
     /**
      * Gets expected result for search tests.
      *
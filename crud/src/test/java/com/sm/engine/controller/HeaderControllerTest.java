@@ -2,34 +2,61 @@ package com.sm.engine.controller;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.sm.engine.TestData;
+import com.sm.engine.config.EntitlementConfig;
 import com.sm.engine.config.TestLdapConfig;
 import com.sm.engine.domain.Header;
+import com.sm.engine.domain.HeaderEvaluateBatchRequest;
+import com.sm.engine.domain.HeaderEvaluateBatchResult;
 import com.sm.engine.domain.HeaderEvaluateResult;
+import com.sm.engine.domain.HeaderEvaluateStats;
+import com.sm.engine.domain.HeaderReceiverSearchResult;
 import com.sm.engine.domain.HeaderType;
+import com.sm.engine.domain.LdapAttributeNameValue;
 import com.sm.engine.domain.Policy;
 import com.sm.engine.domain.Role;
+import com.sm.engine.domain.Rule;
+import com.sm.engine.domain.RuleEvaluationMode;
 import com.sm.engine.domain.support.SearchResult;
+import com.sm.engine.service.EntitlementService;
+import com.sm.engine.service.HeaderEvaluateCache;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.web.servlet.MvcResult;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collector;
 import java.util.stream.Collectors;
 
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.startsWith;
 import static org.hamcrest.collection.IsCollectionWithSize.hasSize;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 /**
@@ -43,6 +70,24 @@ public class HeaderControllerTest extends BaseControllerTest<Header> {
     @Autowired
     private TestLdapConfig testLdapConfig;
 
+    /**
+     * The header evaluate cache.
+     */
+    @Autowired
+    private HeaderEvaluateCache headerEvaluateCache;
+
+    /**
+     * The entitlement config.
+     */
+    @Autowired
+    private EntitlementConfig entitlementConfig;
+
+    /**
+     * The entitlement service.
+     */
+    @Autowired
+    private EntitlementService entitlementService;
+
     /**
      * All test documents.
      */
@@ -120,8 +165,20 @@ public class HeaderControllerTest extends BaseControllerTest<Header> {
                                 .with(user("admin_user1").password("secret").roles(Role.Admin.toString())))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$", hasSize(5)))
+                .andExpect(header().string("Server-Timing", allOf(containsString("ldapService;dur="),
+                        containsString("policies;dur="), containsString("rules;dur="),
+                        containsString("user;dur="), containsString("total;dur="))))
                 .andReturn().getResponse().getContentAsString(), new TypeReference<List<HeaderEvaluateResult>>() {}));
 
+        // cached result
+        mockMvc
+                .perform(
+                        get(baseUrl + "/evaluate/admin_user1")
+                                .with(user("admin_user1").password("secret").roles(Role.Admin.toString())))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(5)))
+                .andExpect(header().string("Server-Timing", startsWith("total;dur=")));
+
         // check 404 for not found usernmae
         mockMvc
                 .perform(
@@ -146,6 +203,453 @@ public class HeaderControllerTest extends BaseControllerTest<Header> {
                 .andReturn().getResponse().getContentAsString(), new TypeReference<List<HeaderEvaluateResult>>() {}));
     }
 
+    /**
+     * Test evaluate endpoint reflects policy changes made after policies are compiled.
+     *
+     * @throws Exception throws if any error happens.
+     */
+    @Test
+    public void evaluateAfterPolicyUpdate() throws Exception {
+        mongoOperations.insert(TestData.createValidLdapConfiguration(testLdapConfig));
+        mongoOperations.insertAll(TestData.createValidLdapHeaders());
+        Policy policy = TestData.createValidLdapPolicy();
+        mongoOperations.insert(policy);
+        mockMvc
+                .perform(
+                        get(baseUrl + "/evaluate/admin_user1")
+                                .with(user("admin_user1").password("secret").roles(Role.Admin.toString())))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(5)));
+
+        // disable policy through policy endpoint
+        policy.setEnabled(false);
+        policy.setRules(policy.getRules().subList(0, policy.getRules().size() - 1));
+        mockMvc
+                .perform(
+                        put("/policies/" + policy.getId()).contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(policy))
+                                .with(user("admin_user1").password("secret").roles(Role.Admin.toString())))
+                .andExpect(status().isOk());
+        mockMvc
+                .perform(
+                        get(baseUrl + "/evaluate/admin_user1")
+                                .with(user("admin_user1").password("secret").roles(Role.Admin.toString())))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(0)));
+    }
+
+    /**
+     * Test evaluate endpoint reflects header changes made after results are cached.
+     *
+     * @throws Exception throws if any error happens.
+     */
+    @Test
+    public void evaluateAfterHeaderUpdate() throws Exception {
+        mongoOperations.insert(TestData.createValidLdapConfiguration(testLdapConfig));
+        List<Header> headers = TestData.createValidLdapHeaders();
+        mongoOperations.insertAll(headers);
+        mongoOperations.insert(TestData.createValidLdapPolicy());
+        for (int i = 0; i < 2; i++) {
+            mockMvc
+                    .perform(
+                            get(baseUrl + "/evaluate/admin_user1")
+                                    .with(user("admin_user1").password("secret").roles(Role.Admin.toString())))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$[?(@.name == 'statictrue')].value").value("True"));
+        }
+
+        // update static header through header endpoint
+        Header header = headers.get(0);
+        header.setValue("False");
+        mockMvc
+                .perform(
+                        put(baseUrl + "/" + header.getId()).contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(header))
+                                .with(user("admin_user1").password("secret").roles(Role.Admin.toString())))
+                .andExpect(status().isOk());
+        mockMvc
+                .perform(
+                        get(baseUrl + "/evaluate/admin_user1")
+                                .with(user("admin_user1").password("secret").roles(Role.Admin.toString())))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(5)))
+                .andExpect(jsonPath("$[?(@.name == 'statictrue')].value").value("False"));
+    }
+
+    /**
+     * Test evaluate endpoint with rules evaluated locally against the user profile.
+     *
+     * @throws Exception throws if any error happens.
+     */
+    @Test
+    public void evaluateLocalRules() throws Exception {
+        mongoOperations.insert(TestData.createValidLdapConfiguration(testLdapConfig));
+        mongoOperations.insertAll(TestData.createValidLdapHeaders());
+        Policy policy = TestData.createValidLdapPolicy();
+        // multi-valued attribute matched ignoring case
+        Rule rule = policy.getRules().get(0);
+        rule.setEvaluationMode(RuleEvaluationMode.LOCAL);
+        rule.setRuleInfo(Arrays.asList(new LdapAttributeNameValue("objectclass", "INETORGPERSON"),
+                new LdapAttributeNameValue("uid", "admin_user1")));
+        rule = policy.getRules().get(1);
+        rule.setEvaluationMode(RuleEvaluationMode.LOCAL);
+        // a pair without value never matches
+        rule.setRuleInfo(Arrays.asList(new LdapAttributeNameValue("objectclass", "inetorgperson"),
+                new LdapAttributeNameValue("uid", null)));
+        mongoOperations.insert(policy);
+        for (int i = 0; i < 2; i++) {
+            mockMvc
+                    .perform(
+                            get(baseUrl + "/evaluate/admin_user1")
+                                    .with(user("admin_user1").password("secret").roles(Role.Admin.toString())))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$", hasSize(4)))
+                    .andExpect(jsonPath("$[?(@.name == 'statictrue')].value").value("True"))
+                    .andExpect(jsonPath("$[?(@.name == 'staticfalse')]", hasSize(0)))
+                    .andExpect(jsonPath("$[?(@.name == 'dynamic_uid')].value").value("admin_user1"));
+            // evaluate again from the cached user profile after the policies change
+            mongoOperations.save(policy);
+        }
+    }
+
+    /**
+     * Test evaluate endpoint with precomputed entitlements recomputed after a header update.
+     *
+     * @throws Exception throws if any error happens.
+     */
+    @Test
+    public void evaluateEntitlements() throws Exception {
+        entitlementConfig.setEnabled(true);
+        long maxAge = entitlementConfig.getMaxAge();
+        try {
+            mongoOperations.insert(TestData.createValidLdapConfiguration(testLdapConfig));
+            List<Header> headers = TestData.createValidLdapHeaders();
+            mongoOperations.insertAll(headers);
+            Policy policy = TestData.createValidLdapPolicy();
+            mongoOperations.insert(policy);
+            entitlementService.refresh();
+            validateEvaluateResult(objectMapper.readValue(mockMvc
+                    .perform(
+                            get(baseUrl + "/evaluate/admin_user1")
+                                    .with(user("admin_user1").password("secret").roles(Role.Admin.toString())))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string("Server-Timing", allOf(containsString("entitlement;dur="),
+                            not(containsString("rules;dur=")))))
+                    .andReturn().getResponse().getContentAsString(),
+                    new TypeReference<List<HeaderEvaluateResult>>() {}));
+
+            // entitlements are out of date until recomputed so headers are evaluated in ldap
+            Header header = headers.get(0);
+            header.setValue("False");
+            mockMvc
+                    .perform(
+                            put(baseUrl + "/" + header.getId()).contentType(MediaType.APPLICATION_JSON)
+                                    .content(objectMapper.writeValueAsString(header))
+                                    .with(user("admin_user1").password("secret").roles(Role.Admin.toString())))
+                    .andExpect(status().isOk());
+            mockMvc
+                    .perform(
+                            get(baseUrl + "/evaluate/admin_user1")
+                                    .with(user("admin_user1").password("secret").roles(Role.Admin.toString())))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string("Server-Timing", containsString("rules;dur=")))
+                    .andExpect(jsonPath("$[?(@.name == 'statictrue')].value").value("False"));
+
+            entitlementService.refresh();
+            mockMvc
+                    .perform(
+                            get(baseUrl + "/evaluate/admin_user1?moduleId=" + policy.getModule().getId())
+                                    .with(user("admin_user1").password("secret").roles(Role.Admin.toString())))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string("Server-Timing", allOf(containsString("entitlement;dur="),
+                            not(containsString("rules;dur=")))))
+                    .andExpect(jsonPath("$", hasSize(5)))
+                    .andExpect(jsonPath("$[?(@.name == 'statictrue')].value").value("False"));
+
+            // entitlements older than the max age are evaluated in ldap
+            entitlementConfig.setMaxAge(1);
+            headerEvaluateCache.invalidate();
+            Thread.sleep(10);
+            mockMvc
+                    .perform(
+                            get(baseUrl + "/evaluate/admin_user1?moduleId=" + policy.getModule().getId())
+                                    .with(user("admin_user1").password("secret").roles(Role.Admin.toString())))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string("Server-Timing", containsString("rules;dur=")))
+                    .andExpect(jsonPath("$[?(@.name == 'statictrue')].value").value("False"));
+        } finally {
+            entitlementConfig.setEnabled(false);
+            entitlementConfig.setMaxAge(maxAge);
+        }
+    }
+
+    /**
+     * Test search receivers endpoint.
+     *
+     * @throws Exception throws if any error happens.
+     */
+    @Test
+    public void searchReceivers() throws Exception {
+        mongoOperations.insert(TestData.createValidLdapConfiguration(testLdapConfig));
+        List<Header> headers = TestData.createValidLdapHeaders();
+        mongoOperations.insertAll(headers);
+        Policy policy = TestData.createValidLdapPolicy();
+        Rule rule = policy.getRules().get(0);
+        rule.setEvaluationMode(RuleEvaluationMode.LOCAL);
+        rule.setRuleInfo(Collections.singletonList(new LdapAttributeNameValue("sn", "Admin User1")));
+        // a rule with a pair without value matches no user
+        policy.getRules().add(0, new Rule("rule without value", Arrays.asList(
+                new LdapAttributeNameValue("objectclass", "inetorgperson"), new LdapAttributeNameValue("uid", null)),
+                RuleEvaluationMode.LOCAL, headers.get(1)));
+        // another rule of same header adds its users
+        policy.getRules().add(new Rule("another rule", Collections.singletonList(new LdapAttributeNameValue("sn",
+                "Alex")), RuleEvaluationMode.LOCAL, headers.get(0)));
+        mongoOperations.insert(policy);
+
+        HeaderReceiverSearchResult all = getReceivers("headerName=staticfalse&size=100");
+        assertTrue(all.getTotal() > 6);
+        assertTrue(all.getUsernames().contains("admin_user1"));
+        List<String> sorted = new ArrayList<>(all.getUsernames());
+        Collections.sort(sorted);
+        assertEquals(sorted, all.getUsernames());
+        HeaderReceiverSearchResult page = getReceivers("headerName=staticfalse&page=1&size=3");
+        assertEquals(all.getTotal(), page.getTotal());
+        assertEquals(all.getUsernames().subList(3, 6), page.getUsernames());
+
+        HeaderReceiverSearchResult result = getReceivers("headerName=statictrue&headerValue=True");
+        assertEquals(2, result.getTotal());
+        assertEquals(Arrays.asList("admin_user1", "ben"), result.getUsernames());
+        assertEquals(0, getReceivers("headerName=statictrue&headerValue=False").getTotal());
+        result = getReceivers("headerName=dynamic_uid&headerValue=ben&moduleId=" + policy.getModule().getId());
+        assertEquals(Collections.singletonList("ben"), result.getUsernames());
+        assertEquals(0, getReceivers("headerName=notexist").getTotal());
+
+        mockMvc
+                .perform(
+                        get(baseUrl + "/receivers")
+                                .with(user("admin_user1").password("secret").roles(Role.Admin.toString())))
+                .andExpect(status().isBadRequest());
+    }
+
+    /**
+     * Test auth request endpoint.
+     *
+     * @throws Exception throws if any error happens.
+     */
+    @Test
+    public void authRequest() throws Exception {
+        mockMvc
+                .perform(
+                        get(baseUrl + "/auth-request"))
+                .andExpect(status().isUnauthorized());
+        mongoOperations.insert(TestData.createValidLdapConfiguration(testLdapConfig));
+        mongoOperations.insertAll(TestData.createValidLdapHeaders());
+        Policy policy = TestData.createValidLdapPolicy();
+        mongoOperations.insert(policy);
+        for (int i = 0; i < 2; i++) {
+            // evaluate then get from cache
+            mockMvc
+                    .perform(
+                            get(baseUrl + "/auth-request")
+                                    .header("X-Module-Id", policy.getModule().getId())
+                                    .with(user("admin_user1").password("secret").roles(Role.RO.toString())))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string("statictrue", "True"))
+                    .andExpect(header().string("staticfalse", "False"))
+                    .andExpect(header().string("dynamic_uid", "admin_user1"))
+                    .andExpect(header().string("dynamic_objectclass", "top,person,organizationalPerson,inetOrgPerson"))
+                    .andExpect(content().string(""));
+        }
+        mockMvc
+                .perform(
+                        get(baseUrl + "/auth-request?moduleId=notexist")
+                                .with(user("admin_user1").password("secret").roles(Role.RO.toString())))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("statictrue"));
+    }
+
+    /**
+     * Test async evaluate endpoint.
+     *
+     * @throws Exception throws if any error happens.
+     */
+    @Test
+    public void evaluateAsync() throws Exception {
+        mongoOperations.insert(TestData.createValidLdapConfiguration(testLdapConfig));
+        mongoOperations.insertAll(TestData.createValidLdapHeaders());
+        Policy policy = TestData.createValidLdapPolicy();
+        mongoOperations.insert(policy);
+        for (int i = 0; i < 2; i++) {
+            // evaluate then get from cache
+            MvcResult result = mockMvc
+                    .perform(
+                            get(baseUrl + "/evaluate-async/admin_user1?moduleId=" + policy.getModule().getId())
+                                    .with(user("user2").password("secret").roles(Role.RO.toString())))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            validateEvaluateResult(objectMapper.readValue(mockMvc.perform(asyncDispatch(result))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString(),
+                    new TypeReference<List<HeaderEvaluateResult>>() {}));
+        }
+
+        // check 404 for not found username
+        MvcResult result = mockMvc
+                .perform(
+                        get(baseUrl + "/evaluate-async/notexist")
+                                .with(user("admin_user1").password("secret").roles(Role.Admin.toString())))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isNotFound());
+    }
+
+    /**
+     * Test concurrent identical evaluations and evaluate stats endpoint.
+     *
+     * @throws Exception throws if any error happens.
+     */
+    @Test
+    public void evaluateConcurrently() throws Exception {
+        mongoOperations.insert(TestData.createValidLdapConfiguration(testLdapConfig));
+        mongoOperations.insertAll(TestData.createValidLdapHeaders());
+        mongoOperations.insert(TestData.createValidLdapPolicy());
+        HeaderEvaluateStats before = getEvaluateStats();
+        int requests = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(requests);
+        try {
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < requests; i++) {
+                futures.add(executor.submit(() -> mockMvc
+                        .perform(
+                                get(baseUrl + "/evaluate/admin_user1")
+                                        .with(user("admin_user1").password("secret").roles(Role.Admin.toString())))
+                        .andExpect(status().isOk())
+                        .andReturn().getResponse().getContentAsString()));
+            }
+            for (Future<String> future : futures) {
+                validateEvaluateResult(objectMapper.readValue(future.get(),
+                        new TypeReference<List<HeaderEvaluateResult>>() {}));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        HeaderEvaluateStats after = getEvaluateStats();
+        assertEquals(requests, after.getRequestCount() - before.getRequestCount());
+        // every request is evaluated, collapsed or answered from cache
+        assertEquals(requests, after.getEvaluationCount() - before.getEvaluationCount()
+                + after.getCoalescedCount() - before.getCoalescedCount()
+                + after.getHitCount() - before.getHitCount());
+        assertEquals(0, after.getInFlightCount());
+    }
+
+    /**
+     * Test requests giving up on a coalesced evaluation and invalidation during an evaluation.
+     */
+    @Test
+    public void evaluateCoalescedCancel() {
+        CompletableFuture<List<HeaderEvaluateResult>> loading = new CompletableFuture<>();
+        CompletableFuture<List<HeaderEvaluateResult>> first =
+                headerEvaluateCache.getAsync("cancel_user", null, () -> loading);
+        CompletableFuture<List<HeaderEvaluateResult>> second =
+                headerEvaluateCache.getAsync("cancel_user", null, () -> loading);
+        // a request giving up does not affect the other one
+        first.cancel(true);
+        assertFalse(loading.isCancelled());
+        assertFalse(second.isDone());
+        // the evaluation is cancelled once no request waits for it
+        second.cancel(true);
+        assertTrue(loading.isCancelled());
+
+        CompletableFuture<List<HeaderEvaluateResult>> stale = new CompletableFuture<>();
+        headerEvaluateCache.getAsync("stale_user", null, () -> stale);
+        headerEvaluateCache.invalidate();
+        stale.complete(Collections.emptyList());
+        // results evaluated before the invalidation are not used
+        List<HeaderEvaluateResult> fresh = Collections.singletonList(new HeaderEvaluateResult("name", "value"));
+        assertEquals(fresh, headerEvaluateCache.getAsync("stale_user", null,
+                () -> CompletableFuture.completedFuture(fresh)).join());
+    }
+
+    /**
+     * Gets the header evaluate stats.
+     *
+     * @return the header evaluate stats
+     * @throws Exception throws if any error happens.
+     */
+    private HeaderEvaluateStats getEvaluateStats() throws Exception {
+        return objectMapper.readValue(mockMvc
+                .perform(
+                        get(baseUrl + "/evaluate-stats")
+                                .with(user("user2").password("secret").roles(Role.RO.toString())))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString(), HeaderEvaluateStats.class);
+    }
+
+    /**
+     * Test batch evaluate endpoint.
+     *
+     * @throws Exception throws if any error happens.
+     */
+    @Test
+    public void evaluateBatch() throws Exception {
+        mongoOperations.insert(TestData.createValidLdapConfiguration(testLdapConfig));
+        mongoOperations.insertAll(TestData.createValidLdapHeaders());
+        Policy policy = TestData.createValidLdapPolicy();
+        mongoOperations.insert(policy);
+        HeaderEvaluateBatchRequest request = new HeaderEvaluateBatchRequest();
+        request.setUsernames(Arrays.asList("admin_user1", "notexist", "admin_user1"));
+        request.setModuleIds(Arrays.asList(policy.getModule().getId(), "notexist"));
+        List<HeaderEvaluateBatchResult> results = objectMapper.readValue(mockMvc
+                .perform(
+                        post(baseUrl + "/evaluate:batch").contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(request))
+                                .with(user("user2").password("secret").roles(Role.RO.toString())))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString(),
+                new TypeReference<List<HeaderEvaluateBatchResult>>() {});
+        assertEquals(6, results.size());
+        for (int i : new int[]{0, 4}) {
+            assertEquals("admin_user1", results.get(i).getUsername());
+            assertEquals(policy.getModule().getId(), results.get(i).getModuleId());
+            assertNull(results.get(i).getError());
+            validateEvaluateResult(results.get(i).getHeaders());
+            assertEquals("notexist", results.get(i + 1).getModuleId());
+            assertEquals(0, results.get(i + 1).getHeaders().size());
+        }
+        assertEquals("notexist", results.get(2).getUsername());
+        assertNull(results.get(2).getHeaders());
+        assertEquals("There is no ldap user with username 'notexist' found", results.get(2).getError());
+
+        // all modules if no module ids
+        request.setModuleIds(null);
+        mockMvc
+                .perform(
+                        post(baseUrl + "/evaluate:batch").contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(request))
+                                .with(user("admin_user1").password("secret").roles(Role.Admin.toString())))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(3)))
+                .andExpect(jsonPath("$[0].moduleId").doesNotExist())
+                .andExpect(jsonPath("$[0].headers", hasSize(5)));
+
+        // invalid usernames
+        request.setUsernames(new ArrayList<>());
+        mockMvc
+                .perform(
+                        post(baseUrl + "/evaluate:batch").contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(request))
+                                .with(user("admin_user1").password("secret").roles(Role.Admin.toString())))
+                .andExpect(status().isBadRequest());
+        request.setUsernames(Arrays.asList("admin_user1", " "));
+        mockMvc
+                .perform(
+                        post(baseUrl + "/evaluate:batch").contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(request))
+                                .with(user("admin_user1").password("secret").roles(Role.Admin.toString())))
+                .andExpect(status().isBadRequest());
+    }
+
     /**
      * Validate evaluate result.
      * @param values the evaluate result
@@ -248,4 +752,20 @@ public class HeaderControllerTest extends BaseControllerTest<Header> {
     protected Header getDocumentForGetDeleteTest() {
         return allDocuments.get(1);
     }
+
+    /**
+     * Gets the receivers of header.
+     *
+     * @param query the query string
+     * @return the receivers search result
+     * @throws Exception throws if any error happens.
+     */
+    private HeaderReceiverSearchResult getReceivers(String query) throws Exception {
+        return objectMapper.readValue(mockMvc
+                .perform(
+                        get(baseUrl + "/receivers?" + query)
+                                .with(user("user2").password("secret").roles(Role.RO.toString())))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString(), HeaderReceiverSearchResult.class);
+    }
 }
@@ -1,11 +1,13 @@
 package com.sm.engine.controller;
 
 import com.sm.engine.TestData;
+import com.sm.engine.config.TestLdapConfig;
 import com.sm.engine.domain.LdapConfiguration;
 import com.sm.engine.domain.Role;
 import com.sm.engine.domain.support.SearchResult;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
 import java.util.ArrayList;
@@ -13,8 +15,10 @@ import java.util.List;
 
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 /**
@@ -25,6 +29,12 @@ public class LdapConfigurationControllerTest extends BaseControllerTest<LdapConf
 
     private List<LdapConfiguration> allDocuments = TestData.generateLdapConfigurations();
 
+    /**
+     * The test ldap configurations.
+     */
+    @Autowired
+    private TestLdapConfig testLdapConfig;
+
     /**
      * Create a new instance.
      */
@@ -35,6 +45,23 @@ public class LdapConfigurationControllerTest extends BaseControllerTest<LdapConf
         search400Query = null; // Skip search400 test for this controller
     }
 
+    /**
+     * Pool stats tests, stats are returned even if connections are not pooled.
+     *
+     * @throws Exception if any error occurs
+     */
+    @Test
+    public void poolStats() throws Exception {
+        LdapConfiguration config = TestData.createValidLdapConfiguration(testLdapConfig);
+        config.setPooled(false);
+        mongoOperations.insert(config);
+        mockMvc.perform(get(baseUrl + "/pool-stats")
+                .with(user("admin_user1").password("secret").roles(Role.Admin.toString())))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.numActive").value(0))
+                .andExpect(jsonPath("$.borrowedCount").value(0));
+    }
+
     /**
      * 403 Forbidden tests.
      *
@@ -51,6 +78,20 @@ public class LdapConfigurationControllerTest extends BaseControllerTest<LdapConf
         mockMvc
                 .perform(delete(baseUrl).with(user("user2").password("secret").roles(Role.RO.toString())))
                 .andExpect(status().is(403));
+
+        mockMvc
+                .perform(get(baseUrl + "/pool-stats").with(user("user2").password("secret").roles(Role.RO.toString())))
+                .andExpect(status().is(403));
+
+        mockMvc
+                .perform(get(baseUrl + "/rule-cache-stats")
+                        .with(user("user2").password("secret").roles(Role.RO.toString())))
+                .andExpect(status().is(403));
+
+        mockMvc
+                .perform(delete(baseUrl + "/rule-cache")
+                        .with(user("user2").password("secret").roles(Role.RO.toString())))
+                .andExpect(status().is(403));
     }
 
     /**
@@ -5,20 +5,34 @@ import com.sm.engine.TestApplication;
 import com.sm.engine.TestData;
 import com.sm.engine.config.JwtConfig;
 import com.sm.engine.config.TestLdapConfig;
+import com.sm.engine.domain.Header;
 import com.sm.engine.domain.LdapConfiguration;
 import com.sm.engine.domain.LoginRequest;
 import com.sm.engine.domain.LoginResponse;
+import com.sm.engine.domain.Policy;
 import com.sm.engine.domain.Role;
+import com.sm.engine.domain.SigningKey;
+import com.sm.engine.domain.TokenRevocation;
 import com.sm.engine.domain.User;
+import com.sm.engine.security.JwtService;
+import com.sm.engine.service.SigningKeyService;
+import com.sm.engine.service.TokenRevocationService;
+import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.SignatureException;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.http.MediaType;
+import org.springframework.security.authentication.CredentialsExpiredException;
 import org.springframework.security.authentication.DisabledException;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.test.context.ContextConfiguration;
@@ -28,9 +42,28 @@ import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.web.context.WebApplicationContext;
 
+import java.math.BigInteger;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
 import static org.springframework.security.test.web.servlet.setup.SecurityMockMvcConfigurers.springSecurity;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -111,6 +144,24 @@ public class LoginControllerTest {
     @Autowired
     private TestLdapConfig testLdapConfig;
 
+    /**
+     * The jwt service.
+     */
+    @Autowired
+    private JwtService jwtService;
+
+    /**
+     * The token revocation service.
+     */
+    @Autowired
+    private TokenRevocationService tokenRevocationService;
+
+    /**
+     * The signing key service.
+     */
+    @Autowired
+    private SigningKeyService signingKeyService;
+
     /**
      * Prepare test.
      */
@@ -121,7 +172,11 @@ public class LoginControllerTest {
         }
         mongoOperations.remove(new Query(), User.class);
         mongoOperations.remove(new Query(), LdapConfiguration.class);
+        mongoOperations.remove(new Query(), Policy.class);
+        mongoOperations.remove(new Query(), Header.class);
+        mongoOperations.remove(new Query(), TokenRevocation.class);
         mongoOperations.insert(TestData.generateUsers(), User.class);
+        tokenRevocationService.load();
     }
 
     /**
@@ -159,6 +214,41 @@ public class LoginControllerTest {
                 .andExpect(jsonPath("$.user.role").value(Role.Admin.toString()));
     }
 
+    /**
+     * Test login method uses the changed ldap configuration.
+     *
+     * @throws Exception throws if any error happens.
+     */
+    @Test
+    public void loginAfterLdapConfigurationChange() throws Exception {
+        setupLdapConfiguration();
+        LoginRequest request = getAdminLogin();
+        mockMvc
+                .perform(
+                        post(BASE_URL)
+                                .contentType(MediaType.APPLICATION_JSON).content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isOk());
+
+        // wrong ldap password
+        LdapConfiguration config = TestData.createValidLdapConfiguration(testLdapConfig);
+        config.setPassword("wrongpassword");
+        mongoOperations.save(config);
+        mockMvc
+                .perform(
+                        post(BASE_URL)
+                                .contentType(MediaType.APPLICATION_JSON).content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isInternalServerError());
+
+        // no enabled ldap configuration
+        config.setEnabled(false);
+        mongoOperations.save(config);
+        mockMvc
+                .perform(
+                        post(BASE_URL)
+                                .contentType(MediaType.APPLICATION_JSON).content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isNotFound());
+    }
+
     /**
      * Test login method with wrong username or password.
      *
@@ -269,6 +359,382 @@ public class LoginControllerTest {
                 .andExpect(status().isForbidden());
     }
 
+    /**
+     * Test jwt token after the user is changed and deleted.
+     *
+     * @throws Exception throws if any error happens.
+     */
+    @Test(expected = UsernameNotFoundException.class)
+    public void testChangedUserJWTToken() throws Exception {
+        setupLdapConfiguration();
+        String res = mockMvc
+                .perform(
+                        post(BASE_URL)
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(getAdminLogin())))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        LoginResponse result = objectMapper.readValue(res, LoginResponse.class);
+        String authorization = jwtConfig.getTokenPrefix() + " " + result.getToken();
+        mockMvc
+                .perform(
+                        get(TOKEN_BASE).accept(MediaType.APPLICATION_JSON)
+                                .header(jwtConfig.getAuthHeader(), authorization))
+                .andExpect(status().isOk());
+
+        User user = result.getUser();
+        user.setRole(Role.RO);
+        mockMvc
+                .perform(
+                        put(TOKEN_BASE + "/" + user.getId())
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(user))
+                                .with(user("admin_user2").password("secret").roles(Role.Admin.toString())))
+                .andExpect(status().isOk());
+        mockMvc
+                .perform(
+                        get(TOKEN_BASE).accept(MediaType.APPLICATION_JSON)
+                                .header(jwtConfig.getAuthHeader(), authorization))
+                .andExpect(status().isForbidden());
+
+        mockMvc
+                .perform(
+                        delete(TOKEN_BASE + "/" + user.getId())
+                                .with(user("admin_user2").password("secret").roles(Role.Admin.toString())))
+                .andExpect(status().isOk());
+        mockMvc
+                .perform(
+                        get(TOKEN_BASE).accept(MediaType.APPLICATION_JSON)
+                                .header(jwtConfig.getAuthHeader(), authorization));
+    }
+
+    /**
+     * Test jwt token authorized from claims until the user is changed.
+     *
+     * @throws Exception throws if any error happens.
+     */
+    @Test(expected = CredentialsExpiredException.class)
+    public void testClaimsAuthorizationJWTToken() throws Exception {
+        setupLdapConfiguration();
+        String res = mockMvc
+                .perform(
+                        post(BASE_URL)
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(getAdminLogin())))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        LoginResponse result = objectMapper.readValue(res, LoginResponse.class);
+        String authorization = jwtConfig.getTokenPrefix() + " " + result.getToken();
+        Claims claims = jwtService.decodeClaims(result.getToken());
+        assertEquals(Role.Admin.toString(), claims.get(JwtService.ROLE_CLAIM));
+        assertNotNull(claims.getId());
+        assertNotNull(claims.getIssuedAt());
+
+        jwtConfig.setClaimsAuthorization(true);
+        try {
+            // the user is not read
+            mongoOperations.remove(new Query(), User.class);
+            mockMvc
+                    .perform(
+                            get("/modules").accept(MediaType.APPLICATION_JSON)
+                                    .header(jwtConfig.getAuthHeader(), authorization))
+                    .andExpect(status().isOk());
+
+            mongoOperations.insert(result.getUser());
+            User user = result.getUser();
+            user.setEnabled(false);
+            mockMvc
+                    .perform(
+                            put(TOKEN_BASE + "/" + user.getId())
+                                    .contentType(MediaType.APPLICATION_JSON)
+                                    .content(objectMapper.writeValueAsString(user))
+                                    .with(user("admin_user2").password("secret").roles(Role.Admin.toString())))
+                    .andExpect(status().isOk());
+            assertNotNull(mongoOperations.findById("admin_user1", TokenRevocation.class));
+
+            // the revocation is loaded again
+            tokenRevocationService.load();
+            mockMvc
+                    .perform(
+                            get("/modules").accept(MediaType.APPLICATION_JSON)
+                                    .header(jwtConfig.getAuthHeader(), authorization));
+        } finally {
+            jwtConfig.setClaimsAuthorization(false);
+        }
+    }
+
+    /**
+     * Test jwt token issued right after the revocation is authorized from claims.
+     *
+     * @throws Exception throws if any error happens.
+     */
+    @Test
+    public void testClaimsAuthorizationReloginJWTToken() throws Exception {
+        setupLdapConfiguration();
+        User user = mongoOperations.findOne(Query.query(Criteria.where("username").is("admin_user1")), User.class);
+        jwtConfig.setClaimsAuthorization(true);
+        try {
+            mockMvc
+                    .perform(
+                            put(TOKEN_BASE + "/" + user.getId())
+                                    .contentType(MediaType.APPLICATION_JSON)
+                                    .content(objectMapper.writeValueAsString(user))
+                                    .with(user("admin_user2").password("secret").roles(Role.Admin.toString())))
+                    .andExpect(status().isOk());
+            // same second as the revocation
+            mockMvc
+                    .perform(
+                            get("/modules").accept(MediaType.APPLICATION_JSON)
+                                    .header(jwtConfig.getAuthHeader(), jwtConfig.getTokenPrefix() + " " + loginAdmin()))
+                    .andExpect(status().isOk());
+        } finally {
+            jwtConfig.setClaimsAuthorization(false);
+        }
+    }
+
+    /**
+     * Test jwt token signed with rotated key pairs and verified with the JSON web key set.
+     *
+     * @throws Exception throws if any error happens.
+     */
+    @Test
+    public void testAsymmetricJWTToken() throws Exception {
+        setupLdapConfiguration();
+        mongoOperations.remove(new Query(), SigningKey.class);
+        String hmacToken = loginAdmin();
+        jwtConfig.setSignatureAlgorithm(SignatureAlgorithm.RS256);
+        jwtConfig.setHmacTransitionUntil(System.currentTimeMillis() + 60000);
+        try {
+            String token = loginAdmin();
+            String keyId = getKeyId(token);
+            assertNotNull(keyId);
+            assertAuthorized(token);
+            assertAuthorized(hmacToken);
+            // the private key is stored encrypted
+            SigningKey signingKey = mongoOperations.findById(keyId, SigningKey.class);
+            assertTrue(signingKey.isEncrypted());
+            assertNotEquals(Base64.getEncoder().encodeToString(
+                    signingKeyService.getSigningKey(SignatureAlgorithm.RS256).getPrivateKey().getEncoded()),
+                    signingKey.getPrivateKey());
+
+            // the token is verified with the published public key
+            String res = mockMvc.perform(get("/.well-known/jwks.json"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.keys.length()").value(1))
+                    .andExpect(jsonPath("$.keys[0].kid").value(keyId))
+                    .andExpect(jsonPath("$.keys[0].kty").value("RSA"))
+                    .andExpect(jsonPath("$.keys[0].alg").value("RS256"))
+                    .andReturn().getResponse().getContentAsString();
+            Map<?, ?> jwks = objectMapper.readValue(res, Map.class);
+            Map<?, ?> jwk = (Map<?, ?>) ((List<?>) jwks.get("keys")).get(0);
+            Base64.Decoder decoder = Base64.getUrlDecoder();
+            PublicKey publicKey = KeyFactory.getInstance("RSA").generatePublic(new RSAPublicKeySpec(
+                    new BigInteger(1, decoder.decode((String) jwk.get("n"))),
+                    new BigInteger(1, decoder.decode((String) jwk.get("e")))));
+            assertEquals("admin_user1", Jwts.parser().setSigningKey(publicKey).parseClaimsJws(token)
+                    .getBody().getSubject());
+
+            // the replaced key still verifies its tokens, including those signed by other instances until their
+            // next rotation check
+            signingKeyService.rotate(SignatureAlgorithm.RS256);
+            assertTrue(mongoOperations.findById(keyId, SigningKey.class).getExpiresAt().getTime()
+                    > System.currentTimeMillis() + jwtConfig.getExpirationTime());
+            String rotatedToken = loginAdmin();
+            assertNotEquals(keyId, getKeyId(rotatedToken));
+            assertAuthorized(rotatedToken);
+            assertAuthorized(token);
+
+            jwtConfig.setSignatureAlgorithm(SignatureAlgorithm.ES256);
+            String ecToken = loginAdmin();
+            assertAuthorized(ecToken);
+            mockMvc.perform(get("/.well-known/jwks.json"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.keys.length()").value(3))
+                    .andExpect(jsonPath("$.keys[0].kid").value(getKeyId(ecToken)))
+                    .andExpect(jsonPath("$.keys[0].kty").value("EC"))
+                    .andExpect(jsonPath("$.keys[0].crv").value("P-256"));
+        } finally {
+            jwtConfig.setSignatureAlgorithm(SignatureAlgorithm.HS512);
+            jwtConfig.setHmacTransitionUntil(0);
+            mongoOperations.remove(new Query(), SigningKey.class);
+        }
+    }
+
+    /**
+     * Test jwt token signed with the secret is rejected after the transition to key pairs.
+     *
+     * @throws Exception throws if any error happens.
+     */
+    @Test(expected = SignatureException.class)
+    public void testHmacJWTTokenAfterTransition() throws Exception {
+        setupLdapConfiguration();
+        String hmacToken = loginAdmin();
+        // the token verified before the transition is not reused after it
+        assertAuthorized(hmacToken);
+        jwtConfig.setSignatureAlgorithm(SignatureAlgorithm.RS256);
+        try {
+            assertAuthorized(hmacToken);
+        } finally {
+            jwtConfig.setSignatureAlgorithm(SignatureAlgorithm.HS512);
+            mongoOperations.remove(new Query(), SigningKey.class);
+        }
+    }
+
+    /**
+     * Test verified jwt tokens are reused until they expire.
+     *
+     * @throws Exception throws if any error happens.
+     */
+    @Test(expected = ExpiredJwtException.class)
+    public void testVerifiedJWTTokenCache() throws Exception {
+        Date expiration = new Date(System.currentTimeMillis() + 2000);
+        User admin = mongoOperations.findOne(new Query(Criteria.where("username").is("admin_user1")), User.class);
+        User ro = mongoOperations.findOne(new Query(Criteria.where("username").is("ro_user1")), User.class);
+        String token = jwtService.encode(admin, expiration, null, null);
+        Claims claims = jwtService.decodeClaims(token);
+        assertSame(claims, jwtService.decodeClaims(token));
+
+        // the token with the same signature but other claims is verified
+        String other = jwtService.encode(ro, expiration, null, null);
+        String tampered = other.substring(0, other.lastIndexOf('.')) + token.substring(token.lastIndexOf('.'));
+        try {
+            jwtService.decodeClaims(tampered);
+            fail("SignatureException expected");
+        } catch (SignatureException e) {
+            // expected
+        }
+
+        Thread.sleep(claims.getExpiration().getTime() - System.currentTimeMillis() + 100);
+        jwtService.decodeClaims(token);
+    }
+
+    /**
+     * Login as admin user.
+     *
+     * @return the token
+     * @throws Exception throws if any error happens.
+     */
+    private String loginAdmin() throws Exception {
+        String res = mockMvc
+                .perform(
+                        post(BASE_URL)
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(getAdminLogin())))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        return objectMapper.readValue(res, LoginResponse.class).getToken();
+    }
+
+    /**
+     * Gets the key id from the token header.
+     *
+     * @param token the token
+     * @return the key id, null if missing
+     * @throws Exception throws if any error happens.
+     */
+    private String getKeyId(String token) throws Exception {
+        byte[] header = Base64.getUrlDecoder().decode(token.substring(0, token.indexOf('.')));
+        return (String) objectMapper.readValue(header, Map.class).get(JwsHeader.KEY_ID);
+    }
+
+    /**
+     * Assert the token is authorized.
+     *
+     * @param token the token
+     * @throws Exception throws if any error happens.
+     */
+    private void assertAuthorized(String token) throws Exception {
+        mockMvc
+                .perform(
+                        get(TOKEN_BASE).accept(MediaType.APPLICATION_JSON)
+                                .header(jwtConfig.getAuthHeader(), jwtConfig.getTokenPrefix() + " " + token))
+                .andExpect(status().isOk());
+    }
+
+    /**
+     * Test login method with embedded headers and refresh method.
+     *
+     * @throws Exception throws if any error happens.
+     */
+    @Test
+    public void loginWithEmbeddedHeadersAndRefresh() throws Exception {
+        setupLdapConfiguration();
+        mongoOperations.insertAll(TestData.createValidLdapHeaders());
+        mongoOperations.insert(TestData.createValidLdapPolicy());
+        LoginRequest request = getAdminLogin();
+        request.setEmbedHeaders(true);
+        String res = mockMvc
+                .perform(
+                        post(BASE_URL)
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        String token = objectMapper.readValue(res, LoginResponse.class).getToken();
+        Claims claims = jwtService.decodeClaims(token);
+        assertEquals("admin_user1", claims.getSubject());
+        Map<?, ?> headers = claims.get(JwtService.HEADERS_CLAIM, Map.class);
+        assertEquals(5, headers.size());
+        assertEquals("True", headers.get("statictrue"));
+        assertEquals("admin_user1", headers.get("dynamic_uid"));
+        long headersExpiration = claims.get(JwtService.HEADERS_EXPIRATION_CLAIM, Number.class).longValue();
+        assertTrue(headersExpiration * 1000 <= System.currentTimeMillis() + jwtConfig.getEmbeddedHeadersTtl());
+        assertTrue(headersExpiration * 1000 < claims.getExpiration().getTime());
+
+        mockMvc
+                .perform(
+                        post(BASE_URL + "/refresh"))
+                .andExpect(status().isUnauthorized());
+        res = mockMvc
+                .perform(
+                        post(BASE_URL + "/refresh")
+                                .header(jwtConfig.getAuthHeader(), jwtConfig.getTokenPrefix() + " " + token))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.user.username").value("admin_user1"))
+                .andReturn().getResponse().getContentAsString();
+        Claims refreshed = jwtService.decodeClaims(objectMapper.readValue(res, LoginResponse.class).getToken());
+        assertFalse(refreshed.getExpiration().before(claims.getExpiration()));
+        assertEquals(claims.get(JwtService.AUTH_TIME_CLAIM), refreshed.get(JwtService.AUTH_TIME_CLAIM));
+        assertEquals(headers, refreshed.get(JwtService.HEADERS_CLAIM, Map.class));
+
+        // refreshed token does not expire later than the max session age after login
+        long maxSessionAge = jwtConfig.getMaxSessionAge();
+        jwtConfig.setMaxSessionAge(60000);
+        try {
+            res = mockMvc
+                    .perform(
+                            post(BASE_URL + "/refresh")
+                                    .header(jwtConfig.getAuthHeader(), jwtConfig.getTokenPrefix() + " " + token))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString();
+            refreshed = jwtService.decodeClaims(objectMapper.readValue(res, LoginResponse.class).getToken());
+            long authTime = claims.get(JwtService.AUTH_TIME_CLAIM, Number.class).longValue();
+            assertEquals(authTime + 60, refreshed.getExpiration().getTime() / 1000);
+        } finally {
+            jwtConfig.setMaxSessionAge(maxSessionAge);
+        }
+
+        // token without embedded headers is refreshed without headers
+        request.setEmbedHeaders(false);
+        res = mockMvc
+                .perform(
+                        post(BASE_URL)
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        token = objectMapper.readValue(res, LoginResponse.class).getToken();
+        assertFalse(jwtService.decodeClaims(token).containsKey(JwtService.HEADERS_CLAIM));
+        res = mockMvc
+                .perform(
+                        post(BASE_URL + "/refresh")
+                                .header(jwtConfig.getAuthHeader(), jwtConfig.getTokenPrefix() + " " + token))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        assertFalse(jwtService.decodeClaims(objectMapper.readValue(res, LoginResponse.class).getToken())
+                .containsKey(JwtService.HEADERS_CLAIM));
+    }
+
     /**
      * Test jwt token with not found user.
      *
@@ -68,7 +68,8 @@ public class ModuleControllerTest extends BaseControllerTest<Module> {
     }
 
     /**
-     * Positive search by system id tests.
+     * Positive search by system id tests, and search with cursor sorted by a property without index on it and
+     * the id.
      *
      * @throws Exception if any error occurs
      */
@@ -88,6 +89,13 @@ public class ModuleControllerTest extends BaseControllerTest<Module> {
                                 .with(user("admin_user1").password("secret").roles(Role.Admin.toString()))) //
                 .andExpect(status().isOk()) //
                 .andExpect(content().json(expectedJson, true));
+
+        // the index on name and system cannot be read in the order of name and id
+        mockMvc //
+                .perform( //
+                        get(baseUrl + "?systemId=" + allDocuments.get(0).getSystem().getId() + "&sort=name,asc&after=")
+                                .with(user("admin_user1").password("secret").roles(Role.Admin.toString()))) //
+                .andExpect(status().is(400));
     }
 
     /**
@@ -118,7 +126,7 @@ public class ModuleControllerTest extends BaseControllerTest<Module> {
         assertEquals(objectMapper.writeValueAsString(original), objectMapper.writeValueAsString(dbDocument));
 
         // New Activity Logs added
-        List<ActivityLog> activityLogs = mongoOperations.findAll(ActivityLog.class);
+        List<ActivityLog> activityLogs = findActivityLogs();
         assertTrue(activityLogs.size() == 2);
 
         // For System
@@ -166,7 +174,7 @@ public class ModuleControllerTest extends BaseControllerTest<Module> {
 
 
         // New Activity Logs added
-        List<ActivityLog> activityLogs = mongoOperations.findAll(ActivityLog.class);
+        List<ActivityLog> activityLogs = findActivityLogs();
         assertTrue(activityLogs.size() == 2);
 
         // For System
@@ -161,7 +161,7 @@ public class PolicyControllerTest extends BaseControllerTest<Policy> {
                 objectMapper.writeValueAsString(dbDocument));
 
         // New Activity Logs added
-        List<ActivityLog> activityLogs = mongoOperations.findAll(ActivityLog.class);
+        List<ActivityLog> activityLogs = findActivityLogs();
         assertEquals(5, activityLogs.size());
 
         ActivityLog activityLog;
@@ -238,7 +238,7 @@ public class PolicyControllerTest extends BaseControllerTest<Policy> {
                 objectMapper.writeValueAsString(dbDocument));
 
         // New Activity Logs added
-        List<ActivityLog> activityLogs = mongoOperations.findAll(ActivityLog.class);
+        List<ActivityLog> activityLogs = findActivityLogs();
         assertEquals(5, activityLogs.size());
 
         ActivityLog activityLog;
@@ -372,7 +372,7 @@ public class PolicyControllerTest extends BaseControllerTest<Policy> {
                 objectMapper.writeValueAsString(dbDocument));
 
         // New Activity Logs added
-        List<ActivityLog> activityLogs = mongoOperations.findAll(ActivityLog.class);
+        List<ActivityLog> activityLogs = findActivityLogs();
         assertEquals(5, activityLogs.size());
 
         // For Headers
@@ -442,7 +442,7 @@ public class PolicyControllerTest extends BaseControllerTest<Policy> {
                 objectMapper.writeValueAsString(dbDocument));
 
         // New Activity Logs added
-        List<ActivityLog> activityLogs = mongoOperations.findAll(ActivityLog.class);
+        List<ActivityLog> activityLogs = findActivityLogs();
         assertEquals(5, activityLogs.size());
 
         // For Headers
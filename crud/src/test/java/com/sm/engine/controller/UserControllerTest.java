@@ -1,20 +1,31 @@
 package com.sm.engine.controller;
 
 import com.sm.engine.TestData;
+import com.sm.engine.config.SearchConfig;
 import com.sm.engine.domain.Role;
 import com.sm.engine.domain.User;
 import com.sm.engine.domain.support.SearchResult;
+import com.sm.engine.service.SearchIndexService;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.MediaType;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 /**
@@ -28,6 +39,18 @@ public class UserControllerTest extends BaseControllerTest<User> {
      */
     private List<User> allDocuments = TestData.generateUsers();
 
+    /**
+     * The search index service.
+     */
+    @Autowired
+    private SearchIndexService searchIndexService;
+
+    /**
+     * The search config.
+     */
+    @Autowired
+    private SearchConfig searchConfig;
+
     /**
      * Creates a new instance.
      */
@@ -69,6 +92,69 @@ public class UserControllerTest extends BaseControllerTest<User> {
                 .andExpect(status().is(403));
     }
 
+    /**
+     * Substring search with the search index.
+     *
+     * @throws Exception if any error occurs
+     */
+    @Test
+    public void searchSubstring() throws Exception {
+        assertSearch("_user1", allDocuments.stream().filter(u -> u.getUsername().contains("_user1"))
+                .collect(Collectors.toList()));
+        assertSearch("r1", allDocuments.stream().filter(u -> u.getUsername().contains("r1"))
+                .collect(Collectors.toList()));
+        // the search is still case sensitive
+        assertSearch("USER", Collections.emptyList());
+
+        // the search tokens are updated on write
+        User user = allDocuments.get(0);
+        user.setUsername("ro_renamed");
+        mockMvc.perform(put(baseUrl + "/" + user.getId())
+                .with(user("admin_user1").password("secret").roles(Role.Admin.toString()))
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(user)))
+                .andExpect(status().isOk());
+        assertSearch("renamed", Collections.singletonList(mongoOperations.findById(user.getId(), User.class)));
+        assertSearch("ro_user1", Collections.emptyList());
+
+        // documents saved without search tokens are indexed on load
+        searchIndexService.load();
+        mongoOperations.updateFirst(new Query(Criteria.where("id").is(user.getId())),
+                new Update().unset(SearchIndexService.TOKENS_FIELD), User.class);
+        assertSearch("renamed", Collections.emptyList());
+        searchIndexService.load();
+        assertSearch("renamed", Collections.singletonList(mongoOperations.findById(user.getId(), User.class)));
+
+        // documents are indexed in several batches
+        mongoOperations.updateMulti(new Query(), new Update().unset(SearchIndexService.TOKENS_FIELD), User.class);
+        int indexBatchSize = searchConfig.getIndexBatchSize();
+        searchConfig.setIndexBatchSize(1);
+        try {
+            searchIndexService.load();
+        } finally {
+            searchConfig.setIndexBatchSize(indexBatchSize);
+        }
+        assertSearch("user", mongoOperations.findAll(User.class).stream()
+                .filter(u -> u.getUsername().contains("user")).collect(Collectors.toList()));
+    }
+
+    /**
+     * Search users by username and assert the users found.
+     *
+     * @param username the username to search by substring
+     * @param expected the expected users sorted by username
+     * @throws Exception if any error occurs
+     */
+    private void assertSearch(String username, List<User> expected) throws Exception {
+        List<User> users = expected.stream().sorted(Comparator.comparing(User::getUsername))
+                .collect(Collectors.toList());
+        mockMvc.perform(get(baseUrl + "?sort=username,asc&username=" + username)
+                .with(user("admin_user1").password("secret").roles(Role.Admin.toString())))
+                .andExpect(status().isOk())
+                .andExpect(content().json(objectMapper.writeValueAsString(
+                        new SearchResult<>(users.size(), users)), true));
+    }
+
     /**
      * Gets expected result for search tests.
      *
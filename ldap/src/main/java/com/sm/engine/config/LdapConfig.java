@@ -5,6 +5,7 @@ import lombok.Setter;
 import org.hibernate.validator.constraints.NotBlank;
 import org.springframework.ldap.query.SearchScope;
 
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
 /**
@@ -54,4 +55,78 @@ public class LdapConfig {
      * The ldap server search scope.
      */
     private SearchScope searchScope;
-}
\ No newline at end of file
+
+    /**
+     * The flag whether connections to ldap server are pooled.
+     */
+    private Boolean pooled;
+
+    /**
+     * The max number of active connections in pool.
+     */
+    @Min(1)
+    private Integer poolMaxActive;
+
+    /**
+     * The max number of idle connections in pool.
+     */
+    @Min(0)
+    private Integer poolMaxIdle;
+
+    /**
+     * The min number of idle connections in pool.
+     */
+    @Min(0)
+    private Integer poolMinIdle;
+
+    /**
+     * The max time in milliseconds to wait for a connection from pool.
+     */
+    @Min(0)
+    private Long poolMaxWait;
+
+    /**
+     * The flag whether pooled connections are validated before borrowed.
+     */
+    private Boolean poolTestOnBorrow;
+
+    /**
+     * The flag whether idle pooled connections are validated by the evictor.
+     */
+    private Boolean poolTestWhileIdle;
+
+    /**
+     * The time in milliseconds between runs of the idle connection evictor, not run if not positive.
+     */
+    private Long poolEvictionRunInterval;
+
+    /**
+     * The min time in milliseconds a connection may sit idle in pool before it is evicted.
+     */
+    @Min(1)
+    private Long poolMinEvictableIdleTime;
+
+    /**
+     * The time in milliseconds a rule evaluate result is cached, not cached if zero.
+     */
+    @Min(0)
+    private Long ruleCacheTtl;
+
+    /**
+     * The max number of rule evaluate results cached.
+     */
+    @Min(1)
+    private Long ruleCacheMaxSize;
+
+    /**
+     * The max number of rules evaluated concurrently, capped to the pool max active connections less one if pooled.
+     */
+    @Min(1)
+    private Integer ruleEvaluateConcurrency;
+
+    /**
+     * The max time in milliseconds to wait for the rules of one batch to be evaluated.
+     */
+    @Min(1)
+    private Long ruleEvaluateTimeout;
+}
@@ -0,0 +1,53 @@
+package com.sm.engine.domain;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * The ldap connection pool statistics.
+ */
+@Getter
+@Setter
+@ToString
+public class LdapPoolStats {
+    /**
+     * The number of connections currently borrowed from pool.
+     */
+    private int numActive;
+
+    /**
+     * The number of idle connections in pool.
+     */
+    private int numIdle;
+
+    /**
+     * The number of threads currently waiting for a connection.
+     */
+    private int numWaiters;
+
+    /**
+     * The mean time in milliseconds spent waiting for a connection over recent borrows.
+     */
+    private long meanBorrowWaitTimeMillis;
+
+    /**
+     * The max time in milliseconds spent waiting for a connection.
+     */
+    private long maxBorrowWaitTimeMillis;
+
+    /**
+     * The total number of connections borrowed from pool.
+     */
+    private long borrowedCount;
+
+    /**
+     * The total number of connections created by pool.
+     */
+    private long createdCount;
+
+    /**
+     * The total number of connections destroyed by pool, including connections failed validation.
+     */
+    private long destroyedCount;
+}
@@ -0,0 +1,29 @@
+package com.sm.engine.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+import java.util.Map;
+
+/**
+ * The ldap user found with attributes.
+ */
+@Getter
+@Setter
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor
+public class LdapUser {
+    /**
+     * The user dn.
+     */
+    private String dn;
+
+    /**
+     * The user attributes.
+     */
+    private Map<String, Object> attributes;
+}
@@ -0,0 +1,33 @@
+package com.sm.engine.domain;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * The rule evaluate result cache statistics.
+ */
+@Getter
+@Setter
+@ToString
+public class RuleCacheStats {
+    /**
+     * The number of rule evaluations answered from cache.
+     */
+    private long hitCount;
+
+    /**
+     * The number of rule evaluations searched in ldap server.
+     */
+    private long missCount;
+
+    /**
+     * The number of results evicted by size or expiry.
+     */
+    private long evictionCount;
+
+    /**
+     * The approximate number of results cached.
+     */
+    private long size;
+}
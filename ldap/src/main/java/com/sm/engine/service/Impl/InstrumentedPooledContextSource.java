@@ -0,0 +1,53 @@
+package com.sm.engine.service.Impl;
+
+import com.sm.engine.domain.LdapPoolStats;
+import org.springframework.ldap.pool2.factory.PoolConfig;
+import org.springframework.ldap.pool2.factory.PooledContextSource;
+
+import javax.naming.directory.DirContext;
+
+/**
+ * The pooled context source exposes pool statistics and binds users with new connections.
+ */
+class InstrumentedPooledContextSource extends PooledContextSource {
+
+    /**
+     * Create pooled context source with the pool config.
+     *
+     * @param poolConfig the pool config
+     */
+    InstrumentedPooledContextSource(PoolConfig poolConfig) {
+        super(poolConfig);
+    }
+
+    /**
+     * Get context authenticated as the principal.
+     * Connections bound as users must not be shared so they are created by the target context source.
+     *
+     * @param principal   the principal
+     * @param credentials the credentials
+     * @return the context authenticated as the principal
+     */
+    @Override
+    public DirContext getContext(String principal, String credentials) {
+        return getContextSource().getContext(principal, credentials);
+    }
+
+    /**
+     * Get the pool statistics.
+     *
+     * @return the pool statistics
+     */
+    LdapPoolStats getStats() {
+        LdapPoolStats stats = new LdapPoolStats();
+        stats.setNumActive(keyedObjectPool.getNumActive());
+        stats.setNumIdle(keyedObjectPool.getNumIdle());
+        stats.setNumWaiters(keyedObjectPool.getNumWaiters());
+        stats.setMeanBorrowWaitTimeMillis(keyedObjectPool.getMeanBorrowWaitTimeMillis());
+        stats.setMaxBorrowWaitTimeMillis(keyedObjectPool.getMaxBorrowWaitTimeMillis());
+        stats.setBorrowedCount(keyedObjectPool.getBorrowedCount());
+        stats.setCreatedCount(keyedObjectPool.getCreatedCount());
+        stats.setDestroyedCount(keyedObjectPool.getDestroyedCount());
+        return stats;
+    }
+}
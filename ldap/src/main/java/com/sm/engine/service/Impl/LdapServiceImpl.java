@@ -1,13 +1,22 @@
 package com.sm.engine.service.Impl;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import com.sm.engine.config.LdapConfig;
+import com.sm.engine.domain.LdapPoolStats;
+import com.sm.engine.domain.LdapUser;
+import com.sm.engine.domain.RuleCacheStats;
 import com.sm.engine.domain.UserAttributesRequest;
 import com.sm.engine.service.LdapService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.dao.IncorrectResultSizeDataAccessException;
+import org.springframework.ldap.NameNotFoundException;
 import org.springframework.ldap.NamingException;
+import org.springframework.ldap.TimeLimitExceededException;
 import org.springframework.ldap.core.AttributesMapper;
+import org.springframework.ldap.core.ContextSource;
 import org.springframework.ldap.core.DirContextAdapter;
 import org.springframework.ldap.core.DirContextOperations;
 import org.springframework.ldap.core.LdapTemplate;
@@ -15,11 +24,26 @@ import org.springframework.ldap.core.support.AbstractContextMapper;
 import org.springframework.ldap.core.support.CountNameClassPairCallbackHandler;
 import org.springframework.ldap.core.support.LdapContextSource;
 import org.springframework.ldap.filter.EqualsFilter;
+import org.springframework.ldap.pool2.factory.PoolConfig;
+import org.springframework.ldap.pool2.validation.DefaultDirContextValidator;
+import org.springframework.ldap.query.ContainerCriteria;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
 import javax.naming.directory.SearchControls;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static org.springframework.ldap.query.LdapQueryBuilder.query;
 
@@ -33,6 +57,41 @@ public class LdapServiceImpl implements LdapService {
      */
     private static final Logger LOG = LoggerFactory.getLogger(LdapServiceImpl.class);
 
+    /**
+     * The default max time in milliseconds to wait for a pooled connection.
+     */
+    private static final long DEFAULT_POOL_MAX_WAIT = 5000;
+
+    /**
+     * The default time in milliseconds a rule evaluate result is cached.
+     */
+    private static final long DEFAULT_RULE_CACHE_TTL = 60000;
+
+    /**
+     * The default max number of rule evaluate results cached.
+     */
+    private static final long DEFAULT_RULE_CACHE_MAX_SIZE = 10000;
+
+    /**
+     * The default max number of rules evaluated concurrently in one batch.
+     */
+    private static final int DEFAULT_RULE_EVALUATE_CONCURRENCY = 4;
+
+    /**
+     * The default max time in milliseconds to wait for the rules of one batch to be evaluated.
+     */
+    private static final long DEFAULT_RULE_EVALUATE_TIMEOUT = 10000;
+
+    /**
+     * The number of rule searches queued per rule evaluate thread before callers search themselves.
+     */
+    private static final int RULE_QUEUE_SIZE_PER_THREAD = 16;
+
+    /**
+     * The number of pooled connections left to authentications and user lookups while rules are evaluated.
+     */
+    private static final int RESERVED_POOL_CONNECTIONS = 1;
+
     /**
      * The ldap template.
      */
@@ -43,6 +102,22 @@ public class LdapServiceImpl implements LdapService {
      */
     private LdapConfig ldapConfig;
 
+    /**
+     * The pooled context source, null if connections are not pooled.
+     */
+    private InstrumentedPooledContextSource pooledContextSource;
+
+    /**
+     * The rule evaluate result cache, null if rule results are not cached.
+     * Rule results do not depend on user so they are shared by all evaluations.
+     */
+    private Cache<String, Boolean> ruleCache;
+
+    /**
+     * The executor to evaluate rules of a batch concurrently.
+     */
+    private ExecutorService ruleExecutor;
+
     /**
      * The ldap service constructor to inject ldap config and build ldap template.
      *
@@ -57,8 +132,15 @@ public class LdapServiceImpl implements LdapService {
         cs.setUserDn(ldapConfig.getUserDn());
         cs.setPassword(ldapConfig.getPassword());
         cs.afterPropertiesSet();
-        template = new LdapTemplate(cs);
+        ContextSource contextSource = cs;
+        if (Boolean.TRUE.equals(ldapConfig.getPooled())) {
+            pooledContextSource = buildPooledContextSource(cs);
+            contextSource = pooledContextSource;
+        }
+        template = new LdapTemplate(contextSource);
         template.setDefaultSearchScope(ldapConfig.getSearchScope().getId());
+        ruleCache = buildRuleCache();
+        ruleExecutor = buildRuleExecutor();
     }
 
     /**
@@ -95,6 +177,35 @@ public class LdapServiceImpl implements LdapService {
     }
 
 
+    /**
+     * Find user dn and attributes by user name in one search.
+     *
+     * @param username   the username
+     * @param attributes the user attributes to return
+     * @return the match ldap user and null if not found.
+     */
+    @Override
+    public LdapUser findUser(String username, String[] attributes) {
+        List<LdapUser> users = template.search(
+                query().base(ldapConfig.getUserSearchBase())
+                        .searchScope(ldapConfig.getSearchScope())
+                        .attributes(attributes)
+                        .filter(buildUsernameFilter(username)),
+                new AbstractContextMapper<LdapUser>() {
+                    @Override
+                    protected LdapUser doMapFromContext(DirContextOperations ctx) {
+                        return new LdapUser(ctx.getDn().toString(), mapAttributes(ctx, attributes));
+                    }
+                });
+        if (users.size() != 1) {
+            if (users.size() > 1) {
+                LOG.error("Found {} ldap users with username '{}'", users.size(), username);
+            }
+            return null;
+        }
+        return users.get(0);
+    }
+
     /**
      * List ldap users.
      *
@@ -102,12 +213,25 @@ public class LdapServiceImpl implements LdapService {
      */
     @Override
     public List<String> listUsers() {
+        return searchUsers(Collections.emptyMap());
+    }
+
+    /**
+     * Search ldap users having all the attribute values.
+     *
+     * @param attributeValues the attribute values by attribute name, all users if empty
+     * @return the usernames of matched ldap users.
+     */
+    @Override
+    public List<String> searchUsers(Map<String, String> attributeValues) {
         String attribute = ldapConfig.getUserAttribute();
-        return template.search(
-                query().attributes(attribute)
-                        .base(ldapConfig.getUserSearchBase())
-                        .where(attribute).isPresent(),
-                (AttributesMapper<String>) attrs -> (String) attrs.get(attribute).get());
+        ContainerCriteria criteria = query().attributes(attribute)
+                .base(ldapConfig.getUserSearchBase())
+                .where(attribute).isPresent();
+        for (Map.Entry<String, String> entry : attributeValues.entrySet()) {
+            criteria = criteria.and(entry.getKey()).is(entry.getValue());
+        }
+        return template.search(criteria, (AttributesMapper<String>) attrs -> (String) attrs.get(attribute).get());
     }
 
     /**
@@ -119,19 +243,75 @@ public class LdapServiceImpl implements LdapService {
     @Override
     public boolean evaluateRule(String rule) {
         try {
-            SearchControls ctls = new SearchControls();
-            // use count limit to speed up
-            ctls.setCountLimit(1);
-            ctls.setSearchScope(ldapConfig.getSearchScope().getId());
-            CountNameClassPairCallbackHandler handler = new CountNameClassPairCallbackHandler();
-            template.search(rule, "objectclass=*", ctls, handler);
-            return handler.getNoOfRows() > 0;
+            if (ruleCache == null) {
+                return searchRule(rule, 0);
+            }
+            // failed searches other than not found rule dn are not cached
+            return ruleCache.get(rule, key -> searchRule(key, 0));
         } catch (NamingException ex) {
             LOG.error("Error happened during evaluating rule", ex);
             return false;
         }
     }
 
+    /**
+     * Evaluate rules concurrently.
+     * Cached results are used first, then each distinct remaining rule is searched once
+     * and the searches run concurrently on separate connections.
+     *
+     * @param rules the rules.
+     * @return the evaluate results in the order of rules, true if rule is valid otherwise false.
+     * @throws TimeLimitExceededException if the rules are not evaluated in time.
+     * @throws IllegalStateException if the service is closed.
+     */
+    @Override
+    public boolean[] evaluateRules(List<String> rules) {
+        boolean[] result = new boolean[rules.size()];
+        // distinct rules not cached to the indexes in rules
+        Map<String, List<Integer>> pending = new LinkedHashMap<>();
+        for (int i = 0; i < rules.size(); i++) {
+            String rule = rules.get(i);
+            Boolean cached = ruleCache == null ? null : ruleCache.getIfPresent(rule);
+            if (cached != null) {
+                result[i] = cached;
+            } else {
+                pending.computeIfAbsent(rule, key -> new ArrayList<>()).add(i);
+            }
+        }
+        long timeout = ldapConfig.getRuleEvaluateTimeout() != null
+                ? ldapConfig.getRuleEvaluateTimeout() : DEFAULT_RULE_EVALUATE_TIMEOUT;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        if (pending.size() == 1) {
+            // no need to switch thread for single search
+            String rule = pending.keySet().iterator().next();
+            boolean value = loadRule(rule, deadline);
+            pending.get(rule).forEach(index -> result[index] = value);
+        } else if (!pending.isEmpty()) {
+            Map<String, CompletableFuture<Boolean>> futures = new LinkedHashMap<>();
+            pending.keySet().forEach(rule -> futures.put(rule, submitRule(rule, deadline)));
+            try {
+                for (Map.Entry<String, CompletableFuture<Boolean>> entry : futures.entrySet()) {
+                    boolean value = entry.getValue().get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    pending.get(entry.getKey()).forEach(index -> result[index] = value);
+                }
+            } catch (TimeoutException | InterruptedException ex) {
+                if (ex instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+                futures.values().forEach(future -> future.cancel(true));
+                javax.naming.TimeLimitExceededException cause = new javax.naming.TimeLimitExceededException(
+                        "Rules were not evaluated within " + timeout + " ms");
+                throw new TimeLimitExceededException(cause);
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ex.getCause();
+                }
+                throw new IllegalStateException("Error happened during evaluating rules", ex.getCause());
+            }
+        }
+        return result;
+    }
+
     /**
      * Get user attributes.
      *
@@ -143,22 +323,242 @@ public class LdapServiceImpl implements LdapService {
         return template.lookup(request.getUserDN(), request.getAttributes(), new AbstractContextMapper<Map<String, Object>>() {
             @Override
             protected Map<String, Object> doMapFromContext(DirContextOperations ctx) {
-                Map<String, Object> result = new HashMap<>();
-                for (String key : request.getAttributes()) {
-                    String[] values = ctx.getStringAttributes(key);
-                    if (values != null && values.length > 1) {
-                        // real multi values
-                        result.put(key, values);
-                    } else {
-                        // single value
-                        result.put(key, ctx.getStringAttribute(key));
-                    }
-                }
-                return result;
+                return mapAttributes(ctx, request.getAttributes());
             }
         });
     }
 
+    /**
+     * Get connection pool statistics.
+     *
+     * @return the connection pool statistics, null if connections are not pooled.
+     */
+    @Override
+    public LdapPoolStats getPoolStats() {
+        return pooledContextSource == null ? null : pooledContextSource.getStats();
+    }
+
+    /**
+     * Get rule evaluate result cache statistics.
+     *
+     * @return the rule evaluate result cache statistics, null if rule results are not cached.
+     */
+    @Override
+    public RuleCacheStats getRuleCacheStats() {
+        if (ruleCache == null) {
+            return null;
+        }
+        CacheStats cacheStats = ruleCache.stats();
+        RuleCacheStats stats = new RuleCacheStats();
+        stats.setHitCount(cacheStats.hitCount());
+        stats.setMissCount(cacheStats.missCount());
+        stats.setEvictionCount(cacheStats.evictionCount());
+        stats.setSize(ruleCache.estimatedSize());
+        return stats;
+    }
+
+    /**
+     * Get the time rule evaluate results are cached.
+     *
+     * @return the time in milliseconds, zero if rule results are not cached.
+     */
+    @Override
+    public long getRuleCacheTtl() {
+        long ttl = ldapConfig.getRuleCacheTtl() != null ? ldapConfig.getRuleCacheTtl() : DEFAULT_RULE_CACHE_TTL;
+        return Math.max(ttl, 0);
+    }
+
+    /**
+     * Discard all cached rule evaluate results.
+     */
+    @Override
+    public void invalidateRuleCache() {
+        if (ruleCache != null) {
+            ruleCache.invalidateAll();
+        }
+    }
+
+    /**
+     * Release the connections held by the service.
+     */
+    @Override
+    public void close() {
+        ruleExecutor.shutdown();
+        if (pooledContextSource != null) {
+            try {
+                pooledContextSource.destroy();
+            } catch (Exception ex) {
+                LOG.error("Error happened during closing ldap connection pool", ex);
+            }
+        }
+    }
+
+    /**
+     * Build pooled context source with the pool settings of ldap config.
+     *
+     * @param contextSource the target context source
+     * @return the pooled context source
+     */
+    private InstrumentedPooledContextSource buildPooledContextSource(ContextSource contextSource) {
+        PoolConfig poolConfig = new PoolConfig();
+        if (ldapConfig.getPoolMaxActive() != null) {
+            poolConfig.setMaxTotalPerKey(ldapConfig.getPoolMaxActive());
+        }
+        if (ldapConfig.getPoolMaxIdle() != null) {
+            poolConfig.setMaxIdlePerKey(ldapConfig.getPoolMaxIdle());
+        }
+        if (ldapConfig.getPoolMinIdle() != null) {
+            poolConfig.setMinIdlePerKey(ldapConfig.getPoolMinIdle());
+        }
+        poolConfig.setMaxWaitMillis(ldapConfig.getPoolMaxWait() != null
+                ? ldapConfig.getPoolMaxWait() : DEFAULT_POOL_MAX_WAIT);
+        poolConfig.setTestOnBorrow(Boolean.TRUE.equals(ldapConfig.getPoolTestOnBorrow()));
+        poolConfig.setTestWhileIdle(Boolean.TRUE.equals(ldapConfig.getPoolTestWhileIdle()));
+        if (ldapConfig.getPoolEvictionRunInterval() != null) {
+            poolConfig.setTimeBetweenEvictionRunsMillis(ldapConfig.getPoolEvictionRunInterval());
+        }
+        if (ldapConfig.getPoolMinEvictableIdleTime() != null) {
+            poolConfig.setMinEvictableIdleTimeMillis(ldapConfig.getPoolMinEvictableIdleTime());
+        }
+        InstrumentedPooledContextSource pooled = new InstrumentedPooledContextSource(poolConfig);
+        pooled.setContextSource(contextSource);
+        pooled.setDirContextValidator(new DefaultDirContextValidator());
+        return pooled;
+    }
+
+    /**
+     * Build the executor to evaluate rules concurrently.
+     * The threads are capped below the pool max active connections if pooled, so a batch does not hold every
+     * connection, and the queue is bounded, callers search themselves when it is full.
+     *
+     * @return the rule evaluate executor
+     */
+    private ExecutorService buildRuleExecutor() {
+        int threads = ldapConfig.getRuleEvaluateConcurrency() != null
+                ? ldapConfig.getRuleEvaluateConcurrency() : DEFAULT_RULE_EVALUATE_CONCURRENCY;
+        if (pooledContextSource != null && ldapConfig.getPoolMaxActive() != null
+                && ldapConfig.getPoolMaxActive() > 0) {
+            threads = Math.min(threads, Math.max(1, ldapConfig.getPoolMaxActive() - RESERVED_POOL_CONNECTIONS));
+        }
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("ldap-rule-evaluate-");
+        threadFactory.setDaemon(true);
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * RULE_QUEUE_SIZE_PER_THREAD), threadFactory,
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Submit the rule search to the rule evaluate executor, or search in the caller thread if its queue is full.
+     *
+     * @param rule     the rule.
+     * @param deadline the batch deadline in nano time.
+     * @return the future of the rule evaluate result.
+     * @throws IllegalStateException throws if the service is closed.
+     * @throws TimeLimitExceededException throws if the rule is searched in the caller thread and not in time.
+     */
+    private CompletableFuture<Boolean> submitRule(String rule, long deadline) {
+        try {
+            return CompletableFuture.supplyAsync(() -> loadRule(rule, deadline), ruleExecutor);
+        } catch (RejectedExecutionException ex) {
+            if (ruleExecutor.isShutdown()) {
+                throw new IllegalStateException("The ldap service is closed", ex);
+            }
+            return CompletableFuture.completedFuture(loadRule(rule, deadline));
+        }
+    }
+
+    /**
+     * Build rule evaluate result cache with the cache settings of ldap config.
+     *
+     * @return the rule evaluate result cache, null if rule results are not cached
+     */
+    private Cache<String, Boolean> buildRuleCache() {
+        long ttl = getRuleCacheTtl();
+        if (ttl == 0) {
+            return null;
+        }
+        return Caffeine.newBuilder()
+                .expireAfterWrite(ttl, TimeUnit.MILLISECONDS)
+                .maximumSize(ldapConfig.getRuleCacheMaxSize() != null
+                        ? ldapConfig.getRuleCacheMaxSize() : DEFAULT_RULE_CACHE_MAX_SIZE)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Search rule within the time left to the batch deadline and cache the result.
+     *
+     * @param rule     the rule.
+     * @param deadline the batch deadline in nano time.
+     * @return true if rule is valid otherwise false.
+     * @throws TimeLimitExceededException throws if the rule is not searched before the deadline.
+     */
+    private boolean loadRule(String rule, long deadline) {
+        long timeLimit = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (timeLimit <= 0) {
+            throw new TimeLimitExceededException(new javax.naming.TimeLimitExceededException(
+                    "Rule was not searched before the batch deadline"));
+        }
+        try {
+            boolean value = searchRule(rule, (int) Math.min(timeLimit, Integer.MAX_VALUE));
+            if (ruleCache != null) {
+                ruleCache.put(rule, value);
+            }
+            return value;
+        } catch (TimeLimitExceededException ex) {
+            throw ex;
+        } catch (NamingException ex) {
+            LOG.error("Error happened during evaluating rule", ex);
+            return false;
+        }
+    }
+
+    /**
+     * Search whether any entry exists under the rule dn.
+     *
+     * @param rule      the rule.
+     * @param timeLimit the time limit in milliseconds, 0 for no limit.
+     * @return true if any entry exists otherwise false.
+     * @throws NamingException throws if any other error happens during search.
+     */
+    private boolean searchRule(String rule, int timeLimit) {
+        SearchControls ctls = new SearchControls();
+        // use count limit to speed up
+        ctls.setCountLimit(1);
+        ctls.setTimeLimit(timeLimit);
+        ctls.setSearchScope(ldapConfig.getSearchScope().getId());
+        CountNameClassPairCallbackHandler handler = new CountNameClassPairCallbackHandler();
+        try {
+            template.search(rule, "objectclass=*", ctls, handler);
+        } catch (NameNotFoundException ex) {
+            LOG.debug("Rule dn '{}' is not found", rule);
+            return false;
+        }
+        return handler.getNoOfRows() > 0;
+    }
+
+    /**
+     * Map the requested attributes of ldap entry.
+     *
+     * @param ctx        the ldap entry context
+     * @param attributes the requested attributes
+     * @return the attribute values by requested attribute name.
+     */
+    private static Map<String, Object> mapAttributes(DirContextOperations ctx, String[] attributes) {
+        Map<String, Object> result = new HashMap<>();
+        for (String key : attributes) {
+            String[] values = ctx.getStringAttributes(key);
+            if (values != null && values.length > 1) {
+                // real multi values
+                result.put(key, values);
+            } else {
+                // single value
+                result.put(key, ctx.getStringAttribute(key));
+            }
+        }
+        return result;
+    }
+
     /**
      * Build username filter.
      *
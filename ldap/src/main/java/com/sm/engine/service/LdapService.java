@@ -1,5 +1,8 @@
 package com.sm.engine.service;
 
+import com.sm.engine.domain.LdapPoolStats;
+import com.sm.engine.domain.LdapUser;
+import com.sm.engine.domain.RuleCacheStats;
 import com.sm.engine.domain.UserAttributesRequest;
 
 import java.util.List;
@@ -27,6 +30,15 @@ public interface LdapService {
      */
     String findUserDN(String username);
 
+    /**
+     * Find user dn and attributes by user name in one search.
+     *
+     * @param username   the username
+     * @param attributes the user attributes to return
+     * @return the match ldap user and null if not found.
+     */
+    LdapUser findUser(String username, String[] attributes);
+
     /**
      * List ldap users.
      *
@@ -34,6 +46,14 @@ public interface LdapService {
      */
     List<String> listUsers();
 
+    /**
+     * Search ldap users having all the attribute values.
+     *
+     * @param attributeValues the attribute values by attribute name, all users if empty
+     * @return the usernames of matched ldap users.
+     */
+    List<String> searchUsers(Map<String, String> attributeValues);
+
     /**
      * Evaluate rule.
      *
@@ -42,6 +62,16 @@ public interface LdapService {
      */
     boolean evaluateRule(String rule);
 
+    /**
+     * Evaluate rules concurrently.
+     *
+     * @param rules the rules.
+     * @return the evaluate results in the order of rules, true if rule is valid otherwise false.
+     * @throws org.springframework.ldap.TimeLimitExceededException if the rules are not evaluated in time.
+     * @throws IllegalStateException if the service is closed.
+     */
+    boolean[] evaluateRules(List<String> rules);
+
     /**
      * Get user attributes.
      *
@@ -49,4 +79,35 @@ public interface LdapService {
      * @return the user attributes.
      */
     Map<String, Object> getUserAttributes(UserAttributesRequest request);
+
+    /**
+     * Get connection pool statistics.
+     *
+     * @return the connection pool statistics, null if connections are not pooled.
+     */
+    LdapPoolStats getPoolStats();
+
+    /**
+     * Get rule evaluate result cache statistics.
+     *
+     * @return the rule evaluate result cache statistics, null if rule results are not cached.
+     */
+    RuleCacheStats getRuleCacheStats();
+
+    /**
+     * Get the time rule evaluate results are cached.
+     *
+     * @return the time in milliseconds, zero if rule results are not cached.
+     */
+    long getRuleCacheTtl();
+
+    /**
+     * Discard all cached rule evaluate results.
+     */
+    void invalidateRuleCache();
+
+    /**
+     * Release the connections held by the service.
+     */
+    void close();
 }
@@ -2,6 +2,9 @@ package com.sm.engine.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.sm.engine.config.LdapConfig;
+import com.sm.engine.domain.LdapPoolStats;
+import com.sm.engine.domain.LdapUser;
+import com.sm.engine.domain.RuleCacheStats;
 import com.sm.engine.domain.UserAttributesRequest;
 import com.sm.engine.service.Impl.LdapServiceImpl;
 import org.junit.Before;
@@ -17,14 +20,20 @@ import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import static junit.framework.TestCase.assertFalse;
 import static junit.framework.TestCase.assertTrue;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 
 
 /**
@@ -93,15 +102,7 @@ public class LdapServiceTest {
     @Before
     public void setup() {
         if(service == null){
-            LdapConfig config = new LdapConfig();
-            config.setUrl(url);
-            config.setRoot(root);
-            config.setUserDn(userDn);
-            config.setPassword(password);
-            config.setUserSearchBase(userSearchBase);
-            config.setUserAttribute(userAttribute);
-            config.setSearchScope(SearchScope.SUBTREE);
-            service = new LdapServiceImpl(config);
+            service = new LdapServiceImpl(createConfig());
         }
         ObjectMapper objectMapper = new ObjectMapper();
        JacksonTester.initFields(this, objectMapper);
@@ -141,6 +142,23 @@ public class LdapServiceTest {
     }
 
 
+    /**
+     * Test find user method.
+     *
+     * @throws Exception throws if any error happens
+     */
+    @Test
+    public void findUser() throws Exception {
+        LdapUser user = service.findUser("ben", new String[]{"sn", "cn", "uid", "objectclass"});
+        assertEquals("uid=ben,ou=people", user.getDn());
+        assertThat(mapJacksonTester.write(user.getAttributes()))
+                .isEqualToJson("userAttributesResult.json");
+        user = service.findUser("ben", new String[0]);
+        assertEquals("uid=ben,ou=people", user.getDn());
+        assertTrue(user.getAttributes().isEmpty());
+        assertNull(service.findUser("notexist", new String[]{"sn"}));
+    }
+
     /**
      * Test list users method.
      *
@@ -152,6 +170,24 @@ public class LdapServiceTest {
                 .isEqualToJson("users.json");
     }
 
+    /**
+     * Test search users method.
+     *
+     * @throws Exception throws if any error happens.
+     */
+    @Test
+    public void searchUsers() throws Exception {
+        assertThat(listJacksonTester.write(service.searchUsers(Collections.emptyMap())))
+                .isEqualToJson("users.json");
+        Map<String, String> attributeValues = new LinkedHashMap<>();
+        attributeValues.put("sn", "alex");
+        assertEquals(Collections.singletonList("ben"), service.searchUsers(attributeValues));
+        attributeValues.put("objectclass", "inetOrgPerson");
+        assertEquals(Collections.singletonList("ben"), service.searchUsers(attributeValues));
+        attributeValues.put("cn", "Bob Hamilton");
+        assertTrue(service.searchUsers(attributeValues).isEmpty());
+    }
+
     /**
      * Test evaluate rule method.
      *
@@ -163,6 +199,61 @@ public class LdapServiceTest {
         assertTrue(service.evaluateRule("uid=joe,ou=otherpeople"));
     }
 
+    /**
+     * Test evaluate rule method with cached results.
+     *
+     * @throws Exception throws if any error happens.
+     */
+    @Test
+    public void evaluateRuleCached() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            assertFalse(service.evaluateRule("cn = CS Agent;ou = PartnerWEB"));
+            assertTrue(service.evaluateRule("uid=joe,ou=otherpeople"));
+        }
+        RuleCacheStats stats = service.getRuleCacheStats();
+        assertEquals(2, stats.getMissCount());
+        assertEquals(4, stats.getHitCount());
+        assertEquals(2, stats.getSize());
+
+        service.invalidateRuleCache();
+        assertTrue(service.evaluateRule("uid=joe,ou=otherpeople"));
+        assertEquals(3, service.getRuleCacheStats().getMissCount());
+
+        LdapConfig config = createConfig();
+        config.setRuleCacheTtl(0L);
+        LdapService uncachedService = new LdapServiceImpl(config);
+        assertTrue(uncachedService.evaluateRule("uid=joe,ou=otherpeople"));
+        assertNull(uncachedService.getRuleCacheStats());
+    }
+
+    /**
+     * Test evaluate rules method.
+     *
+     * @throws Exception throws if any error happens.
+     */
+    @Test
+    public void evaluateRules() throws Exception {
+        assertArrayEquals(new boolean[0], service.evaluateRules(Arrays.asList()));
+        assertArrayEquals(new boolean[]{true},
+                service.evaluateRules(Arrays.asList("uid=joe,ou=otherpeople")));
+        List<String> rules = Arrays.asList("cn = CS Agent;ou = PartnerWEB", "uid=joe,ou=otherpeople",
+                "uid=ben,ou=people", "cn = CS Agent;ou = PartnerWEB", "uid=notexist,ou=people");
+        assertArrayEquals(new boolean[]{false, true, true, false, false}, service.evaluateRules(rules));
+        // every distinct rule is searched once
+        assertEquals(4, service.getRuleCacheStats().getSize());
+        assertArrayEquals(new boolean[]{false, true, true, false, false}, service.evaluateRules(rules));
+        assertEquals(4, service.getRuleCacheStats().getSize());
+        service.close();
+        // rules are not searched by a closed service
+        service.invalidateRuleCache();
+        try {
+            service.evaluateRules(rules);
+            fail("rules evaluated by closed service");
+        } catch (IllegalStateException ex) {
+            assertEquals("The ldap service is closed", ex.getMessage());
+        }
+    }
+
     /**
      * Test get user attributes method.
      *
@@ -176,4 +267,52 @@ public class LdapServiceTest {
         assertThat(mapJacksonTester.write(service.getUserAttributes(request)))
                 .isEqualToJson("userAttributesResult.json");
     }
+
+    /**
+     * Test pooled ldap service.
+     *
+     * @throws Exception throws if any error happens.
+     */
+    @Test
+    public void pooledService() throws Exception {
+        assertNull(service.getPoolStats());
+        LdapConfig config = createConfig();
+        config.setPooled(true);
+        config.setPoolMaxActive(2);
+        config.setPoolTestOnBorrow(true);
+        LdapService pooledService = new LdapServiceImpl(config);
+        try {
+            for (int i = 0; i < 3; i++) {
+                assertTrue(pooledService.authenticate("ben", "benspassword"));
+                assertFalse(pooledService.authenticate("ben", "wrong"));
+                assertEquals("uid=ben,ou=people", pooledService.findUserDN("ben"));
+                assertTrue(pooledService.evaluateRule("uid=joe,ou=otherpeople"));
+            }
+            LdapPoolStats stats = pooledService.getPoolStats();
+            assertNotNull(stats);
+            assertEquals(0, stats.getNumActive());
+            assertEquals(1, stats.getNumIdle());
+            assertEquals(1, stats.getCreatedCount());
+            assertTrue(stats.getBorrowedCount() >= 9);
+        } finally {
+            pooledService.close();
+        }
+    }
+
+    /**
+     * Create ldap config from test properties.
+     *
+     * @return the ldap config
+     */
+    private LdapConfig createConfig() {
+        LdapConfig config = new LdapConfig();
+        config.setUrl(url);
+        config.setRoot(root);
+        config.setUserDn(userDn);
+        config.setPassword(password);
+        config.setUserSearchBase(userSearchBase);
+        config.setUserAttribute(userAttribute);
+        config.setSearchScope(SearchScope.SUBTREE);
+        return config;
+    }
 }